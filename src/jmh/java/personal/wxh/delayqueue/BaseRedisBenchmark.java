@@ -0,0 +1,30 @@
+package personal.wxh.delayqueue;
+
+import io.lettuce.core.RedisClient;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * 连接本地redis的基准测试, 地址通过 {@code -Dredis.uri} 指定
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+public abstract class BaseRedisBenchmark {
+
+  protected RedisClient client;
+
+  @Setup(Level.Trial)
+  public void connect() {
+    this.client = RedisClient.create(System.getProperty("redis.uri", "redis://127.0.0.1:6379"));
+  }
+
+  @TearDown(Level.Trial)
+  public void shutdown() {
+    client.shutdown();
+  }
+}
@@ -0,0 +1,100 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import personal.wxh.delayqueue.BaseRedisBenchmark;
+import reactor.core.publisher.Flux;
+
+/**
+ * 逐条出队与批量出队, 每次调用搬运 {@code batchSize} 条到期消息
+ *
+ * <p>每轮迭代前写入 {@link #POOL} 条到期消息, 不足一批时在测量中补充, 补充的开销被摊薄到整轮迭代
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DequeueBenchmark extends BaseRedisBenchmark {
+
+  private static final int POOL = 100_000;
+
+  private static final int FILL_BATCH = 1000;
+
+  @Param({"1", "10", "100"})
+  public int batchSize;
+
+  private LettuceReactiveMessageDelayQueue<Object> queue;
+
+  private long sequence;
+
+  private long remaining;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    this.queue =
+        LettuceReactiveMessageDelayQueue.connect("benchmark:dequeue", "benchmark:job", client);
+  }
+
+  @Setup(Level.Iteration)
+  public void fill() {
+    queue.blockClearAll();
+    remaining = 0;
+    refill();
+  }
+
+  @TearDown(Level.Trial)
+  public void clear() {
+    queue.blockClearAll();
+  }
+
+  /** 每条消息一次脚本调用 */
+  @Benchmark
+  public void dequeue() {
+    ensure();
+    Flux.range(0, batchSize).concatMap(i -> queue.dequeue(Long.MAX_VALUE)).then().block();
+    remaining -= batchSize;
+  }
+
+  /** 一次脚本调用搬运整批消息 */
+  @Benchmark
+  public List<Message<Object>> dequeueBatch() {
+    ensure();
+    val moved = queue.dequeueBatch(Long.MAX_VALUE, batchSize).collectList().block();
+    remaining -= batchSize;
+    return moved;
+  }
+
+  private void ensure() {
+    if (remaining < batchSize) {
+      refill();
+    }
+  }
+
+  private void refill() {
+    for (int filled = 0; filled < POOL; filled += FILL_BATCH) {
+      val batch = new ArrayList<Message<Object>>(FILL_BATCH);
+      for (int i = 0; i < FILL_BATCH; i++) {
+        batch.add(Message.of(sequence++, 0L));
+      }
+      queue.enqueueBatch(batch).block();
+    }
+    remaining += POOL;
+  }
+}
@@ -0,0 +1,73 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import personal.wxh.delayqueue.BaseRedisBenchmark;
+import reactor.core.publisher.Flux;
+
+/**
+ * 逐条入队与批量入队, 每次调用写入 {@code batchSize} 条消息, 消息吞吐量为ops/s乘以batchSize
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnqueueBenchmark extends BaseRedisBenchmark {
+
+  @Param({"1", "10", "100", "1000"})
+  public int batchSize;
+
+  private LettuceReactiveMessageDelayQueue<Object> queue;
+
+  private long sequence;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    this.queue =
+        LettuceReactiveMessageDelayQueue.connect("benchmark:enqueue", "benchmark:job", client);
+    queue.blockClearAll();
+  }
+
+  @TearDown(Level.Iteration)
+  public void clear() {
+    queue.blockClearAll();
+  }
+
+  /** 每条消息一次脚本调用, 命令在同一连接上流水线发送 */
+  @Benchmark
+  public void enqueue() {
+    Flux.fromIterable(nextBatch()).flatMap(queue::enqueue).then().block();
+  }
+
+  /** 一次脚本调用写入整批消息 */
+  @Benchmark
+  public Long enqueueBatch() {
+    return queue.enqueueBatch(nextBatch()).block();
+  }
+
+  private List<Message<Object>> nextBatch() {
+    val batch = new ArrayList<Message<Object>>(batchSize);
+    val now = System.currentTimeMillis();
+    for (int i = 0; i < batchSize; i++) {
+      batch.add(Message.of(sequence++, now));
+    }
+    return batch;
+  }
+}
@@ -0,0 +1,47 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.concurrent.TimeUnit;
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 内存队列的入队及出队, 不依赖redis, 用于衡量队列本身的开销
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class InMemoryQueueBenchmark {
+
+  private InMemoryReactiveDelayQueue<Object> queue;
+
+  @Setup
+  public void setup() {
+    this.queue = new InMemoryReactiveDelayQueue<>();
+  }
+
+  /** 入队一条已到期的消息并立即出队, job队列同时被清空 */
+  @Benchmark
+  public Message<Object> enqueueThenDequeue() {
+    val now = System.nanoTime();
+    queue.enqueue(Message.of(now, 0L)).block();
+    queue.dequeue(Long.MAX_VALUE).block();
+    return queue.getJobQueue().dequeue().block();
+  }
+}
@@ -0,0 +1,158 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.Range;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import personal.wxh.delayqueue.BaseRedisBenchmark;
+import personal.wxh.delayqueue.util.LuaScript;
+import personal.wxh.delayqueue.util.ScriptRegistry;
+
+/**
+ * 延迟队列lua脚本在不同zset规模下的开销
+ *
+ * <p>zset预先写入 {@code zsetSize} 条远期消息, 每个测试只增删少量member, 规模在测量期间基本不变. 10M规模的初始化需要数十秒, 可以通过 {@code -p
+ * zsetSize=1000} 缩小范围
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LuaScriptBenchmark extends BaseRedisBenchmark {
+
+  private static final String KEY = "benchmark:script";
+
+  private static final String JOB_KEY = "benchmark:script:job";
+
+  private static final String[] KEYS = {KEY, JOB_KEY};
+
+  /** 预置消息的score, 2100-01-01, 不会到期 */
+  private static final long FUTURE = 4_102_444_800_000L;
+
+  /** 入队测试写入的score, 位于预置消息之后, 迭代结束时按score删除 */
+  private static final long ENQUEUE_SCORE = FUTURE * 2;
+
+  private static final int POPULATE_BATCH = 100_000;
+
+  private static final String POPULATE =
+      "for i = tonumber(ARGV[1]), tonumber(ARGV[2]) do "
+          + "redis.call('ZADD', KEYS[1], ARGV[3] + i, 'm:' .. i) end";
+
+  private static final LuaScript ENQUEUE = ScriptRegistry.get("/lua/enqueue.lua");
+
+  private static final LuaScript DEQUEUE = ScriptRegistry.get("/lua/dequeue-trans.lua");
+
+  private static final LuaScript DEQUEUE_BATCH = ScriptRegistry.get("/lua/dequeue-trans-batch.lua");
+
+  @Param({"1000", "100000", "10000000"})
+  public int zsetSize;
+
+  /** dequeueBatchDue每次搬运的数量 */
+  @Param({"100"})
+  public int batchSize;
+
+  private RedisReactiveCommands<String, String> commands;
+
+  private long sequence;
+
+  private String[] dueMembers;
+
+  @Setup(Level.Trial)
+  public void populate() {
+    this.commands = client.connect().reactive();
+    commands.del(KEY, JOB_KEY).block();
+    for (int from = 0; from < zsetSize; from += POPULATE_BATCH) {
+      val to = Math.min(from + POPULATE_BATCH, zsetSize) - 1;
+      commands
+          .eval(
+              POPULATE,
+              ScriptOutputType.STATUS,
+              new String[] {KEY},
+              String.valueOf(from),
+              String.valueOf(to),
+              String.valueOf(FUTURE))
+          .blockLast();
+    }
+    this.dueMembers = new String[batchSize * 2];
+  }
+
+  @TearDown(Level.Iteration)
+  public void restore() {
+    commands.zremrangebyscore(KEY, Range.create(ENQUEUE_SCORE, ENQUEUE_SCORE)).block();
+    commands.del(JOB_KEY).block();
+  }
+
+  @TearDown(Level.Trial)
+  public void clear() {
+    commands.del(KEY, JOB_KEY).block();
+  }
+
+  /** enqueue.lua, 新消息晚于队头, 不发布唤醒通知 */
+  @Benchmark
+  public Long enqueue() {
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            ENQUEUE,
+            ScriptOutputType.INTEGER,
+            new String[] {KEY},
+            KEY + ":wakeup",
+            "count",
+            String.valueOf(ENQUEUE_SCORE),
+            "e:" + sequence++)
+        .blockLast();
+  }
+
+  /** dequeue-trans.lua, 没有到期消息, 只有一次ZRANGEBYSCORE */
+  @Benchmark
+  public List<String> dequeueEmpty() {
+    return ScriptRegistry.<String, String, List<String>>eval(
+            commands, DEQUEUE, ScriptOutputType.MULTI, KEYS, "0")
+        .blockLast();
+  }
+
+  /** ZADD一条到期消息后执行dequeue-trans.lua搬运到job队列 */
+  @Benchmark
+  public List<String> dequeueDue() {
+    commands.zadd(KEY, 0, "d:" + sequence++).block();
+    return ScriptRegistry.<String, String, List<String>>eval(
+            commands, DEQUEUE, ScriptOutputType.MULTI, KEYS, "0")
+        .blockLast();
+  }
+
+  /** ZADD一批到期消息后执行dequeue-trans-batch.lua搬运到job队列 */
+  @Benchmark
+  public List<String> dequeueBatchDue() {
+    for (int i = 0; i < dueMembers.length; i += 2) {
+      dueMembers[i] = "0";
+      dueMembers[i + 1] = "d:" + sequence++;
+    }
+    commands.zadd(KEY, (Object[]) dueMembers).block();
+    return ScriptRegistry.<String, String, List<String>>eval(
+            commands,
+            DEQUEUE_BATCH,
+            ScriptOutputType.MULTI,
+            KEYS,
+            "0",
+            "0",
+            "0",
+            String.valueOf(batchSize))
+        .blockLast();
+  }
+}
@@ -0,0 +1,85 @@
+package personal.wxh.delayqueue.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.Data;
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import personal.wxh.delayqueue.core.Message;
+
+/**
+ * json读写, 不依赖redis
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReactiveMessageJsonFormatterBenchmark {
+
+  /** {@link #readValues()} 每次读取的数量 */
+  @Param({"1", "100"})
+  public int batchSize;
+
+  private ReactiveMessageJsonFormatter<Order> formatter;
+
+  private Message<Order> message;
+
+  private String json;
+
+  private List<String> jsons;
+
+  @Setup
+  public void setup() {
+    this.formatter =
+        new ReactiveMessageJsonFormatter<>(GlobalObjectMapper.getInstance(), Order.class);
+    val order = new Order();
+    order.setOrderNo("20191211104148000001");
+    order.setUserId(10086L);
+    order.setItems(Arrays.asList("sku-1", "sku-2", "sku-3"));
+    this.message = Message.of("20191211104148000001", System.currentTimeMillis(), order);
+    this.json = formatter.writeValue(message).block();
+    this.jsons = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      jsons.add(json);
+    }
+  }
+
+  @Benchmark
+  public String writeValue() {
+    return formatter.writeValue(message).block();
+  }
+
+  @Benchmark
+  public Message<Order> readValue() {
+    return formatter.readValue(json).block();
+  }
+
+  @Benchmark
+  public List<Message<Order>> readValues() {
+    return formatter.readValues(jsons).collectList().block();
+  }
+
+  @Data
+  public static class Order {
+    private String orderNo;
+    private long userId;
+    private List<String> items;
+  }
+}
@@ -0,0 +1,100 @@
+package personal.wxh.delayqueue.core;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.NonNull;
+import personal.wxh.delayqueue.util.ReactiveBatcher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 合并并发入队的延迟队列
+ *
+ * <p>{@link #enqueue(Message)} 在 {@code window} 内或达到 {@code maxBatchSize} 时合并为一次入队脚本调用,
+ * 每个调用者仍然得到自己消息的结果; 其他操作直接委托给 {@link LettuceReactiveMessageDelayQueue}. 合并会给单次入队增加最多 {@code window}
+ * 的延迟
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class CoalescingReactiveDelayQueue<T> implements ReactiveDelayQueue<T> {
+
+  @Getter private final LettuceReactiveMessageDelayQueue<T> delegate;
+
+  private final ReactiveBatcher<Message<T>, Long> batcher;
+
+  /**
+   * @param delegate 实际写入的队列
+   * @param maxBatchSize 单批最大数量
+   * @param window 最长等待时间
+   */
+  public CoalescingReactiveDelayQueue(
+      @NonNull LettuceReactiveMessageDelayQueue<T> delegate,
+      int maxBatchSize,
+      @NonNull Duration window) {
+    this.delegate = delegate;
+    this.batcher = new ReactiveBatcher<>(maxBatchSize, window, delegate::enqueueEach);
+  }
+
+  /**
+   * 与其他并发调用合并入队
+   *
+   * @param message 消息对象
+   * @return 1新增, 0已存在
+   */
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> message) {
+    return batcher.add(message);
+  }
+
+  /**
+   * 已经是批量操作, 不参与合并
+   *
+   * @param messages 入队值
+   * @return 新增数量
+   */
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> messages) {
+    return delegate.enqueueBatch(messages);
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue(long max) {
+    return delegate.dequeue(max);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max) {
+    return delegate.dequeueBatch(max);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max, long limit) {
+    return delegate.dequeueBatch(max, limit);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long min, long max, long offset, long limit) {
+    return delegate.dequeueBatch(min, max, offset, limit);
+  }
+
+  @Override
+  public Mono<Double> nextScore() {
+    return delegate.nextScore();
+  }
+
+  @Override
+  public Mono<QueueStats> stats(long at, long bucketMillis, int buckets) {
+    return delegate.stats(at, bucketMillis, buckets);
+  }
+
+  @Override
+  public Mono<Long> delete() {
+    return delegate.delete();
+  }
+
+  /** 不再接收新的入队, 已提交的消息会被写入 */
+  public void shutdown() {
+    batcher.shutdown();
+  }
+}
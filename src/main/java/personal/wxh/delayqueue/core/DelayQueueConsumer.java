@@ -0,0 +1,429 @@
+package personal.wxh.delayqueue.core;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import reactor.core.publisher.Mono;
+
+/**
+ * 消费job队列的运行时, 批量拉取消息到本地有界缓冲区, 由固定数量的worker线程执行handler
+ *
+ * <p>缓冲区占用降到一半时通过 {@link ReactiveMessageQueue#dequeueBatch(int)} 补齐, 每次最多拉取剩余容量; 队列为空时从 {@code
+ * 10ms} 开始指数退避, 直到 {@link SimpleTimeBasedJobWatcher#DEFAULT_MAX_IDLE_MILLIS}. worker默认为平台线程, JDK
+ * 21+ 可以通过 {@link #virtualThreads()} 使用虚拟线程
+ *
+ * <p>配置 {@link #handlerTimeout(Duration)} 后, 超时的handler会被中断并按失败处理. {@link #shutdown(Duration)}
+ * 停止拉取后等待缓冲区中的消息处理完, 超时仍未处理的消息放回队列; 停止后才返回的拉取结果也会直接放回队列
+ *
+ * <p>消息从job队列取出后没有ack, 投递语义为至多一次: 进程崩溃时缓冲区中及处理中的消息会丢失, 需要至少一次时使用 {@link
+ * LettuceReliableMessageQueue} 或 {@link LettuceStreamMessageQueue}
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class DelayQueueConsumer<T> {
+
+  /** 空队列退避初始值, 毫秒 */
+  private static final long MIN_IDLE_MILLIS = 10L;
+
+  /** worker等待缓冲区的时间, 同时也是停止后最长的响应时间, 毫秒 */
+  private static final long POLL_MILLIS = 100L;
+
+  private final ReactiveMessageQueue<T> queue;
+
+  private final Consumer<Message<T>> handler;
+
+  private final int concurrency;
+
+  private final int bufferSize;
+
+  /** 本地缓冲区 */
+  private final ArrayBlockingQueue<Message<T>> buffer;
+
+  /** 单线程拉取及handler超时 */
+  private final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+
+  private final List<Thread> workers = new ArrayList<>();
+
+  /** 拉取进行中 */
+  private final AtomicBoolean fetching = new AtomicBoolean();
+
+  private final LongAdder handled = new LongAdder();
+
+  private final LongAdder failed = new LongAdder();
+
+  private ThreadFactory threadFactory;
+
+  /** handler超时, 为null时不限制 */
+  private Duration handlerTimeout;
+
+  private BiConsumer<Message<T>, Throwable> onFailure =
+      (m, e) -> log.error("handle message {} error -> ", m.getId(), e);
+
+  /** 当前退避时间, 拉取串行执行 */
+  private volatile long idleMillis = MIN_IDLE_MILLIS;
+
+  private volatile boolean running;
+
+  /** shutdown已经取出缓冲区, 之后写入缓冲区的消息由拉取自己放回 */
+  private volatile boolean closed;
+
+  /**
+   * 创建消费者, 调用 {@link #start()} 后开始消费
+   *
+   * @param queue job队列
+   * @param handler 消息处理, 抛出异常时按失败处理
+   * @param concurrency worker数量
+   * @param bufferSize 本地缓冲区容量
+   * @return 消费者
+   */
+  public static <T> DelayQueueConsumer<T> create(
+      @NonNull ReactiveMessageQueue<T> queue,
+      @NonNull Consumer<Message<T>> handler,
+      int concurrency,
+      int bufferSize) {
+    if (concurrency <= 0 || bufferSize <= 0) {
+      throw new IllegalArgumentException("concurrency and bufferSize must be positive");
+    }
+    return new DelayQueueConsumer<>(queue, handler, concurrency, bufferSize);
+  }
+
+  private DelayQueueConsumer(
+      ReactiveMessageQueue<T> queue,
+      Consumer<Message<T>> handler,
+      int concurrency,
+      int bufferSize) {
+    this.queue = queue;
+    this.handler = handler;
+    this.concurrency = concurrency;
+    this.bufferSize = bufferSize;
+    this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    this.threadFactory = platformThreadFactory();
+  }
+
+  /**
+   * 限制单条消息的处理时间, 超时后中断worker线程并按 {@link TimeoutException} 失败处理
+   *
+   * @param timeout 超时时间
+   * @return this
+   */
+  public DelayQueueConsumer<T> handlerTimeout(@NonNull Duration timeout) {
+    if (timeout.isNegative() || timeout.isZero()) {
+      throw new IllegalArgumentException("timeout must be positive");
+    }
+    this.handlerTimeout = timeout;
+    return this;
+  }
+
+  /**
+   * 指定worker线程的创建方式
+   *
+   * @param threadFactory 线程工厂
+   * @return this
+   */
+  public DelayQueueConsumer<T> threadFactory(@NonNull ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+    return this;
+  }
+
+  /**
+   * 使用虚拟线程运行worker, 适合handler中有大量阻塞IO且并发数较大的场景
+   *
+   * @return this
+   * @throws UnsupportedOperationException JDK 21以下
+   */
+  public DelayQueueConsumer<T> virtualThreads() {
+    return threadFactory(virtualThreadFactory());
+  }
+
+  /**
+   * 处理失败的回调, 默认打印日志; 失败的消息不会重新入队, 需要重试时可以在回调中处理
+   *
+   * @param onFailure 失败的消息及异常
+   * @return this
+   */
+  public DelayQueueConsumer<T> onFailure(@NonNull BiConsumer<Message<T>, Throwable> onFailure) {
+    this.onFailure = onFailure;
+    return this;
+  }
+
+  /** 启动worker并开始拉取 */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    for (int i = 0; i < concurrency; i++) {
+      val worker = threadFactory.newThread(this::work);
+      workers.add(worker);
+      worker.start();
+    }
+    refill();
+  }
+
+  /**
+   * 停止拉取, 等待缓冲区及处理中的消息完成
+   *
+   * @param drainTimeout 最长等待时间
+   * @return true 全部处理完成, false 超时, 未处理的消息已放回队列
+   */
+  public synchronized boolean shutdown(@NonNull Duration drainTimeout) {
+    running = false;
+    val deadline = System.nanoTime() + drainTimeout.toNanos();
+    boolean drained = true;
+    try {
+      // 等待进行中的拉取写入缓冲区, 之后缓冲区只会减少
+      while (fetching.get() && System.nanoTime() < deadline) {
+        TimeUnit.MILLISECONDS.sleep(1);
+      }
+      for (val worker : workers) {
+        val remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining > 0) {
+          worker.join(remaining);
+        }
+        drained &= !worker.isAlive();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      drained = false;
+    }
+    // 先取出缓冲区再中断worker; 等待超时后仍在进行的拉取在完成时检查closed自行放回
+    closed = true;
+    pushBack().block();
+    if (!drained) {
+      workers.forEach(Thread::interrupt);
+    }
+    workers.clear();
+    service.shutdown();
+    return drained;
+  }
+
+  /**
+   * 处理成功的数量
+   *
+   * @return 数量
+   */
+  public long getHandled() {
+    return handled.sum();
+  }
+
+  /**
+   * 处理失败及超时的数量
+   *
+   * @return 数量
+   */
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  /**
+   * 缓冲区中等待处理的数量
+   *
+   * @return 数量
+   */
+  public int getBuffered() {
+    return buffer.size();
+  }
+
+  /** worker循环, 停止后处理完缓冲区再退出 */
+  private void work() {
+    while (running || !buffer.isEmpty()) {
+      final Message<T> message;
+      try {
+        message = buffer.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        if (running) {
+          continue;
+        }
+        return;
+      }
+      if (message == null) {
+        continue;
+      }
+      if (buffer.size() <= bufferSize / 2) {
+        refill();
+      }
+      handle(message);
+    }
+  }
+
+  /**
+   * 在当前线程执行handler, 超时后由定时任务中断
+   *
+   * @param message 消息
+   */
+  private void handle(Message<T> message) {
+    val thread = Thread.currentThread();
+    // 0 处理中, 1 已完成, 2 已超时; 先完成或先超时的一方生效
+    val state = new AtomicInteger();
+    val timeout = handlerTimeout;
+    val watchdog =
+        timeout == null
+            ? null
+            : scheduleQuietly(
+                () -> {
+                  if (state.compareAndSet(0, 2)) {
+                    thread.interrupt();
+                  }
+                },
+                timeout.toMillis());
+    Throwable error = null;
+    try {
+      handler.accept(message);
+    } catch (Throwable e) {
+      error = e;
+    } finally {
+      state.compareAndSet(0, 1);
+      if (watchdog != null) {
+        watchdog.cancel(false);
+      }
+      // 清除超时或handler自身留下的中断标记, 避免影响下一条消息
+      Thread.interrupted();
+    }
+    if (state.get() == 2) {
+      error = new TimeoutException("handler timed out after " + timeout.toMillis() + "ms");
+    }
+    if (error == null) {
+      handled.increment();
+      return;
+    }
+    failed.increment();
+    try {
+      onFailure.accept(message, error);
+    } catch (Exception e) {
+      log.error("failure callback error -> ", e);
+    }
+  }
+
+  /** 按缓冲区剩余容量拉取一批, 同一时间只有一个拉取在进行 */
+  private void refill() {
+    if (!running || !fetching.compareAndSet(false, true)) {
+      return;
+    }
+    val size = buffer.size();
+    if (size > bufferSize / 2) {
+      fetching.set(false);
+      return;
+    }
+    val room = bufferSize - size;
+    val fetched = new AtomicInteger();
+    queue
+        .dequeueBatch(room)
+        .doOnNext(
+            m -> {
+              // 只有当前拉取会写入, 不会超过容量
+              buffer.offer(m);
+              fetched.incrementAndGet();
+            })
+        .then()
+        .subscribe(null, this::fetchFailed, () -> fetched(fetched.get()));
+  }
+
+  private void fetched(int count) {
+    fetching.set(false);
+    if (closed) {
+      // 没有worker会再处理缓冲区, 不能在IO线程上阻塞
+      pushBack().subscribe();
+      return;
+    }
+    if (count > 0) {
+      idleMillis = MIN_IDLE_MILLIS;
+      refill();
+      return;
+    }
+    scheduleQuietly(this::refill, backoff());
+  }
+
+  private void fetchFailed(Throwable e) {
+    log.error("fetch messages error -> ", e);
+    fetching.set(false);
+    scheduleQuietly(this::refill, backoff());
+  }
+
+  /**
+   * 队列为空或出错时指数退避
+   *
+   * @return 等待时间, 毫秒
+   */
+  private long backoff() {
+    val current = idleMillis;
+    idleMillis = Math.min(current * 2, SimpleTimeBasedJobWatcher.DEFAULT_MAX_IDLE_MILLIS);
+    return current;
+  }
+
+  private ScheduledFuture<?> scheduleQuietly(Runnable task, long delayMillis) {
+    try {
+      return service.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      log.debug("consumer already shutdown, skip scheduling");
+      return null;
+    }
+  }
+
+  /**
+   * 立即取出缓冲区中未处理的消息, 放回队列尾部
+   *
+   * @return 写入完成, 失败时只打印日志
+   */
+  private Mono<Void> pushBack() {
+    val rest = new ArrayList<Message<T>>(buffer.size());
+    buffer.drainTo(rest);
+    if (rest.isEmpty()) {
+      return Mono.empty();
+    }
+    log.warn("push back {} unhandled messages", rest.size());
+    return queue
+        .enqueueBatch(rest)
+        .then()
+        .onErrorResume(
+            e -> {
+              log.error("push back {} messages error -> ", rest.size(), e);
+              return Mono.empty();
+            });
+  }
+
+  private static ThreadFactory platformThreadFactory() {
+    val counter = new AtomicInteger();
+    return r -> {
+      val thread = new Thread(r, "delay-queue-consumer-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * 通过反射创建虚拟线程工厂, 编译目标仍为java 8
+   *
+   * @return 线程工厂
+   */
+  private static ThreadFactory virtualThreadFactory() {
+    try {
+      val builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder =
+          builderClass
+              .getMethod("name", String.class, long.class)
+              .invoke(builder, "delay-queue-consumer-", 1L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("virtual threads require JDK 21+", e);
+    }
+  }
+}
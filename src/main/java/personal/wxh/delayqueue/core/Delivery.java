@@ -0,0 +1,24 @@
+package personal.wxh.delayqueue.core;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * {@link LettuceReliableMessageQueue} 及 {@link LettuceStreamMessageQueue} 投递的消息, 处理完成后需要ack
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@ToString(of = "message")
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public class Delivery<T> {
+
+  /** 消息对象 */
+  @Getter private final Message<T> message;
+
+  /** in-flight zset中本次投递的member或stream entry id, ack时使用 */
+  @Getter(AccessLevel.PACKAGE)
+  private final String member;
+}
@@ -0,0 +1,256 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 基于 {@link ConcurrentSkipListSet} 的延迟队列, 用于单机部署及测试, 语义与 {@link LettuceReactiveMessageDelayQueue}
+ * 相同
+ *
+ * <p>完全相同的消息 ({@link Message#equals(Object)}) 只保存一份, 对应zset以json为member; 相同score按入队顺序排列.
+ * 出队时通过从跳表中删除来认领消息, 并发出队不会重复投递, 认领的消息按顺序追加到 {@link #getJobQueue()}
+ *
+ * <p>消息不经过序列化, 入队后不应再修改
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class InMemoryReactiveDelayQueue<T> implements ReactiveDelayQueue<T> {
+
+  /** 到期消息搬运的目标 */
+  @Getter private final InMemoryReactiveMessageQueue<T> jobQueue;
+
+  private final NavigableSet<Entry<T>> entries = new ConcurrentSkipListSet<>();
+
+  /** 去重, 与entries同时增删 */
+  private final Map<Message<T>, Entry<T>> members = new ConcurrentHashMap<>();
+
+  /** 相同score的入队顺序 */
+  private final AtomicLong sequence = new AtomicLong();
+
+  /** 跳表的size是O(n), 单独计数 */
+  private final LongAdder size = new LongAdder();
+
+  public InMemoryReactiveDelayQueue() {
+    this(new InMemoryReactiveMessageQueue<>());
+  }
+
+  /**
+   * @param jobQueue 到期消息搬运的目标, 可以被多个延迟队列共用
+   */
+  public InMemoryReactiveDelayQueue(@NonNull InMemoryReactiveMessageQueue<T> jobQueue) {
+    this.jobQueue = jobQueue;
+  }
+
+  /**
+   * 入队
+   *
+   * @param message 消息对象
+   * @return 1新增, 0已存在
+   */
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> message) {
+    return Mono.fromSupplier(() -> add(message) ? 1L : 0L);
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> messages) {
+    return Mono.fromSupplier(
+        () -> {
+          long added = 0;
+          for (val message : messages) {
+            if (add(message)) {
+              added++;
+            }
+          }
+          return added;
+        });
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue(long max) {
+    return Mono.fromSupplier(
+        () -> {
+          while (true) {
+            val head = first();
+            if (head == null || head.score > max) {
+              return null;
+            }
+            if (claim(head)) {
+              return head.message;
+            }
+          }
+        });
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max) {
+    return dequeueBatch(max, Long.MAX_VALUE);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max, long limit) {
+    return dequeueBatch(0, max, 0, limit);
+  }
+
+  /**
+   * 与 {@code ZRANGEBYSCORE key min max LIMIT offset limit} 范围相同, min与max都包含
+   *
+   * @param min 最小值
+   * @param max 最大值
+   * @param offset 跳过的数量
+   * @param limit 最大数量
+   * @return 按score顺序认领的消息
+   */
+  @Override
+  public Flux<Message<T>> dequeueBatch(long min, long max, long offset, long limit) {
+    return Flux.defer(() -> Flux.fromIterable(claimRange(min, max, offset, limit)));
+  }
+
+  @Override
+  public Mono<Double> nextScore() {
+    return Mono.fromSupplier(
+        () -> {
+          val head = first();
+          return head == null ? null : head.score;
+        });
+  }
+
+  /**
+   * 到期数量及分桶需要遍历对应范围, O(log n + m)
+   *
+   * @param at 快照时间, 毫秒时间戳
+   * @param bucketMillis 每个桶覆盖的时间范围, 毫秒
+   * @param buckets 从at开始的桶数量, 可以为0
+   * @return 快照
+   */
+  @Override
+  public Mono<QueueStats> stats(long at, long bucketMillis, int buckets) {
+    if (bucketMillis <= 0 || buckets < 0) {
+      return Mono.error(
+          new IllegalArgumentException(
+              "bucketMillis must be positive and buckets must not be negative"));
+    }
+    return Mono.fromSupplier(
+        () -> {
+          val head = first();
+          val due = entries.headSet(upper(at), true).size();
+          val schedule = new ArrayList<Long>(buckets);
+          for (int i = 0; i < buckets; i++) {
+            val from = at + i * bucketMillis;
+            schedule.add(
+                (long) entries.subSet(upper(from), false, upper(from + bucketMillis), true).size());
+          }
+          return new QueueStats(
+              at, size.sum(), due, head == null ? null : head.score, bucketMillis, schedule);
+        });
+  }
+
+  /**
+   * 清空队列, 不影响job队列
+   *
+   * @return 1 队列非空, 0 队列为空, 与DEL的返回值相同
+   */
+  @Override
+  public Mono<Long> delete() {
+    return Mono.fromSupplier(
+        () -> {
+          long removed = 0;
+          Entry<T> entry;
+          while ((entry = entries.pollFirst()) != null) {
+            members.remove(entry.message, entry);
+            size.decrement();
+            removed++;
+          }
+          return removed > 0 ? 1L : 0L;
+        });
+  }
+
+  private boolean add(Message<T> message) {
+    val entry = new Entry<T>(message.getScore(), sequence.getAndIncrement(), message);
+    if (members.putIfAbsent(message, entry) != null) {
+      return false;
+    }
+    entries.add(entry);
+    size.increment();
+    return true;
+  }
+
+  /**
+   * 从跳表中删除成功的调用者获得消息, 同时搬运到job队列
+   *
+   * @param entry 待认领的消息
+   * @return false 已被其他调用者认领
+   */
+  private boolean claim(Entry<T> entry) {
+    if (!entries.remove(entry)) {
+      return false;
+    }
+    members.remove(entry.message, entry);
+    size.decrement();
+    jobQueue.push(entry.message);
+    return true;
+  }
+
+  private List<Message<T>> claimRange(long min, long max, long offset, long limit) {
+    if (min > max || limit <= 0) {
+      return Collections.emptyList();
+    }
+    val claimed = new ArrayList<Message<T>>();
+    long skipped = 0;
+    for (val entry : entries.subSet(lower(min), true, upper(max), true)) {
+      if (skipped < offset) {
+        skipped++;
+        continue;
+      }
+      if (claim(entry)) {
+        claimed.add(entry.message);
+        if (claimed.size() >= limit) {
+          break;
+        }
+      }
+    }
+    return claimed;
+  }
+
+  /** 队列为空时为null, {@link NavigableSet#first()} 会抛出异常 */
+  private Entry<T> first() {
+    return entries.ceiling(lower(Double.NEGATIVE_INFINITY));
+  }
+
+  /** score相同时排在所有消息之前的边界 */
+  private static <T> Entry<T> lower(double score) {
+    return new Entry<>(score, Long.MIN_VALUE, null);
+  }
+
+  /** score相同时排在所有消息之后的边界 */
+  private static <T> Entry<T> upper(double score) {
+    return new Entry<>(score, Long.MAX_VALUE, null);
+  }
+
+  @RequiredArgsConstructor
+  private static class Entry<T> implements Comparable<Entry<T>> {
+    private final double score;
+    private final long sequence;
+    private final Message<T> message;
+
+    @Override
+    public int compareTo(Entry<T> o) {
+      val c = Double.compare(score, o.score);
+      return c != 0 ? c : Long.compare(sequence, o.sequence);
+    }
+  }
+}
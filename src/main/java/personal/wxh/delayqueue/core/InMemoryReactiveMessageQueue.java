@@ -0,0 +1,101 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lombok.NonNull;
+import lombok.val;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 基于 {@link ConcurrentLinkedQueue} 的job队列, 用于单机部署及测试, 语义与 {@link LettuceReactiveMessageQueue} 相同
+ *
+ * <p>消息不经过序列化, 入队后不应再修改
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class InMemoryReactiveMessageQueue<T> implements ReactiveMessageQueue<T> {
+
+  private final Queue<Message<T>> queue = new ConcurrentLinkedQueue<>();
+
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> value) {
+    return Mono.fromSupplier(
+        () -> {
+          queue.add(value);
+          return 1L;
+        });
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> values) {
+    return Mono.fromSupplier(
+        () -> {
+          long added = 0;
+          for (val value : values) {
+            queue.add(value);
+            added++;
+          }
+          return added;
+        });
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue() {
+    return Mono.fromSupplier(queue::poll);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(int count) {
+    return Flux.defer(() -> Flux.fromIterable(poll(count)));
+  }
+
+  /**
+   * 清空队列
+   *
+   * @return 1 队列非空, 0 队列为空, 与DEL的返回值相同
+   */
+  @Override
+  public Mono<Long> delete() {
+    return Mono.fromSupplier(
+        () -> {
+          val empty = queue.isEmpty();
+          queue.clear();
+          return empty ? 0L : 1L;
+        });
+  }
+
+  /**
+   * 当前消息数量, O(n)
+   *
+   * @return 数量
+   */
+  public int size() {
+    return queue.size();
+  }
+
+  /**
+   * 供 {@link InMemoryReactiveDelayQueue} 搬运到期消息
+   *
+   * @param message 消息
+   */
+  void push(Message<T> message) {
+    queue.add(message);
+  }
+
+  private List<Message<T>> poll(int count) {
+    if (count <= 0) {
+      return Collections.emptyList();
+    }
+    val polled = new ArrayList<Message<T>>(Math.min(count, 256));
+    Message<T> message;
+    while (polled.size() < count && (message = queue.poll()) != null) {
+      polled.add(message);
+    }
+    return polled;
+  }
+}
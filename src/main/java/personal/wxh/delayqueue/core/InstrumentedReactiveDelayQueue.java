@@ -0,0 +1,98 @@
+package personal.wxh.delayqueue.core;
+
+import lombok.Getter;
+import lombok.NonNull;
+import personal.wxh.delayqueue.metrics.QueueMetrics;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 采集指标的延迟队列, 所有操作委托给 {@code delegate}
+ *
+ * <p>出队的消息已经被搬运到job队列, 每条消息记录一次 {@link QueueMetrics#transferLag(String, long)}; 交给 {@link
+ * SimpleTimeBasedJobWatcher} 监听时即得到watcher的搬运速率及延迟. 批量出队的耗时在收到第一个元素时结束, 没有元素时在结束或取消时结束,
+ * 不包含下游处理的背压时间; 批量大小在完成时记录
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class InstrumentedReactiveDelayQueue<T> implements ReactiveDelayQueue<T> {
+
+  @Getter private final ReactiveDelayQueue<T> delegate;
+
+  /** 指标中的队列名称 */
+  @Getter private final String name;
+
+  private final Instruments instruments;
+
+  /**
+   * @param delegate 实际操作的队列
+   * @param name 指标中的队列名称
+   * @param metrics 指标采集
+   */
+  public InstrumentedReactiveDelayQueue(
+      @NonNull ReactiveDelayQueue<T> delegate,
+      @NonNull String name,
+      @NonNull QueueMetrics metrics) {
+    this.delegate = delegate;
+    this.name = name;
+    this.instruments = new Instruments(name, metrics);
+  }
+
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> message) {
+    return instruments.timed("enqueue", delegate.enqueue(message)).doOnNext(instruments::enqueued);
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> messages) {
+    return Mono.defer(
+        () ->
+            instruments
+                .timed(
+                    "enqueueBatch",
+                    delegate.enqueueBatch(instruments.batch("enqueueBatch", messages)))
+                .doOnNext(instruments::enqueued));
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue(long max) {
+    return instruments.timed("dequeue", delegate.dequeue(max)).doOnNext(instruments::transferred);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max) {
+    return instruments
+        .timedBatch("dequeueBatch", delegate.dequeueBatch(max))
+        .doOnNext(instruments::transferred);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max, long limit) {
+    return instruments
+        .timedBatch("dequeueBatch", delegate.dequeueBatch(max, limit))
+        .doOnNext(instruments::transferred);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long min, long max, long offset, long limit) {
+    return instruments
+        .timedBatch("dequeueBatch", delegate.dequeueBatch(min, max, offset, limit))
+        .doOnNext(instruments::transferred);
+  }
+
+  @Override
+  public Mono<Double> nextScore() {
+    return instruments.timed("nextScore", delegate.nextScore());
+  }
+
+  @Override
+  public Mono<QueueStats> stats(long at, long bucketMillis, int buckets) {
+    return instruments.timed("stats", delegate.stats(at, bucketMillis, buckets));
+  }
+
+  @Override
+  public Mono<Long> delete() {
+    return instruments.timed("delete", delegate.delete());
+  }
+}
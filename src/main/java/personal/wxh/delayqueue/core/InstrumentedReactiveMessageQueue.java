@@ -0,0 +1,72 @@
+package personal.wxh.delayqueue.core;
+
+import lombok.Getter;
+import lombok.NonNull;
+import personal.wxh.delayqueue.metrics.QueueMetrics;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 采集指标的job队列, 所有操作委托给 {@code delegate}
+ *
+ * <p>{@link LettuceReactiveMessageQueue#consume()} 等实现特有的方法不经过该类, 可以通过 {@link #getDelegate()} 调用
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class InstrumentedReactiveMessageQueue<T> implements ReactiveMessageQueue<T> {
+
+  @Getter private final ReactiveMessageQueue<T> delegate;
+
+  /** 指标中的队列名称 */
+  @Getter private final String name;
+
+  private final Instruments instruments;
+
+  /**
+   * @param delegate 实际操作的队列
+   * @param name 指标中的队列名称
+   * @param metrics 指标采集
+   */
+  public InstrumentedReactiveMessageQueue(
+      @NonNull ReactiveMessageQueue<T> delegate,
+      @NonNull String name,
+      @NonNull QueueMetrics metrics) {
+    this.delegate = delegate;
+    this.name = name;
+    this.instruments = new Instruments(name, metrics);
+  }
+
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> value) {
+    return instruments.timed("enqueue", delegate.enqueue(value)).doOnNext(instruments::enqueued);
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> values) {
+    return Mono.defer(
+        () ->
+            instruments
+                .timed(
+                    "enqueueBatch",
+                    delegate.enqueueBatch(instruments.batch("enqueueBatch", values)))
+                .doOnNext(instruments::enqueued));
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue() {
+    return instruments.timed("dequeue", delegate.dequeue()).doOnNext(m -> instruments.dequeued());
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(int count) {
+    return instruments
+        .timedBatch("dequeueBatch", delegate.dequeueBatch(count))
+        .doOnNext(m -> instruments.dequeued());
+  }
+
+  @Override
+  public Mono<Long> delete() {
+    return instruments.timed("delete", delegate.delete());
+  }
+}
@@ -0,0 +1,126 @@
+package personal.wxh.delayqueue.core;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import personal.wxh.delayqueue.metrics.QueueMetrics;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * 队列装饰器共用的计时及计数
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@RequiredArgsConstructor
+class Instruments {
+
+  private final String queue;
+
+  private final QueueMetrics metrics;
+
+  /**
+   * 订阅时开始计时, 结束或取消时记录
+   *
+   * @param operation 操作
+   * @param source 一次redis调用
+   * @return 计时后的结果
+   */
+  <R> Mono<R> timed(String operation, Mono<R> source) {
+    return Mono.defer(
+        () -> {
+          val start = System.nanoTime();
+          return source.doOnError(this::onError).doFinally(s -> record(operation, start, s));
+        });
+  }
+
+  /**
+   * 订阅时开始计时, 同时记录元素数量; 整批结果在一次回复中到达, 收到第一个元素时停止计时, 不包含下游处理的时间, 没有元素时在结束或取消时记录
+   *
+   * @param operation 操作
+   * @param source 一次redis调用
+   * @return 计时后的结果
+   */
+  <R> Flux<R> timedBatch(String operation, Flux<R> source) {
+    return Flux.defer(
+        () -> {
+          val start = System.nanoTime();
+          val count = new int[1];
+          return source
+              .doOnNext(
+                  r -> {
+                    if (count[0]++ == 0) {
+                      record(operation, start, SignalType.ON_NEXT);
+                    }
+                  })
+              .doOnError(this::onError)
+              .doOnComplete(() -> metrics.batchSize(queue, operation, count[0]))
+              .doFinally(
+                  s -> {
+                    if (count[0] == 0) {
+                      record(operation, start, s);
+                    }
+                  });
+        });
+  }
+
+  void enqueued(Long count) {
+    metrics.enqueued(queue, count);
+  }
+
+  void dequeued() {
+    metrics.dequeued(queue, 1);
+  }
+
+  void transferred(Message<?> message) {
+    metrics.dequeued(queue, 1);
+    metrics.transferLag(queue, System.currentTimeMillis() - (long) message.getScore());
+  }
+
+  /**
+   * 记录批量大小, 非Collection的Iterable复制一次, 避免遍历两次
+   *
+   * @param operation 操作
+   * @param items 批量元素
+   * @return 交给被装饰队列的元素
+   */
+  <E> Collection<E> batch(String operation, Iterable<E> items) {
+    final Collection<E> batch;
+    if (items instanceof Collection) {
+      batch = (Collection<E>) items;
+    } else {
+      batch = new ArrayList<>();
+      items.forEach(batch::add);
+    }
+    metrics.batchSize(queue, operation, batch.size());
+    return batch;
+  }
+
+  private void record(String operation, long start, SignalType signal) {
+    metrics.redisCall(queue, operation, System.nanoTime() - start, signal != SignalType.ON_ERROR);
+  }
+
+  private void onError(Throwable e) {
+    if (isDecodeFailure(e)) {
+      metrics.decodeFailure(queue);
+    }
+  }
+
+  /** jackson及二进制编解码的异常会被包装为RuntimeException */
+  private static boolean isDecodeFailure(Throwable e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof JsonProcessingException || t instanceof UncheckedIOException) {
+        return true;
+      }
+      if (t.getCause() == t) {
+        break;
+      }
+    }
+    return false;
+  }
+}
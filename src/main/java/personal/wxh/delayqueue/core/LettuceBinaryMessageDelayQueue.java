@@ -0,0 +1,259 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScoredValue;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.val;
+import personal.wxh.delayqueue.util.ByteBufferCodec;
+import personal.wxh.delayqueue.util.LuaScript;
+import personal.wxh.delayqueue.util.MessageCodec;
+import personal.wxh.delayqueue.util.ScriptRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 二进制编码的延迟队列, 与 {@link LettuceReactiveMessageDelayQueue} 使用相同的lua脚本
+ *
+ * <p>消息通过 {@link MessageCodec} 直接编码为 {@link ByteBuffer}, 不经过json字符串, 配合 {@link
+ * LettuceBinaryMessageQueue} 消费job队列
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettuceBinaryMessageDelayQueue<T> implements ReactiveDelayQueue<T> {
+
+  private static final String ENQUEUE_SCRIPT_FILE = "/lua/enqueue.lua";
+  private static final String DEQUEUE_SCRIPT_FILE = "/lua/dequeue-trans.lua";
+  private static final String DEQUEUE_BATCH_SCRIPT_FILE = "/lua/dequeue-trans-batch.lua";
+
+  /** 入队脚本返回新增总数 */
+  private static final ByteBuffer COUNT_MODE = ascii("count");
+
+  @Getter private final String key;
+
+  @Getter private final String jobQueueKey;
+
+  @Getter private final MessageCodec<T> codec;
+
+  /** 与 {@link LettuceReactiveMessageDelayQueue#getWakeupChannel()} 格式相同 */
+  @Getter private final String wakeupChannel;
+
+  /** job队列水位上限, 批量出队只搬运到job队列长度达到该值为止, 为0时不限制 */
+  @Getter private final long highWaterMark;
+
+  /** 脚本操作的key, zset在前 */
+  private final byte[][] scriptKeys;
+
+  private final ByteBuffer wakeupChannelValue;
+
+  private final LuaScript enqueueScript;
+
+  private final LuaScript dequeueScript;
+
+  private final LuaScript dequeueBatchScript;
+
+  private final RedisClusterReactiveCommands<byte[], ByteBuffer> commands;
+
+  /**
+   * 外部传入客户端, 内部使用 {@link ByteBufferCodec} 进行连接初始化
+   *
+   * @param key key
+   * @param jobQueueKey 任务队列key
+   * @param codec 消息编解码
+   * @param redisClient redis客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceBinaryMessageDelayQueue<T> connect(
+      @NonNull String key,
+      @NonNull String jobQueueKey,
+      @NonNull MessageCodec<T> codec,
+      @NonNull RedisClient redisClient) {
+    return create(
+        key, jobQueueKey, codec, redisClient.connect(ByteBufferCodec.INSTANCE).reactive());
+  }
+
+  /**
+   * 外部传入命令, 不进行连接初始化, 脚本首次执行时按需加载
+   *
+   * @param key key
+   * @param jobQueueKey 任务队列key
+   * @param codec 消息编解码
+   * @param commands 使用 {@link ByteBufferCodec} 的异步命令
+   * @return 队列实例
+   */
+  public static <T> LettuceBinaryMessageDelayQueue<T> create(
+      @NonNull String key,
+      @NonNull String jobQueueKey,
+      @NonNull MessageCodec<T> codec,
+      @NonNull RedisClusterReactiveCommands<byte[], ByteBuffer> commands) {
+    return new LettuceBinaryMessageDelayQueue<>(
+        key,
+        jobQueueKey,
+        codec,
+        commands,
+        ScriptRegistry.get(ENQUEUE_SCRIPT_FILE),
+        ScriptRegistry.get(DEQUEUE_SCRIPT_FILE),
+        ScriptRegistry.get(DEQUEUE_BATCH_SCRIPT_FILE),
+        0L);
+  }
+
+  private LettuceBinaryMessageDelayQueue(
+      String key,
+      String jobQueueKey,
+      MessageCodec<T> codec,
+      RedisClusterReactiveCommands<byte[], ByteBuffer> commands,
+      LuaScript enqueueScript,
+      LuaScript dequeueScript,
+      LuaScript dequeueBatchScript,
+      long highWaterMark) {
+    this.key = key;
+    this.jobQueueKey = jobQueueKey;
+    this.codec = codec;
+    this.wakeupChannel = key + ":wakeup";
+    this.scriptKeys = new byte[][] {bytes(key), bytes(jobQueueKey)};
+    this.wakeupChannelValue = ByteBuffer.wrap(bytes(wakeupChannel));
+    this.commands = commands;
+    this.enqueueScript = enqueueScript;
+    this.dequeueScript = dequeueScript;
+    this.dequeueBatchScript = dequeueBatchScript;
+    this.highWaterMark = highWaterMark;
+  }
+
+  /**
+   * 使用相同的key, 连接及脚本, 批量出队时先读取job队列长度, 只搬运到长度达到 {@code highWaterMark} 为止; 单条 {@link #dequeue(long)}
+   * 不受限制
+   *
+   * @param highWaterMark job队列水位上限, 为0时不限制
+   * @return 新的队列实例
+   */
+  public LettuceBinaryMessageDelayQueue<T> withHighWaterMark(long highWaterMark) {
+    if (highWaterMark < 0) {
+      throw new IllegalArgumentException("highWaterMark must not be negative");
+    }
+    return new LettuceBinaryMessageDelayQueue<>(
+        key,
+        jobQueueKey,
+        codec,
+        commands,
+        enqueueScript,
+        dequeueScript,
+        dequeueBatchScript,
+        highWaterMark);
+  }
+
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> message) {
+    return Mono.fromSupplier(() -> encodeArgs(Collections.singletonList(message)))
+        .flatMap(this::zaddAndNotify);
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> messages) {
+    return Mono.fromSupplier(() -> encodeArgs(messages)).flatMap(this::zaddAndNotify);
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue(long max) {
+    return ScriptRegistry.<byte[], ByteBuffer, ByteBuffer>eval(
+            commands, dequeueScript, ScriptOutputType.VALUE, scriptKeys, ascii(max))
+        .last()
+        .map(codec::decode);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max) {
+    return dequeueBatch(max, Long.MAX_VALUE);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max, long limit) {
+    return dequeueBatch(0, max, 0, limit);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long min, long max, long offset, long limit) {
+    return ScriptRegistry.<byte[], ByteBuffer, Collection<ByteBuffer>>eval(
+            commands,
+            dequeueBatchScript,
+            ScriptOutputType.MULTI,
+            scriptKeys,
+            ascii(min),
+            ascii(max),
+            ascii(offset),
+            ascii(limit),
+            ascii(highWaterMark))
+        .flatMapIterable(lst -> lst)
+        .map(codec::decode);
+  }
+
+  @Override
+  public Mono<Double> nextScore() {
+    return commands.zrangeWithScores(scriptKeys[0], 0, 0).next().map(ScoredValue::getScore);
+  }
+
+  @Override
+  public Mono<QueueStats> stats(long at, long bucketMillis, int buckets) {
+    return ZSetStats.read(commands, scriptKeys[0], at, bucketMillis, buckets);
+  }
+
+  @Override
+  public Mono<Long> delete() {
+    return commands.del(scriptKeys[0]);
+  }
+
+  /**
+   * 清空任务队列
+   *
+   * @return Mono<Long>
+   */
+  public Mono<Long> deleteJobList() {
+    return commands.del(scriptKeys[1]);
+  }
+
+  /**
+   * 编码入队脚本参数: 唤醒频道, 返回模式, 然后score与消息交替
+   *
+   * @param messages 消息
+   * @return 脚本参数
+   */
+  private List<ByteBuffer> encodeArgs(Iterable<Message<T>> messages) {
+    val args = new ArrayList<ByteBuffer>();
+    args.add(wakeupChannelValue.duplicate());
+    args.add(COUNT_MODE.duplicate());
+    for (val message : messages) {
+      args.add(ascii(message.getScore()));
+      args.add(codec.encode(message));
+    }
+    return args;
+  }
+
+  private Mono<Long> zaddAndNotify(List<ByteBuffer> args) {
+    if (args.size() <= 2) {
+      return Mono.just(0L);
+    }
+    return ScriptRegistry.<byte[], ByteBuffer, Long>eval(
+            commands,
+            enqueueScript,
+            ScriptOutputType.INTEGER,
+            new byte[][] {scriptKeys[0]},
+            args.toArray(new ByteBuffer[0]))
+        .next();
+  }
+
+  private static ByteBuffer ascii(Object value) {
+    return ByteBuffer.wrap(String.valueOf(value).getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
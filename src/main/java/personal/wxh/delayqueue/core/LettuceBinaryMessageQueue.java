@@ -0,0 +1,101 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import lombok.Getter;
+import lombok.NonNull;
+import personal.wxh.delayqueue.util.ByteBufferCodec;
+import personal.wxh.delayqueue.util.MessageCodec;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 二进制编码的队列, 配合 {@link LettuceBinaryMessageDelayQueue} 使用, 两者需要使用相同的 {@link MessageCodec}
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettuceBinaryMessageQueue<T> implements ReactiveMessageQueue<T> {
+
+  /**
+   * 外部传入客户端, 内部使用 {@link ByteBufferCodec} 进行连接初始化
+   *
+   * @param key key
+   * @param codec 消息编解码
+   * @param redisClient redis客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceBinaryMessageQueue<T> connect(
+      @NonNull String key, @NonNull MessageCodec<T> codec, @NonNull RedisClient redisClient) {
+    return create(key, codec, redisClient.connect(ByteBufferCodec.INSTANCE).reactive());
+  }
+
+  /**
+   * 外部传入命令, 不进行连接初始化
+   *
+   * @param key key
+   * @param codec 消息编解码
+   * @param commands 使用 {@link ByteBufferCodec} 的异步命令
+   * @return 队列实例
+   */
+  public static <T> LettuceBinaryMessageQueue<T> create(
+      @NonNull String key,
+      @NonNull MessageCodec<T> codec,
+      @NonNull RedisClusterReactiveCommands<byte[], ByteBuffer> commands) {
+    return new LettuceBinaryMessageQueue<>(key, codec, commands);
+  }
+
+  /** redis队列key */
+  @Getter private final String key;
+
+  private final byte[] keyBytes;
+
+  @Getter private final MessageCodec<T> codec;
+
+  /** redis异步操作命令对象 */
+  private final RedisClusterReactiveCommands<byte[], ByteBuffer> commands;
+
+  /** 批量出队 */
+  private final ListBatchPopper<byte[], ByteBuffer> popper;
+
+  private LettuceBinaryMessageQueue(
+      String key,
+      MessageCodec<T> codec,
+      RedisClusterReactiveCommands<byte[], ByteBuffer> commands) {
+    this.key = key;
+    this.keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    this.codec = codec;
+    this.commands = commands;
+    this.popper = new ListBatchPopper<>(commands, ByteBufferCodec.INSTANCE, keyBytes);
+  }
+
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> value) {
+    return Mono.fromSupplier(() -> codec.encode(value)).flatMap(b -> commands.rpush(keyBytes, b));
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> values) {
+    return Flux.fromIterable(values)
+        .map(codec::encode)
+        .collectList()
+        .flatMap(s -> commands.rpush(keyBytes, s.toArray(new ByteBuffer[0])));
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue() {
+    return commands.lpop(keyBytes).map(codec::decode);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(int count) {
+    return popper.pop(count).flatMapIterable(lst -> lst).map(codec::decode);
+  }
+
+  @Override
+  public Mono<Long> delete() {
+    return commands.del(keyBytes);
+  }
+}
@@ -0,0 +1,188 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.val;
+
+/**
+ * 多个队列实例共享的连接管理, 按用途分离连接
+ *
+ * <ul>
+ *   <li>producer: 固定数量的多路复用连接, 轮询分配给入队等短命令
+ *   <li>scripts: 一条独占连接执行出队搬运等耗时较长的lua脚本, 不会阻塞入队
+ *   <li>blocking: BLPOP等阻塞命令按需创建独占连接, 总数不超过 {@code maxBlockingConnections}
+ * </ul>
+ *
+ * <p>关闭manager会关闭所有连接, 脚本由 {@link personal.wxh.delayqueue.util.ScriptRegistry} 管理
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettuceConnectionManager implements AutoCloseable {
+
+  private final Supplier<StatefulConnection<String, String>> connector;
+
+  private final List<StatefulConnection<String, String>> producers;
+
+  private final List<RedisClusterReactiveCommands<String, String>> producerCommands;
+
+  private final StatefulConnection<String, String> scriptConnection;
+
+  private final RedisClusterReactiveCommands<String, String> scriptCommands;
+
+  private final AtomicInteger next = new AtomicInteger();
+
+  /** 阻塞连接的剩余配额 */
+  private final Semaphore blockingPermits;
+
+  /** 阻塞连接的最大数量 */
+  @Getter private final int maxBlockingConnections;
+
+  private final Map<StatefulConnection<String, String>, Boolean> blocking =
+      new ConcurrentHashMap<>();
+
+  /**
+   * 单机客户端
+   *
+   * @param client redis客户端
+   * @param producerConnections producer连接数量
+   * @param maxBlockingConnections 阻塞连接的最大数量
+   * @return 连接管理
+   */
+  public static LettuceConnectionManager create(
+      @NonNull RedisClient client, int producerConnections, int maxBlockingConnections) {
+    return new LettuceConnectionManager(
+        client::connect, producerConnections, maxBlockingConnections);
+  }
+
+  /**
+   * 集群客户端
+   *
+   * @param client redis集群客户端
+   * @param producerConnections producer连接数量
+   * @param maxBlockingConnections 阻塞连接的最大数量
+   * @return 连接管理
+   */
+  public static LettuceConnectionManager create(
+      @NonNull RedisClusterClient client, int producerConnections, int maxBlockingConnections) {
+    return new LettuceConnectionManager(
+        client::connect, producerConnections, maxBlockingConnections);
+  }
+
+  private LettuceConnectionManager(
+      Supplier<StatefulConnection<String, String>> connector,
+      int producerConnections,
+      int maxBlockingConnections) {
+    if (producerConnections <= 0 || maxBlockingConnections < 0) {
+      throw new IllegalArgumentException(
+          "producerConnections must be positive and maxBlockingConnections must not be negative");
+    }
+    this.connector = connector;
+    this.maxBlockingConnections = maxBlockingConnections;
+    this.blockingPermits = new Semaphore(maxBlockingConnections);
+    this.producers = new ArrayList<>(producerConnections);
+    this.producerCommands = new ArrayList<>(producerConnections);
+    for (int i = 0; i < producerConnections; i++) {
+      val connection = connector.get();
+      producers.add(connection);
+      producerCommands.add(reactive(connection));
+    }
+    this.scriptConnection = connector.get();
+    this.scriptCommands = reactive(scriptConnection);
+  }
+
+  /**
+   * 轮询分配producer连接
+   *
+   * @return 多路复用连接的命令
+   */
+  public RedisClusterReactiveCommands<String, String> producer() {
+    return producerCommands.get(Math.floorMod(next.getAndIncrement(), producerCommands.size()));
+  }
+
+  /**
+   * 执行耗时脚本的连接, 所有队列共享
+   *
+   * @return 独占连接的命令
+   */
+  public RedisClusterReactiveCommands<String, String> scripts() {
+    return scriptCommands;
+  }
+
+  /**
+   * 创建阻塞命令使用的独占连接, 用完需要 {@link #releaseBlocking(StatefulConnection)}
+   *
+   * @return 独占连接
+   * @throws IllegalStateException 超过最大数量
+   */
+  public StatefulConnection<String, String> acquireBlocking() {
+    if (!blockingPermits.tryAcquire()) {
+      throw new IllegalStateException(
+          "blocking connections exhausted, max " + maxBlockingConnections);
+    }
+    try {
+      val connection = connector.get();
+      blocking.put(connection, Boolean.TRUE);
+      return connection;
+    } catch (RuntimeException e) {
+      blockingPermits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * 关闭独占连接并归还配额
+   *
+   * @param connection {@link #acquireBlocking()} 返回的连接
+   */
+  public void releaseBlocking(@NonNull StatefulConnection<String, String> connection) {
+    if (blocking.remove(connection) != null) {
+      connection.close();
+      blockingPermits.release();
+    }
+  }
+
+  /**
+   * 当前使用中的阻塞连接数量
+   *
+   * @return 数量
+   */
+  public int getBlockingInUse() {
+    return maxBlockingConnections - blockingPermits.availablePermits();
+  }
+
+  @Override
+  public void close() {
+    blocking.keySet().forEach(this::releaseBlocking);
+    producers.forEach(StatefulConnection::close);
+    scriptConnection.close();
+  }
+
+  /**
+   * 单机及集群连接的reactive命令
+   *
+   * @param connection 连接
+   * @return 命令
+   */
+  @SuppressWarnings("unchecked")
+  static RedisClusterReactiveCommands<String, String> reactive(
+      StatefulConnection<String, String> connection) {
+    if (connection instanceof StatefulRedisClusterConnection) {
+      return ((StatefulRedisClusterConnection<String, String>) connection).reactive();
+    }
+    return ((StatefulRedisConnection<String, String>) connection).reactive();
+  }
+}
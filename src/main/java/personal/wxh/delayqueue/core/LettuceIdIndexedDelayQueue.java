@@ -0,0 +1,314 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScoredValue;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.val;
+import personal.wxh.delayqueue.util.GlobalObjectMapper;
+import personal.wxh.delayqueue.util.LuaScript;
+import personal.wxh.delayqueue.util.ReactiveMessageJsonFormatter;
+import personal.wxh.delayqueue.util.ScriptRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 按id索引的延迟队列
+ *
+ * <p>zset只保存 {@link Message#getId()}, 消息json保存在 {@code key:payload} hash中; 相同id重复入队是幂等的, 支持按id
+ * {@link #cancel(Serializable)} 及 {@link #reschedule(Serializable, long)}
+ *
+ * <p>出队时把消息json push到 {@code jobQueueKey}, 与 {@link LettuceReactiveMessageDelayQueue} 的job队列格式相同,
+ * 可以使用 {@link LettuceReactiveMessageQueue} 消费. id通过 {@link String#valueOf(Object)} 转换, {@code 1} 与
+ * {@code "1"} 视为同一个id
+ *
+ * <p>{@link Message#ofRecurring(Serializable, Long, long, Object)} 构造的周期消息出队时,
+ * 脚本在同一次调用中按周期写入下一次并更新消息json中的score, 不需要客户端重新入队; 下一次总是晚于出队时的当前时间, 与出队的max无关, 错过的周期会被跳过, {@link
+ * #cancel(Serializable)} 后不再出队
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettuceIdIndexedDelayQueue<T> implements ReactiveDelayQueue<T> {
+
+  private static final String ENQUEUE_SCRIPT_FILE = "/lua/enqueue-indexed.lua";
+  private static final String DEQUEUE_BATCH_SCRIPT_FILE = "/lua/dequeue-trans-batch-indexed.lua";
+  private static final String CANCEL_SCRIPT_FILE = "/lua/cancel-indexed.lua";
+  private static final String RESCHEDULE_SCRIPT_FILE = "/lua/reschedule-indexed.lua";
+
+  @Getter private final String key;
+
+  @Getter private final String jobQueueKey;
+
+  /** 消息json, hash, field为id */
+  @Getter private final String payloadKey;
+
+  @Getter private final ReactiveMessageJsonFormatter<T> formatter;
+
+  @Getter private final Class<T> metaClazz;
+
+  /** 与 {@link LettuceReactiveMessageDelayQueue#getWakeupChannel()} 格式相同 */
+  @Getter private final String wakeupChannel;
+
+  /** job队列水位上限, 批量出队只搬运到job队列长度达到该值为止, 为0时不限制 */
+  @Getter private final long highWaterMark;
+
+  private final LuaScript enqueueScript = ScriptRegistry.get(ENQUEUE_SCRIPT_FILE);
+
+  private final LuaScript dequeueBatchScript = ScriptRegistry.get(DEQUEUE_BATCH_SCRIPT_FILE);
+
+  private final LuaScript cancelScript = ScriptRegistry.get(CANCEL_SCRIPT_FILE);
+
+  private final LuaScript rescheduleScript = ScriptRegistry.get(RESCHEDULE_SCRIPT_FILE);
+
+  @Getter(AccessLevel.PACKAGE)
+  private final RedisClusterReactiveCommands<String, String> commands;
+
+  /**
+   * 外部传入客户端, 内部进行连接初始化
+   *
+   * @param key key
+   * @param jobQueueKey 任务队列key
+   * @param metaClazz 泛型类型
+   * @param redisClient redis客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceIdIndexedDelayQueue<T> connect(
+      @NonNull String key,
+      @NonNull String jobQueueKey,
+      @NonNull Class<T> metaClazz,
+      @NonNull RedisClient redisClient) {
+    return new LettuceIdIndexedDelayQueue<>(
+        key, jobQueueKey, metaClazz, redisClient.connect().reactive(), 0L);
+  }
+
+  /**
+   * 外部传入集群客户端, 内部进行连接初始化, 脚本在各节点首次执行时按需加载
+   *
+   * <p>{@code key}, {@code key:payload} 与 {@code jobQueueKey} 必须位于同一个slot, 可以使用hash tag, 例如 {@code
+   * {order}:delay} 与 {@code {order}:job}
+   *
+   * @param key key
+   * @param jobQueueKey 任务队列key
+   * @param metaClazz 泛型类型
+   * @param clusterClient redis集群客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceIdIndexedDelayQueue<T> connect(
+      @NonNull String key,
+      @NonNull String jobQueueKey,
+      @NonNull Class<T> metaClazz,
+      @NonNull RedisClusterClient clusterClient) {
+    val slot = SlotHash.getSlot(key);
+    if (slot != SlotHash.getSlot(key + ":payload") || slot != SlotHash.getSlot(jobQueueKey)) {
+      throw new IllegalArgumentException(
+          "key, key:payload and jobQueueKey must hash to the same slot, use a hash tag such as {"
+              + key
+              + "}");
+    }
+    return new LettuceIdIndexedDelayQueue<>(
+        key, jobQueueKey, metaClazz, clusterClient.connect().reactive(), 0L);
+  }
+
+  private LettuceIdIndexedDelayQueue(
+      String key,
+      String jobQueueKey,
+      Class<T> metaClazz,
+      RedisClusterReactiveCommands<String, String> commands,
+      long highWaterMark) {
+    this.key = key;
+    this.jobQueueKey = jobQueueKey;
+    this.payloadKey = key + ":payload";
+    this.wakeupChannel = key + ":wakeup";
+    this.commands = commands;
+    this.metaClazz = metaClazz;
+    this.highWaterMark = highWaterMark;
+    this.formatter =
+        new ReactiveMessageJsonFormatter<>(GlobalObjectMapper.getInstance(), metaClazz);
+  }
+
+  /**
+   * 使用相同的key及连接, 批量出队时先读取job队列长度, 只搬运到长度达到 {@code highWaterMark} 为止; 单条 {@link #dequeue(long)} 不受限制
+   *
+   * @param highWaterMark job队列水位上限, 为0时不限制
+   * @return 新的队列实例
+   */
+  public LettuceIdIndexedDelayQueue<T> withHighWaterMark(long highWaterMark) {
+    if (highWaterMark < 0) {
+      throw new IllegalArgumentException("highWaterMark must not be negative");
+    }
+    return new LettuceIdIndexedDelayQueue<>(key, jobQueueKey, metaClazz, commands, highWaterMark);
+  }
+
+  /**
+   * 入队, id已存在时不会覆盖
+   *
+   * @param message 消息对象
+   * @return 新增数量, id已存在时为0
+   */
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> message) {
+    return enqueueBatch(Collections.singletonList(message));
+  }
+
+  /**
+   * 批量入队, 已存在的id会被跳过
+   *
+   * @param messages 入队值
+   * @return 新增数量
+   */
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> messages) {
+    return Flux.fromIterable(messages)
+        .concatMap(
+            m ->
+                formatter
+                    .writeValue(m)
+                    .flatMapIterable(
+                        json -> Arrays.asList(String.valueOf(m.getScore()), idOf(m.getId()), json)))
+        .collectList()
+        .flatMap(
+            args -> {
+              if (args.isEmpty()) {
+                return Mono.just(0L);
+              }
+              val all = new ArrayList<String>(args.size() + 1);
+              all.add(wakeupChannel);
+              all.addAll(args);
+              return ScriptRegistry.<String, String, Long>eval(
+                      commands,
+                      enqueueScript,
+                      ScriptOutputType.INTEGER,
+                      new String[] {key, payloadKey},
+                      all.toArray(new String[0]))
+                  .next();
+            });
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue(long max) {
+    // 与批量出队共用脚本, 取1条且不限制水位
+    return dequeueBatch("-inf", String.valueOf(max), 0, 1, 0).next();
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max) {
+    return dequeueBatch(max, Long.MAX_VALUE);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max, long limit) {
+    return dequeueBatch(0, max, 0, limit);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long min, long max, long offset, long limit) {
+    return dequeueBatch(String.valueOf(min), String.valueOf(max), offset, limit, highWaterMark);
+  }
+
+  private Flux<Message<T>> dequeueBatch(
+      String min, String max, long offset, long limit, long highWater) {
+    // 周期消息按订阅时的当前时间计算下一次
+    return Flux.defer(
+            () ->
+                ScriptRegistry.<String, String, Collection<String>>eval(
+                    commands,
+                    dequeueBatchScript,
+                    ScriptOutputType.MULTI,
+                    new String[] {key, payloadKey, jobQueueKey},
+                    min,
+                    max,
+                    String.valueOf(offset),
+                    String.valueOf(limit),
+                    String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(highWater)))
+        .flatMap(Flux::fromIterable)
+        .flatMap(formatter::readValue);
+  }
+
+  /**
+   * 取消尚未出队的消息, O(log N)
+   *
+   * @param id 消息id
+   * @return true 取消成功, false 消息不存在或已出队
+   */
+  public Mono<Boolean> cancel(@NonNull Serializable id) {
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            cancelScript,
+            ScriptOutputType.INTEGER,
+            new String[] {key, payloadKey},
+            idOf(id))
+        .next()
+        .map(removed -> removed > 0);
+  }
+
+  /**
+   * 修改尚未出队消息的score, 脚本在同一次调用中替换消息json中的score, 不会与出队或并发修改交错
+   *
+   * @param id 消息id
+   * @param newScore 新的score
+   * @return true 修改成功, false 消息不存在或已出队
+   */
+  public Mono<Boolean> reschedule(@NonNull Serializable id, long newScore) {
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            rescheduleScript,
+            ScriptOutputType.INTEGER,
+            new String[] {key, payloadKey},
+            wakeupChannel,
+            String.valueOf(newScore),
+            idOf(id))
+        .next()
+        .map(changed -> changed > 0)
+        .defaultIfEmpty(false);
+  }
+
+  /**
+   * 通过 {@code ZRANGE key 0 0 WITHSCORES} 读取队头score
+   *
+   * @return Mono<Double> or Mono.empty()
+   */
+  @Override
+  public Mono<Double> nextScore() {
+    return commands.zrangeWithScores(key, 0, 0).next().map(ScoredValue::getScore);
+  }
+
+  @Override
+  public Mono<QueueStats> stats(long at, long bucketMillis, int buckets) {
+    return ZSetStats.read(commands, key, at, bucketMillis, buckets);
+  }
+
+  /**
+   * 删除zset及消息内容
+   *
+   * @return 删除的key数量
+   */
+  @Override
+  public Mono<Long> delete() {
+    return commands.del(key, payloadKey);
+  }
+
+  /**
+   * 清空任务队列
+   *
+   * @return Mono<Long>
+   */
+  public Mono<Long> deleteJobList() {
+    return commands.del(jobQueueKey);
+  }
+
+  private static String idOf(Serializable id) {
+    return String.valueOf(id);
+  }
+}
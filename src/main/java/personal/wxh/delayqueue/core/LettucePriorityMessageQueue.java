@@ -0,0 +1,256 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import java.util.List;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.val;
+import personal.wxh.delayqueue.util.GlobalObjectMapper;
+import personal.wxh.delayqueue.util.LuaScript;
+import personal.wxh.delayqueue.util.ReactiveMessageJsonFormatter;
+import personal.wxh.delayqueue.util.ScriptRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 按优先级分通道的job队列, 配合 {@link LettuceReactiveMessageDelayQueue#withPriorityLanes(int)} 使用
+ *
+ * <p>优先级0对应 {@code key}, 优先级i对应 {@code key:p<i>}. {@link #dequeueBatch(int)} 通过一次脚本调用按权重从各通道出队:
+ * 先按权重比例分配数量, 空闲通道剩余的数量再按优先级从高到低补齐, 低优先级消息堆积时高优先级消息仍然可以及时出队. 配额向上取整, 数量较小时只有首个通道能分到配额,
+ * 因此每次调用通过平滑加权轮询选择首个通道, 单条 {@link #dequeue()} 按权重比例轮流取各通道, 低优先级不会被饿死; 轮询状态保存在实例中, 多个实例各自按比例轮询
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettucePriorityMessageQueue<T> implements ReactiveMessageQueue<T> {
+
+  private static final LuaScript POP_SCRIPT = ScriptRegistry.get("/lua/lpop-weighted.lua");
+
+  /** 优先级0的通道key */
+  @Getter private final String key;
+
+  /** 各优先级的权重, 下标为优先级 */
+  private final int[] weights;
+
+  /** 各优先级的通道key, 下标为优先级 */
+  private final String[] laneKeys;
+
+  /** 脚本KEYS, 按优先级从高到低 */
+  private final String[] popKeys;
+
+  /** 脚本ARGV中的权重部分, 与popKeys对应 */
+  private final String[] popWeights;
+
+  /** 平滑加权轮询的当前值, 下标为优先级 */
+  private final int[] current;
+
+  @Getter private final ReactiveMessageJsonFormatter<T> formatter;
+
+  private final RedisClusterReactiveCommands<String, String> commands;
+
+  /**
+   * 外部传入客户端, 内部进行连接初始化
+   *
+   * @param key 优先级0的通道key, 与延迟队列的 {@code jobQueueKey} 相同
+   * @param metaClass 泛型类型
+   * @param weights 各优先级的权重, 下标为优先级, 长度为通道数量
+   * @param redisClient redis客户端
+   * @return 队列实例
+   */
+  public static <T> LettucePriorityMessageQueue<T> connect(
+      @NonNull String key,
+      @NonNull Class<T> metaClass,
+      @NonNull int[] weights,
+      @NonNull RedisClient redisClient) {
+    return create(key, metaClass, weights, redisClient.connect().reactive());
+  }
+
+  /**
+   * 外部传入集群客户端, 内部进行连接初始化
+   *
+   * <p>所有通道必须位于同一个slot, {@code key} 需要使用hash tag, 例如 {@code {order}:job}
+   *
+   * @param key 优先级0的通道key, 与延迟队列的 {@code jobQueueKey} 相同
+   * @param metaClass 泛型类型
+   * @param weights 各优先级的权重, 下标为优先级, 长度为通道数量
+   * @param clusterClient redis集群客户端
+   * @return 队列实例
+   */
+  public static <T> LettucePriorityMessageQueue<T> connect(
+      @NonNull String key,
+      @NonNull Class<T> metaClass,
+      @NonNull int[] weights,
+      @NonNull RedisClusterClient clusterClient) {
+    for (int i = 1; i < weights.length; i++) {
+      if (SlotHash.getSlot(key) != SlotHash.getSlot(laneKey(key, i))) {
+        throw new IllegalArgumentException(
+            "all lanes must hash to the same slot, use a hash tag such as {" + key + "}");
+      }
+    }
+    return create(key, metaClass, weights, clusterClient.connect().reactive());
+  }
+
+  /**
+   * 外部传入命令, 不进行连接初始化
+   *
+   * @param key 优先级0的通道key, 与延迟队列的 {@code jobQueueKey} 相同
+   * @param metaClass 泛型类型
+   * @param weights 各优先级的权重, 下标为优先级, 长度为通道数量
+   * @param commands 异步任务命令
+   * @return 队列实例
+   */
+  public static <T> LettucePriorityMessageQueue<T> create(
+      @NonNull String key,
+      @NonNull Class<T> metaClass,
+      @NonNull int[] weights,
+      @NonNull RedisClusterReactiveCommands<String, String> commands) {
+    if (weights.length == 0) {
+      throw new IllegalArgumentException("weights must not be empty");
+    }
+    for (val w : weights) {
+      if (w <= 0) {
+        throw new IllegalArgumentException("weights must be positive");
+      }
+    }
+    return new LettucePriorityMessageQueue<>(key, metaClass, weights.clone(), commands);
+  }
+
+  private LettucePriorityMessageQueue(
+      String key,
+      Class<T> metaClass,
+      int[] weights,
+      RedisClusterReactiveCommands<String, String> commands) {
+    this.key = key;
+    this.weights = weights;
+    this.commands = commands;
+    this.laneKeys = new String[weights.length];
+    this.popKeys = new String[weights.length];
+    this.popWeights = new String[weights.length];
+    this.current = new int[weights.length];
+    for (int i = 0; i < weights.length; i++) {
+      laneKeys[i] = laneKey(key, i);
+      val high = weights.length - 1 - i;
+      popKeys[i] = laneKey(key, high);
+      popWeights[i] = String.valueOf(weights[high]);
+    }
+    this.formatter =
+        new ReactiveMessageJsonFormatter<>(GlobalObjectMapper.getInstance(), metaClass);
+  }
+
+  /**
+   * 优先级通道的key
+   *
+   * @param key 优先级0的通道key
+   * @param priority 优先级
+   * @return 通道key
+   */
+  static String laneKey(String key, int priority) {
+    return priority == 0 ? key : key + ":p" + priority;
+  }
+
+  /**
+   * 通道数量
+   *
+   * @return 数量
+   */
+  public int getLanes() {
+    return weights.length;
+  }
+
+  /**
+   * 直接写入消息优先级对应的通道, 超出范围的优先级归入最近的通道
+   *
+   * @param value 入队值
+   * @return 所在通道的长度
+   */
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> value) {
+    return formatter.writeValue(value).flatMap(json -> commands.rpush(laneOf(value), json));
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> values) {
+    return Flux.fromIterable(values)
+        .concatMap(m -> formatter.writeValue(m).flatMap(json -> commands.rpush(laneOf(m), json)))
+        .count();
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue() {
+    return dequeueBatch(1).next();
+  }
+
+  /**
+   * 按权重批量出队, 一次脚本调用
+   *
+   * @param count 最大数量
+   * @return 先返回轮询选中的通道, 再按优先级从高到低返回其余通道按权重分配的消息, 最后返回补齐的消息
+   */
+  @Override
+  public Flux<Message<T>> dequeueBatch(int count) {
+    if (count <= 0) {
+      return Flux.empty();
+    }
+    return Flux.defer(
+        () -> {
+          // 选中的通道移到最前, 其余通道保持从高到低
+          val first = weights.length - 1 - nextLane();
+          val keys = popKeys.clone();
+          val args = new String[popWeights.length + 1];
+          args[0] = String.valueOf(count);
+          System.arraycopy(popWeights, 0, args, 1, popWeights.length);
+          for (int i = first; i > 0; i--) {
+            keys[i] = keys[i - 1];
+            args[i + 1] = args[i];
+          }
+          keys[0] = popKeys[first];
+          args[1] = popWeights[first];
+          return ScriptRegistry.<String, String, List<String>>eval(
+                  commands, POP_SCRIPT, ScriptOutputType.MULTI, keys, args)
+              .next()
+              .flatMapMany(formatter::readValues);
+        });
+  }
+
+  /**
+   * 各通道的长度
+   *
+   * @return 下标为优先级
+   */
+  public Mono<List<Long>> sizes() {
+    return Flux.fromArray(laneKeys).flatMapSequential(commands::llen).collectList();
+  }
+
+  @Override
+  public Mono<Long> delete() {
+    return commands.del(laneKeys);
+  }
+
+  /**
+   * 平滑加权轮询选择首个出队通道, 权重相同时优先级高的优先
+   *
+   * @return 优先级
+   */
+  private synchronized int nextLane() {
+    int total = 0;
+    int best = weights.length - 1;
+    for (int i = weights.length - 1; i >= 0; i--) {
+      current[i] += weights[i];
+      total += weights[i];
+      if (current[i] > current[best]) {
+        best = i;
+      }
+    }
+    current[best] -= total;
+    return best;
+  }
+
+  private String laneOf(Message<T> message) {
+    val lane = Math.max(0, Math.min(message.getPriority(), weights.length - 1));
+    return laneKeys[lane];
+  }
+}
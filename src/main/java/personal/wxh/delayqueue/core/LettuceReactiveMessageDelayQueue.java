@@ -1,17 +1,27 @@
 package personal.wxh.delayqueue.core;
 
+import static java.util.Collections.singletonList;
+
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.ScoredValue;
 import io.lettuce.core.ScriptOutputType;
-import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import personal.wxh.delayqueue.util.GlobalObjectMapper;
+import personal.wxh.delayqueue.util.LuaScript;
 import personal.wxh.delayqueue.util.ReactiveMessageJsonFormatter;
-import personal.wxh.delayqueue.util.ScriptLoader;
+import personal.wxh.delayqueue.util.ScriptRegistry;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -34,17 +44,47 @@ public class LettuceReactiveMessageDelayQueue<T> implements ReactiveDelayQueue<T
 
   @Getter private final ReactiveMessageJsonFormatter<T> formatter;
 
-  /** 执行dequeue的脚本sha1, 初始化时加载 */
-  private final String dequeueDigest;
+  /** 队头被更早的消息替换时, 入队脚本向该频道发布新的score */
+  @Getter private final String wakeupChannel;
+
+  /** 入队脚本, 为null时直接使用ZADD且不发布唤醒通知 */
+  private final LuaScript enqueueScript;
+
+  /** 出队脚本, 首次执行时按需加载 */
+  private final LuaScript dequeueScript;
+
+  /** 批量出队脚本, 首次执行时按需加载 */
+  private final LuaScript dequeueBatchScript;
+
+  /** 优先级通道数量, 为1时所有消息写入 {@code jobQueueKey} */
+  @Getter private final int lanes;
+
+  /** job队列为stream, 由 {@link #withStreamJobQueue()} 设置 */
+  @Getter private final boolean streamJobQueue;
+
+  /** job队列水位上限, 批量出队只搬运到job队列长度达到该值为止, 为0时不限制 */
+  @Getter private final long highWaterMark;
+
+  /** 出队脚本的KEYS, zset及各优先级的job队列 */
+  private final String[] scriptKeys;
 
-  /** 执行dequeueBatch的脚本sha1, 初始化时加载 */
-  private final String dequeueBatchDigest;
+  /** reactive 命令操作, 单机及集群连接通用 */
+  @Getter(AccessLevel.PACKAGE)
+  private final RedisClusterReactiveCommands<String, String> commands;
 
-  /** reactive 命令操作 */
-  private final RedisReactiveCommands<String, String> commands;
+  /** 执行出队脚本的命令, 使用 {@link LettuceConnectionManager} 时与入队分离 */
+  @Getter(AccessLevel.PACKAGE)
+  private final RedisClusterReactiveCommands<String, String> scriptCommands;
 
+  private static final String ENQUEUE_SCRIPT_FILE = "/lua/enqueue.lua";
   private static final String DEQUEUE_SCRIPT_FILE = "/lua/dequeue-trans.lua";
   private static final String DEQUEUE_BATCH_SCRIPT_FILE = "/lua/dequeue-trans-batch.lua";
+  private static final String DEQUEUE_STREAM_SCRIPT_FILE = "/lua/dequeue-trans-stream.lua";
+  private static final String DEQUEUE_BATCH_STREAM_SCRIPT_FILE =
+      "/lua/dequeue-trans-batch-stream.lua";
+  private static final String DEQUEUE_PRIORITY_SCRIPT_FILE = "/lua/dequeue-trans-priority.lua";
+  private static final String DEQUEUE_BATCH_PRIORITY_SCRIPT_FILE =
+      "/lua/dequeue-trans-batch-priority.lua";
 
   /**
    * 外部传入客户端, 内部进行连接初始化, 默认使用object类型不使用泛型
@@ -73,15 +113,95 @@ public class LettuceReactiveMessageDelayQueue<T> implements ReactiveDelayQueue<T
       String jobQueueKey,
       @NonNull Class<T> metaClazz,
       @NonNull RedisClient redisClient) {
-    val dequeueDigest = ScriptLoader.loadScript(redisClient, DEQUEUE_SCRIPT_FILE);
-    val dequeueBatchDigest = ScriptLoader.loadScript(redisClient, DEQUEUE_BATCH_SCRIPT_FILE);
-    val commands = redisClient.connect().reactive();
+    return create(key, jobQueueKey, metaClazz, redisClient.connect().reactive());
+  }
+
+  /**
+   * 外部传入集群客户端, 内部进行连接初始化, 脚本在各节点首次执行时按需加载
+   *
+   * <p>脚本同时操作 {@code key} 与 {@code jobQueueKey}, 两者必须位于同一个slot, 可以使用hash tag, 例如 {@code
+   * {order}:delay} 与 {@code {order}:job}
+   *
+   * @param key key
+   * @param jobQueueKey 任务队列key
+   * @param metaClazz 泛型类型
+   * @param clusterClient redis集群客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceReactiveMessageDelayQueue<T> connect(
+      @NonNull String key,
+      @NonNull String jobQueueKey,
+      @NonNull Class<T> metaClazz,
+      @NonNull RedisClusterClient clusterClient) {
+    if (SlotHash.getSlot(key) != SlotHash.getSlot(jobQueueKey)) {
+      throw new IllegalArgumentException(
+          "key and jobQueueKey must hash to the same slot, use a hash tag such as {"
+              + key
+              + "}:job");
+    }
+    return create(key, jobQueueKey, metaClazz, clusterClient.connect().reactive());
+  }
+
+  /**
+   * 使用共享连接, 入队使用producer连接, 出队脚本使用独立的脚本连接
+   *
+   * <p>集群模式下 {@code key} 与 {@code jobQueueKey} 同样需要位于同一个slot
+   *
+   * @param key key
+   * @param jobQueueKey 任务队列key
+   * @param metaClazz 泛型类型
+   * @param manager 连接管理
+   * @return 队列实例
+   */
+  public static <T> LettuceReactiveMessageDelayQueue<T> connect(
+      @NonNull String key,
+      @NonNull String jobQueueKey,
+      @NonNull Class<T> metaClazz,
+      @NonNull LettuceConnectionManager manager) {
     return new LettuceReactiveMessageDelayQueue<>(
-        key, jobQueueKey, metaClazz, commands, dequeueDigest, dequeueBatchDigest);
+        key,
+        jobQueueKey,
+        metaClazz,
+        manager.producer(),
+        manager.scripts(),
+        ScriptRegistry.get(ENQUEUE_SCRIPT_FILE),
+        ScriptRegistry.get(DEQUEUE_SCRIPT_FILE),
+        ScriptRegistry.get(DEQUEUE_BATCH_SCRIPT_FILE),
+        1,
+        0L,
+        false);
   }
 
   /**
-   * 外部传入命令及脚本文件, 不进行连接初始化
+   * 外部传入命令, 不进行连接初始化, 脚本首次执行时按需加载
+   *
+   * @param key key
+   * @param jobQueueKey 任务队列key
+   * @param metaClazz 泛型类型
+   * @param commands 异步任务命令
+   * @return 队列实例
+   */
+  public static <T> LettuceReactiveMessageDelayQueue<T> create(
+      @NonNull String key,
+      String jobQueueKey,
+      @NonNull Class<T> metaClazz,
+      @NonNull RedisClusterReactiveCommands<String, String> commands) {
+    return new LettuceReactiveMessageDelayQueue<>(
+        key,
+        jobQueueKey,
+        metaClazz,
+        commands,
+        commands,
+        ScriptRegistry.get(ENQUEUE_SCRIPT_FILE),
+        ScriptRegistry.get(DEQUEUE_SCRIPT_FILE),
+        ScriptRegistry.get(DEQUEUE_BATCH_SCRIPT_FILE),
+        1,
+        0L,
+        false);
+  }
+
+  /**
+   * 外部传入命令及脚本文件, 不进行连接初始化, 入队不发布唤醒通知
    *
    * @param key key
    * @param jobQueueKey 任务队列key
@@ -90,48 +210,156 @@ public class LettuceReactiveMessageDelayQueue<T> implements ReactiveDelayQueue<T
    * @param dequeueDigest 单个出队脚本
    * @param dequeueBatchDigest 批量出队脚本
    * @return 队列实例
+   * @deprecated 脚本由 {@link ScriptRegistry} 管理, 使用 {@link #create(String, String, Class,
+   *     RedisClusterReactiveCommands)}
    */
+  @Deprecated
   public static <T> LettuceReactiveMessageDelayQueue<T> create(
       @NonNull String key,
       String jobQueueKey,
       @NonNull Class<T> metaClazz,
-      @NonNull RedisReactiveCommands<String, String> commands,
+      @NonNull RedisClusterReactiveCommands<String, String> commands,
       @NonNull String dequeueDigest,
       @NonNull String dequeueBatchDigest) {
     return new LettuceReactiveMessageDelayQueue<>(
-        key, jobQueueKey, metaClazz, commands, dequeueDigest, dequeueBatchDigest);
+        key,
+        jobQueueKey,
+        metaClazz,
+        commands,
+        commands,
+        null,
+        ScriptRegistry.get(DEQUEUE_SCRIPT_FILE).withDigest(dequeueDigest),
+        ScriptRegistry.get(DEQUEUE_BATCH_SCRIPT_FILE).withDigest(dequeueBatchDigest),
+        1,
+        0L,
+        false);
   }
 
   private LettuceReactiveMessageDelayQueue(
       String key,
       String jobQueueKey,
       Class<T> metaClazz,
-      RedisReactiveCommands<String, String> commands,
-      String dequeueDigest,
-      String dequeueBatchDigest) {
+      RedisClusterReactiveCommands<String, String> commands,
+      RedisClusterReactiveCommands<String, String> scriptCommands,
+      LuaScript enqueueScript,
+      LuaScript dequeueScript,
+      LuaScript dequeueBatchScript,
+      int lanes,
+      long highWaterMark,
+      boolean streamJobQueue) {
     this.key = key;
     this.jobQueueKey = jobQueueKey;
-    // 考虑loadScript公用一个连接
+    this.wakeupChannel = key + ":wakeup";
     this.metaClazz = metaClazz;
     this.commands = commands;
-    this.dequeueDigest = dequeueDigest;
-    this.dequeueBatchDigest = dequeueBatchDigest;
+    this.scriptCommands = scriptCommands;
+    this.enqueueScript = enqueueScript;
+    this.dequeueScript = dequeueScript;
+    this.dequeueBatchScript = dequeueBatchScript;
+    this.lanes = lanes;
+    this.highWaterMark = highWaterMark;
+    this.streamJobQueue = streamJobQueue;
+    this.scriptKeys = new String[lanes + 1];
+    this.scriptKeys[0] = key;
+    for (int i = 0; i < lanes; i++) {
+      scriptKeys[i + 1] = LettucePriorityMessageQueue.laneKey(jobQueueKey, i);
+    }
     this.formatter =
         new ReactiveMessageJsonFormatter<>(GlobalObjectMapper.getInstance(), metaClazz);
   }
 
+  /**
+   * 使用相同的zset及连接, 出队时把到期消息XADD到 {@code jobQueueKey} stream, 配合 {@link LettuceStreamMessageQueue} 消费
+   *
+   * @return 新的队列实例
+   */
+  public LettuceReactiveMessageDelayQueue<T> withStreamJobQueue() {
+    return new LettuceReactiveMessageDelayQueue<>(
+        key,
+        jobQueueKey,
+        metaClazz,
+        commands,
+        scriptCommands,
+        enqueueScript,
+        ScriptRegistry.get(DEQUEUE_STREAM_SCRIPT_FILE),
+        ScriptRegistry.get(DEQUEUE_BATCH_STREAM_SCRIPT_FILE),
+        1,
+        highWaterMark,
+        true);
+  }
+
+  /**
+   * 使用相同的zset及连接, 出队时按 {@link Message#getPriority()} 把到期消息写入对应的job队列, 配合 {@link
+   * LettucePriorityMessageQueue} 按权重消费
+   *
+   * <p>优先级0写入 {@code jobQueueKey}, 其他优先级写入 {@code jobQueueKey:p<priority>}, 超出范围的优先级归入最近的通道. 集群模式下
+   * {@code jobQueueKey} 需要使用hash tag
+   *
+   * @param lanes 通道数量, 优先级范围为 {@code [0, lanes)}
+   * @return 新的队列实例
+   */
+  public LettuceReactiveMessageDelayQueue<T> withPriorityLanes(int lanes) {
+    if (lanes <= 0) {
+      throw new IllegalArgumentException("lanes must be positive");
+    }
+    return new LettuceReactiveMessageDelayQueue<>(
+        key,
+        jobQueueKey,
+        metaClazz,
+        commands,
+        scriptCommands,
+        enqueueScript,
+        ScriptRegistry.get(DEQUEUE_PRIORITY_SCRIPT_FILE),
+        ScriptRegistry.get(DEQUEUE_BATCH_PRIORITY_SCRIPT_FILE),
+        lanes,
+        highWaterMark,
+        false);
+  }
+
+  /**
+   * 使用相同的zset, 连接及job队列类型, 批量出队时先读取job队列长度, 只搬运到长度达到 {@code highWaterMark} 为止
+   *
+   * <p>消费者长时间停止后恢复时, 到期消息分批进入job队列, 避免job队列及消费延迟突增; 配置优先级通道时按所有通道的合计长度计算. 单条 {@link #dequeue(long)}
+   * 不受限制
+   *
+   * @param highWaterMark job队列水位上限, 为0时不限制
+   * @return 新的队列实例
+   */
+  public LettuceReactiveMessageDelayQueue<T> withHighWaterMark(long highWaterMark) {
+    if (highWaterMark < 0) {
+      throw new IllegalArgumentException("highWaterMark must not be negative");
+    }
+    return new LettuceReactiveMessageDelayQueue<>(
+        key,
+        jobQueueKey,
+        metaClazz,
+        commands,
+        scriptCommands,
+        enqueueScript,
+        dequeueScript,
+        dequeueBatchScript,
+        lanes,
+        highWaterMark,
+        streamJobQueue);
+  }
+
   @Override
   public Mono<Long> enqueue(@NonNull Message<T> message) {
-    return formatter
-        .writeValue(message)
-        .flatMap(json -> commands.zadd(key, message.getScore(), json));
+    if (enqueueScript == null) {
+      return formatter
+          .writeValue(message)
+          .flatMap(json -> commands.zadd(key, message.getScore(), json));
+    }
+    return writeAndScored(message).flatMap(scored -> zaddAndNotify(singletonList(scored)));
   }
 
   @Override
   public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> messages) {
-    return Flux.fromIterable(messages)
-        .flatMap(this::writeAndScored)
-        .collectList()
+    val scored = Flux.fromIterable(messages).flatMap(this::writeAndScored).collectList();
+    if (enqueueScript != null) {
+      return scored.flatMap(this::zaddAndNotify);
+    }
+    return scored
         .map(lst -> lst.toArray(new ScoredValue[0]))
         .flatMap(
             s -> {
@@ -141,15 +369,28 @@ public class LettuceReactiveMessageDelayQueue<T> implements ReactiveDelayQueue<T
             });
   }
 
+  /**
+   * 订阅当前队列的唤醒通知, 配合 {@link SimpleTimeBasedJobWatcher#wakeupOn(Flux)} 使用
+   *
+   * <p>pub/sub连接只能用于订阅, 需要单独创建, 例如 {@code redisClient.connectPubSub()}
+   *
+   * @param connection pub/sub连接
+   * @return 比原队头更早的新消息score
+   */
+  public Flux<Double> subscribeWakeup(
+      @NonNull StatefulRedisPubSubConnection<String, String> connection) {
+    val reactive = connection.reactive();
+    return reactive
+        .subscribe(wakeupChannel)
+        .thenMany(reactive.observeChannels())
+        .filter(m -> wakeupChannel.equals(m.getChannel()))
+        .map(m -> Double.valueOf(m.getMessage()));
+  }
+
   @Override
   public Mono<Message<T>> dequeue(long max) {
-    return commands
-        .<String>evalsha(
-            dequeueDigest,
-            ScriptOutputType.VALUE,
-            new String[] {key},
-            String.valueOf(max),
-            jobQueueKey)
+    return ScriptRegistry.<String, String, String>eval(
+            scriptCommands, dequeueScript, ScriptOutputType.VALUE, scriptKeys, String.valueOf(max))
         .last()
         // 考虑处理json解析异常
         .flatMap(formatter::readValue);
@@ -167,32 +408,73 @@ public class LettuceReactiveMessageDelayQueue<T> implements ReactiveDelayQueue<T
 
   @Override
   public Flux<Message<T>> dequeueBatch(long min, long max, long offset, long limit) {
-    return commands
-        .<Collection<String>>evalsha(
-            dequeueBatchDigest,
+    return ScriptRegistry.<String, String, Collection<String>>eval(
+            scriptCommands,
+            dequeueBatchScript,
             ScriptOutputType.MULTI,
-            new String[] {key},
+            scriptKeys,
             String.valueOf(min),
             String.valueOf(max),
             String.valueOf(offset),
             String.valueOf(limit),
-            jobQueueKey)
+            String.valueOf(highWaterMark))
         .flatMap(Flux::fromIterable)
         .flatMap(formatter::readValue);
   }
 
+  /**
+   * 通过 {@code ZRANGE key 0 0 WITHSCORES} 读取队头score
+   *
+   * @return Mono<Double> or Mono.empty()
+   */
+  @Override
+  public Mono<Double> nextScore() {
+    return commands.zrangeWithScores(key, 0, 0).next().map(ScoredValue::getScore);
+  }
+
+  /**
+   * 在一次流水线往返中读取ZCARD, 到期数量, 队头及各个桶的ZCOUNT
+   *
+   * @param at 快照时间, 毫秒时间戳
+   * @param bucketMillis 每个桶覆盖的时间范围, 毫秒
+   * @param buckets 从at开始的桶数量, 可以为0
+   * @return 快照
+   */
+  @Override
+  public Mono<QueueStats> stats(long at, long bucketMillis, int buckets) {
+    return ZSetStats.read(commands, key, at, bucketMillis, buckets);
+  }
+
+  /**
+   * 通过指定连接读取快照, 用于从只读副本读取, 避免增加主节点负载
+   *
+   * <p>单机主从可以使用 {@code MasterReplica.connect(...)} 并设置 {@code ReadFrom.REPLICA}, 集群可以使用单独的连接并设置
+   * {@code setReadFrom(ReadFrom.REPLICA)}; 副本的复制延迟会体现在快照中
+   *
+   * @param readCommands 读取使用的命令
+   * @param bucketMillis 每个桶覆盖的时间范围, 毫秒
+   * @param buckets 从当前时间开始的桶数量, 可以为0
+   * @return 快照
+   */
+  public Mono<QueueStats> stats(
+      @NonNull RedisClusterReactiveCommands<String, String> readCommands,
+      long bucketMillis,
+      int buckets) {
+    return ZSetStats.read(readCommands, key, bucketMillis, buckets);
+  }
+
   @Override
   public Mono<Long> delete() {
     return commands.del(key);
   }
 
   /**
-   * 清空任务队列
+   * 清空任务队列, 包括所有优先级通道
    *
    * @return Mono<Long>
    */
   public Mono<Long> deleteJobList() {
-    return commands.del(jobQueueKey);
+    return commands.del(Arrays.copyOfRange(scriptKeys, 1, scriptKeys.length));
   }
 
   /**
@@ -208,6 +490,70 @@ public class LettuceReactiveMessageDelayQueue<T> implements ReactiveDelayQueue<T
     return clearAll().blockOptional().orElse(false);
   }
 
+  /**
+   * 批量入队, 按顺序返回每条消息是否新增, 供 {@link CoalescingReactiveDelayQueue} 拆分结果
+   *
+   * @param messages 消息
+   * @return 与messages顺序相同, 1新增, 0已存在
+   */
+  Mono<List<Long>> enqueueEach(List<Message<T>> messages) {
+    return Flux.fromIterable(messages)
+        .concatMap(this::writeAndScored)
+        .collectList()
+        .flatMap(
+            scored -> {
+              if (enqueueScript == null) {
+                return Flux.fromIterable(scored)
+                    .flatMapSequential(s -> commands.zadd(key, s.getScore(), s.getValue()))
+                    .collectList();
+              }
+              return ScriptRegistry.<String, String, List<Long>>eval(
+                      commands,
+                      enqueueScript,
+                      ScriptOutputType.MULTI,
+                      new String[] {key},
+                      enqueueArgs(scored, "each"))
+                  .next();
+            });
+  }
+
+  /**
+   * 通过脚本批量ZADD, 新消息早于原队头时发布唤醒通知
+   *
+   * @param scored 待写入的消息
+   * @return 新增数量
+   */
+  private Mono<Long> zaddAndNotify(List<ScoredValue<String>> scored) {
+    if (scored.isEmpty()) {
+      return Mono.just(0L);
+    }
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            enqueueScript,
+            ScriptOutputType.INTEGER,
+            new String[] {key},
+            enqueueArgs(scored, "count"))
+        .next();
+  }
+
+  /**
+   * 入队脚本参数: 唤醒频道, 返回模式, 然后score与消息交替
+   *
+   * @param scored 待写入的消息
+   * @param mode count或each
+   * @return 脚本参数
+   */
+  private String[] enqueueArgs(List<ScoredValue<String>> scored, String mode) {
+    val args = new ArrayList<String>(scored.size() * 2 + 2);
+    args.add(wakeupChannel);
+    args.add(mode);
+    for (val s : scored) {
+      args.add(String.valueOf(s.getScore()));
+      args.add(s.getValue());
+    }
+    return args.toArray(new String[0]);
+  }
+
   /**
    * 写入json, 同时转换为scoredValue
    *
@@ -1,13 +1,28 @@
 package personal.wxh.delayqueue.core;
 
+import io.lettuce.core.KeyValue;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.ScoredValue;
-import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.codec.StringCodec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
 import personal.wxh.delayqueue.util.GlobalObjectMapper;
 import personal.wxh.delayqueue.util.ReactiveMessageJsonFormatter;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
 
 /**
@@ -16,8 +31,15 @@ import reactor.core.publisher.Mono;
  * @author wangxinhua
  * @since 1.0
  */
+@Slf4j
 public class LettuceReactiveMessageQueue<T> implements ReactiveMessageQueue<T> {
 
+  /** BLPOP超时时间, 秒, 同时也是取消订阅后最长的等待时间 */
+  private static final long BLOCK_TIMEOUT_SECONDS = 1L;
+
+  /** 需求较大时BLPOP之后单次最多追加的LPOP数量 */
+  private static final int MAX_PREFETCH = 64;
+
   /**
    * 外部传入客户端, 内部进行连接初始化
    *
@@ -27,7 +49,7 @@ public class LettuceReactiveMessageQueue<T> implements ReactiveMessageQueue<T> {
    */
   public static LettuceReactiveMessageQueue<Object> connect(
       @NonNull String key, @NonNull RedisClient redisClient) {
-    return create(key, Object.class, redisClient.connect().reactive());
+    return connect(key, Object.class, redisClient);
   }
 
   /**
@@ -40,11 +62,48 @@ public class LettuceReactiveMessageQueue<T> implements ReactiveMessageQueue<T> {
    */
   public static <T> LettuceReactiveMessageQueue<T> connect(
       @NonNull String key, @NonNull Class<T> metaClass, @NonNull RedisClient redisClient) {
-    return create(key, metaClass, redisClient.connect().reactive());
+    return new LettuceReactiveMessageQueue<>(
+        key,
+        metaClass,
+        redisClient.connect().reactive(),
+        redisClient::connect,
+        StatefulConnection::close);
+  }
+
+  /**
+   * 外部传入集群客户端, 内部进行连接初始化
+   *
+   * @param key key
+   * @param metaClass 泛型类型
+   * @param clusterClient redis集群客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceReactiveMessageQueue<T> connect(
+      @NonNull String key, @NonNull Class<T> metaClass, @NonNull RedisClusterClient clusterClient) {
+    return new LettuceReactiveMessageQueue<>(
+        key,
+        metaClass,
+        clusterClient.connect().reactive(),
+        clusterClient::connect,
+        StatefulConnection::close);
+  }
+
+  /**
+   * 使用共享连接, 入队及出队使用producer连接, {@link #consume()} 使用manager分配的阻塞连接
+   *
+   * @param key key
+   * @param metaClass 泛型类型
+   * @param manager 连接管理
+   * @return 队列实例
+   */
+  public static <T> LettuceReactiveMessageQueue<T> connect(
+      @NonNull String key, @NonNull Class<T> metaClass, @NonNull LettuceConnectionManager manager) {
+    return new LettuceReactiveMessageQueue<>(
+        key, metaClass, manager.producer(), manager::acquireBlocking, manager::releaseBlocking);
   }
 
   /**
-   * 外部传入命令, 不进行连接初始化
+   * 外部传入命令, 不进行连接初始化, 只能通过 {@link #consume(RedisClusterReactiveCommands)} 消费
    *
    * @param key key
    * @param metaClass 泛型类型
@@ -54,18 +113,21 @@ public class LettuceReactiveMessageQueue<T> implements ReactiveMessageQueue<T> {
   public static <T> LettuceReactiveMessageQueue<T> create(
       @NonNull String key,
       @NonNull Class<T> metaClass,
-      @NonNull RedisReactiveCommands<String, String> commands) {
+      @NonNull RedisClusterReactiveCommands<String, String> commands) {
     return new LettuceReactiveMessageQueue<>(key, metaClass, commands);
   }
 
   /** redis队列key */
   private final String key;
 
+  /** 消费时无法解析的原始消息, list */
+  @Getter private final String deadLetterKey;
+
   /** 类型class */
   @Getter private final Class<T> metaClazz;
 
   /** redis异步操作命令对象 */
-  private final RedisReactiveCommands<String, String> commands;
+  private final RedisClusterReactiveCommands<String, String> commands;
 
   /**
    * 对象序列化, 可以使用外部的objectMapper
@@ -74,11 +136,33 @@ public class LettuceReactiveMessageQueue<T> implements ReactiveMessageQueue<T> {
    */
   @Getter private final ReactiveMessageJsonFormatter<T> formatter;
 
+  /** 批量出队 */
+  private final ListBatchPopper<String, String> popper;
+
+  /** 创建阻塞命令使用的独占连接, 为null时 {@link #consume()} 不可用 */
+  private final Supplier<? extends StatefulConnection<String, String>> blockingConnector;
+
+  /** 消费结束后释放独占连接 */
+  private final Consumer<StatefulConnection<String, String>> blockingReleaser;
+
   public LettuceReactiveMessageQueue(
-      String key, Class<T> metaClazz, RedisReactiveCommands<String, String> commands) {
+      String key, Class<T> metaClazz, RedisClusterReactiveCommands<String, String> commands) {
+    this(key, metaClazz, commands, null, null);
+  }
+
+  private LettuceReactiveMessageQueue(
+      String key,
+      Class<T> metaClazz,
+      RedisClusterReactiveCommands<String, String> commands,
+      Supplier<? extends StatefulConnection<String, String>> blockingConnector,
+      Consumer<StatefulConnection<String, String>> blockingReleaser) {
     this.key = key;
+    this.deadLetterKey = key + ":dead";
     this.metaClazz = metaClazz;
     this.commands = commands;
+    this.blockingConnector = blockingConnector;
+    this.blockingReleaser = blockingReleaser;
+    this.popper = new ListBatchPopper<>(commands, StringCodec.UTF8, key);
     this.formatter =
         new ReactiveMessageJsonFormatter<>(GlobalObjectMapper.getInstance(), metaClazz);
   }
@@ -101,9 +185,187 @@ public class LettuceReactiveMessageQueue<T> implements ReactiveMessageQueue<T> {
     return commands.lpop(key).flatMap(formatter::readValue);
   }
 
+  /**
+   * 批量出队, 逐条解析, 无法解析的消息在其他消息发出后以异常报告
+   *
+   * @param count 最大数量
+   * @return 按出队顺序的值
+   */
+  @Override
+  public Flux<Message<T>> dequeueBatch(int count) {
+    return popper.pop(count).flatMapMany(formatter::readValues);
+  }
+
   @Override
   public Mono<Long> delete() {
-    return commands.del(key);
+    return commands.del(key, deadLetterKey);
+  }
+
+  /**
+   * 持续消费, 使用一条独占连接执行BLPOP, 取消订阅后等待进行中的BLPOP返回再关闭或归还该连接
+   *
+   * @return 消息流
+   * @see #consume(RedisClusterReactiveCommands)
+   */
+  public Flux<Message<T>> consume() {
+    if (blockingConnector == null) {
+      throw new IllegalStateException(
+          "no connector for blocking commands, use consume(blockingCommands) instead");
+    }
+    return Flux.defer(
+        () -> {
+          val connection = blockingConnector.get();
+          return consume(
+              LettuceConnectionManager.reactive(connection),
+              () -> blockingReleaser.accept(connection));
+        });
+  }
+
+  /**
+   * 持续消费, 队列为空时BLPOP阻塞等待而不是轮询
+   *
+   * <p>每次最多拉取下游请求的数量: 先BLPOP一条, 需求大于1时在同一连接上pipeline追加LPOP; 取消订阅后进行中的拉取最多阻塞 {@code
+   * BLOCK_TIMEOUT_SECONDS}, 已经拉取但未发出的消息会被放回队列头部. 阻塞命令会占用整个连接, {@code blockingCommands} 不能与其他操作共享
+   *
+   * <p>无法解析的消息放入 {@link #getDeadLetterKey()}, 并以该异常结束消息流
+   *
+   * @param blockingCommands 独占连接的命令
+   * @return 消息流
+   */
+  public Flux<Message<T>> consume(
+      @NonNull RedisClusterReactiveCommands<String, String> blockingCommands) {
+    return consume(blockingCommands, () -> {});
+  }
+
+  private Flux<Message<T>> consume(
+      RedisClusterReactiveCommands<String, String> blockingCommands, Runnable release) {
+    return Flux.create(
+        sink -> {
+          val poller = new BlockingPoller(sink, blockingCommands, release);
+          sink.onRequest(n -> poller.drain());
+          sink.onDispose(poller::stop);
+        });
+  }
+
+  /** 按下游需求循环拉取, 同一时间只有一个拉取在进行; 停止且没有进行中的拉取后释放连接 */
+  @RequiredArgsConstructor
+  private class BlockingPoller {
+
+    private final FluxSink<Message<T>> sink;
+
+    private final RedisClusterReactiveCommands<String, String> blocking;
+
+    /** 释放独占连接, 只执行一次 */
+    private final Runnable release;
+
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private volatile boolean stopped;
+
+    void drain() {
+      if (stopped) {
+        releaseIfIdle();
+        return;
+      }
+      if (sink.requestedFromDownstream() <= 0 || !polling.compareAndSet(false, true)) {
+        return;
+      }
+      // 与stop并发时不能在已释放的连接上发起拉取
+      if (stopped) {
+        polling.set(false);
+        releaseIfIdle();
+        return;
+      }
+      val demand = sink.requestedFromDownstream();
+      blocking
+          .blpop(BLOCK_TIMEOUT_SECONDS, key)
+          .map(KeyValue::getValue)
+          .flatMap(first -> demand > 1 ? prefetch(first, demand - 1) : Mono.just(list(first)))
+          .defaultIfEmpty(Collections.emptyList())
+          .subscribe(this::emit, this::fail);
+    }
+
+    void stop() {
+      stopped = true;
+      releaseIfIdle();
+    }
+
+    private void releaseIfIdle() {
+      if (!polling.get() && released.compareAndSet(false, true)) {
+        release.run();
+      }
+    }
+
+    /**
+     * BLPOP返回后在同一连接上pipeline追加LPOP
+     *
+     * @param first BLPOP取到的消息
+     * @param more 剩余需求
+     * @return 按出队顺序的消息
+     */
+    private Mono<List<String>> prefetch(String first, long more) {
+      val n = (int) Math.min(more, MAX_PREFETCH);
+      return Flux.range(0, n)
+          .flatMapSequential(i -> blocking.lpop(key), n)
+          .collect(() -> list(first), List::add);
+    }
+
+    private void emit(List<String> items) {
+      for (int i = 0; i < items.size(); i++) {
+        // 中途取消时剩余的消息放回
+        if (stopped) {
+          pushBack(items.subList(i, items.size()));
+          break;
+        }
+        val json = items.get(i);
+        val failure = new AtomicReference<Throwable>();
+        formatter.readValue(json).subscribe(sink::next, failure::set);
+        if (failure.get() != null) {
+          deadLetter(json);
+          pushBack(items.subList(i + 1, items.size()));
+          polling.set(false);
+          sink.error(failure.get());
+          return;
+        }
+      }
+      polling.set(false);
+      drain();
+    }
+
+    private void fail(Throwable e) {
+      polling.set(false);
+      if (stopped) {
+        releaseIfIdle();
+      } else {
+        sink.error(e);
+      }
+    }
+
+    private void deadLetter(String json) {
+      commands
+          .rpush(deadLetterKey, json)
+          .subscribe(null, e -> log.error("dead letter {} error -> ", json, e));
+    }
+
+    /** 已拉取但没有下游接收的消息按原顺序放回队列头部 */
+    private void pushBack(List<String> items) {
+      if (items.isEmpty()) {
+        return;
+      }
+      val reversed = new ArrayList<String>(items);
+      Collections.reverse(reversed);
+      commands
+          .lpush(key, reversed.toArray(new String[0]))
+          .subscribe(null, e -> log.error("push back {} messages error -> ", items.size(), e));
+    }
+
+    private List<String> list(String first) {
+      val lst = new ArrayList<String>();
+      lst.add(first);
+      return lst;
+    }
   }
 
   /**
@@ -0,0 +1,304 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import personal.wxh.delayqueue.metrics.QueueMetrics;
+import personal.wxh.delayqueue.util.GlobalObjectMapper;
+import personal.wxh.delayqueue.util.LuaScript;
+import personal.wxh.delayqueue.util.ReactiveBatcher;
+import personal.wxh.delayqueue.util.ReactiveMessageJsonFormatter;
+import personal.wxh.delayqueue.util.ScriptRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 至少一次投递的job队列, 配合 {@link LettuceReactiveMessageDelayQueue <T>} 使用
+ *
+ * <p>出队时消息被原子地移动到 {@code key:inflight} zset, score为按redis服务端时间计算的可见性超时截止时间; {@link #ack(Delivery)}
+ * 合并为批量ZREM, 超时未ack的消息由reaper放回job队列头部重新投递. in-flight zset的member为 {@code 投递序号:消息json}, 序号由 {@code
+ * key:seq} 递增生成, 每次投递唯一: 重新投递后迟到的ack不会删除新的投递, 完全相同的消息也不会被合并
+ *
+ * <p>无法解析的消息原样写入 {@code key:dead} list并从in-flight zset删除, 同一批的其余消息照常投递, 不会被反复重新投递
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class LettuceReliableMessageQueue<T> {
+
+  /** 单批ack的最大数量 */
+  private static final int ACK_BATCH_SIZE = 256;
+
+  /** ack合并的最长等待时间 */
+  private static final Duration ACK_WINDOW = Duration.ofMillis(5);
+
+  /** 单次归还的最大数量, 受lua unpack参数个数限制 */
+  private static final long REAP_BATCH = 1000L;
+
+  private static final String POP_SCRIPT_FILE = "/lua/reliable-pop.lua";
+  private static final String REAP_SCRIPT_FILE = "/lua/reliable-reap.lua";
+  private static final String NACK_SCRIPT_FILE = "/lua/reliable-nack.lua";
+
+  /** job队列key */
+  @Getter private final String key;
+
+  /** 处理中的消息, zset, score为可见性超时的截止时间 */
+  @Getter private final String inflightKey;
+
+  /** 投递序号计数器 */
+  @Getter private final String seqKey;
+
+  /** 无法解析的消息, list, 保存原始的in-flight member */
+  @Getter private final String deadLetterKey;
+
+  /** 可见性超时, 毫秒 */
+  @Getter private final long visibilityTimeoutMillis;
+
+  @Getter private final ReactiveMessageJsonFormatter<T> formatter;
+
+  private final LuaScript popScript = ScriptRegistry.get(POP_SCRIPT_FILE);
+
+  private final LuaScript reapScript = ScriptRegistry.get(REAP_SCRIPT_FILE);
+
+  private final LuaScript nackScript = ScriptRegistry.get(NACK_SCRIPT_FILE);
+
+  private final RedisClusterReactiveCommands<String, String> commands;
+
+  /** 合并ack */
+  private final ReactiveBatcher<String, Void> acks;
+
+  /** 单线程归还超时消息 */
+  private final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+
+  /** 指标采集, 队列名称为 {@link #getKey()} */
+  private volatile QueueMetrics metrics = QueueMetrics.noop();
+
+  /**
+   * 外部传入客户端, 内部进行连接初始化
+   *
+   * @param key job队列key
+   * @param metaClass 泛型类型
+   * @param visibilityTimeoutMillis 可见性超时, 毫秒
+   * @param redisClient redis客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceReliableMessageQueue<T> connect(
+      @NonNull String key,
+      @NonNull Class<T> metaClass,
+      long visibilityTimeoutMillis,
+      @NonNull RedisClient redisClient) {
+    return new LettuceReliableMessageQueue<>(
+        key, metaClass, visibilityTimeoutMillis, redisClient.connect().reactive());
+  }
+
+  /**
+   * 外部传入集群客户端, 内部进行连接初始化, 脚本在各节点首次执行时按需加载
+   *
+   * <p>{@code key}, {@code key:inflight}, {@code key:seq} 与 {@code key:dead} 必须位于同一个slot, 可以使用hash
+   * tag, 例如 {@code {order}:job}
+   *
+   * @param key job队列key
+   * @param metaClass 泛型类型
+   * @param visibilityTimeoutMillis 可见性超时, 毫秒
+   * @param clusterClient redis集群客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceReliableMessageQueue<T> connect(
+      @NonNull String key,
+      @NonNull Class<T> metaClass,
+      long visibilityTimeoutMillis,
+      @NonNull RedisClusterClient clusterClient) {
+    val slot = SlotHash.getSlot(key);
+    if (slot != SlotHash.getSlot(key + ":inflight")
+        || slot != SlotHash.getSlot(key + ":seq")
+        || slot != SlotHash.getSlot(key + ":dead")) {
+      throw new IllegalArgumentException(
+          "key, key:inflight, key:seq and key:dead must hash to the same slot, use a hash tag such"
+              + " as {"
+              + key
+              + "}");
+    }
+    return new LettuceReliableMessageQueue<>(
+        key, metaClass, visibilityTimeoutMillis, clusterClient.connect().reactive());
+  }
+
+  private LettuceReliableMessageQueue(
+      String key,
+      Class<T> metaClass,
+      long visibilityTimeoutMillis,
+      RedisClusterReactiveCommands<String, String> commands) {
+    if (visibilityTimeoutMillis <= 0) {
+      throw new IllegalArgumentException("visibilityTimeoutMillis must be positive");
+    }
+    this.key = key;
+    this.inflightKey = key + ":inflight";
+    this.seqKey = key + ":seq";
+    this.deadLetterKey = key + ":dead";
+    this.visibilityTimeoutMillis = visibilityTimeoutMillis;
+    this.commands = commands;
+    this.formatter =
+        new ReactiveMessageJsonFormatter<>(GlobalObjectMapper.getInstance(), metaClass);
+    this.acks =
+        new ReactiveBatcher<>(
+            ACK_BATCH_SIZE,
+            ACK_WINDOW,
+            members ->
+                commands
+                    .zrem(inflightKey, members.toArray(new String[0]))
+                    .thenReturn(Collections.emptyList()));
+  }
+
+  /**
+   * 采集无法解析的消息数量
+   *
+   * @param metrics 指标采集
+   * @return this
+   */
+  public LettuceReliableMessageQueue<T> metrics(@NonNull QueueMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * 出队一条消息并放入in-flight zset
+   *
+   * @return Mono<Delivery> or Mono.empty() 队列为空时
+   */
+  public Mono<Delivery<T>> dequeue() {
+    return dequeueBatch(1).next();
+  }
+
+  /**
+   * 批量出队并放入in-flight zset, 一次脚本调用
+   *
+   * @param count 最大数量
+   * @return 出队的消息, 不包含写入死信的消息
+   */
+  public Flux<Delivery<T>> dequeueBatch(int count) {
+    // 截止时间由脚本按redis服务端时间计算
+    return ScriptRegistry.<String, String, List<String>>eval(
+            commands,
+            popScript,
+            ScriptOutputType.MULTI,
+            new String[] {key, inflightKey, seqKey},
+            String.valueOf(visibilityTimeoutMillis),
+            String.valueOf(count))
+        .flatMapIterable(lst -> lst)
+        .concatMap(this::toDelivery);
+  }
+
+  /**
+   * 确认消息处理完成, 与其他ack合并为一次ZREM, 只删除本次投递, 超时后已被重新投递时不影响新的投递
+   *
+   * @param delivery 出队的消息
+   * @return 所在批次写入完成
+   */
+  public Mono<Void> ack(@NonNull Delivery<T> delivery) {
+    return acks.add(delivery.getMember()).then();
+  }
+
+  /**
+   * 处理失败, 立即放回job队列头部
+   *
+   * @param delivery 出队的消息
+   * @return true 已放回, false 消息已经被ack或已被归还
+   */
+  public Mono<Boolean> nack(@NonNull Delivery<T> delivery) {
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            nackScript,
+            ScriptOutputType.INTEGER,
+            new String[] {inflightKey, key},
+            delivery.getMember())
+        .next()
+        .map(n -> n > 0);
+  }
+
+  /**
+   * 把所有超时未ack的消息放回job队列, 超时按redis服务端时间判断, 各节点的时钟偏差不会提前归还其他节点处理中的消息
+   *
+   * @return 归还数量
+   */
+  public Mono<Long> reap() {
+    return reapOnce()
+        .expand(n -> n >= REAP_BATCH ? reapOnce() : Mono.empty())
+        .reduce(0L, Long::sum);
+  }
+
+  /**
+   * 开始后台归还超时消息
+   *
+   * @param interval 归还间隔
+   * @param unit 时间单位
+   */
+  public void startReaper(long interval, @NonNull TimeUnit unit) {
+    service.scheduleWithFixedDelay(
+        () -> {
+          try {
+            val reaped = reap().blockOptional().orElse(0L);
+            if (reaped > 0) {
+              log.warn("redeliver {} expired messages to {}", reaped, key);
+            }
+          } catch (Exception e) {
+            log.error("reap error -> ", e);
+          }
+        },
+        interval,
+        interval,
+        unit);
+  }
+
+  /** 停止后台归还, 已提交的ack会被写入 */
+  public void shutdown() {
+    service.shutdown();
+    acks.shutdown();
+  }
+
+  /**
+   * 删除job队列, in-flight zset, 投递序号及死信
+   *
+   * @return 删除的key数量
+   */
+  public Mono<Long> delete() {
+    return commands.del(key, inflightKey, seqKey, deadLetterKey);
+  }
+
+  /** 无法解析的消息先写入死信再从in-flight zset删除, 不中断同一批的其余消息 */
+  private Mono<Delivery<T>> toDelivery(String token) {
+    return formatter
+        .readValue(token.substring(token.indexOf(':') + 1))
+        .map(m -> new Delivery<>(m, token))
+        .onErrorResume(
+            e -> {
+              log.error("dead letter invalid message {} -> ", token, e);
+              metrics.decodeFailure(key);
+              return commands
+                  .rpush(deadLetterKey, token)
+                  .then(commands.zrem(inflightKey, token))
+                  .then(Mono.empty());
+            });
+  }
+
+  private Mono<Long> reapOnce() {
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            reapScript,
+            ScriptOutputType.INTEGER,
+            new String[] {inflightKey, key},
+            String.valueOf(REAP_BATCH))
+        .next();
+  }
+}
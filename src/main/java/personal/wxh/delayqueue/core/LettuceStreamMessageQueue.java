@@ -0,0 +1,305 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.Consumer;
+import io.lettuce.core.Limit;
+import io.lettuce.core.Range;
+import io.lettuce.core.RedisBusyException;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.XClaimArgs;
+import io.lettuce.core.XGroupCreateArgs;
+import io.lettuce.core.XReadArgs;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.models.stream.PendingMessage;
+import io.lettuce.core.models.stream.PendingParser;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import personal.wxh.delayqueue.util.GlobalObjectMapper;
+import personal.wxh.delayqueue.util.ReactiveBatcher;
+import personal.wxh.delayqueue.util.ReactiveMessageJsonFormatter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 基于redis stream及消费组的job队列, 配合 {@link LettuceReactiveMessageDelayQueue#withStreamJobQueue()} 使用
+ *
+ * <p>多个节点使用相同的 {@code group} 及不同的 {@code consumer} 分担消费; {@link #receive(int)} 读取的消息在 {@link
+ * #ack(Delivery)} 之前保留在消费组的pending列表中, 消费者宕机后由其他消费者通过 {@link #claimStalled(Duration, int)} 接管.
+ * ack合并为批量XACK并XDEL, 因此一个stream只应该被一个消费组使用
+ *
+ * <p>没有消息字段的entry直接ack; 无法解析的消息写入 {@link #getDeadLetterKey()} stream后ack, 不影响同一批的其他消息
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class LettuceStreamMessageQueue<T> implements ReactiveMessageQueue<T> {
+
+  /** 消息json所在的field */
+  static final String FIELD = "m";
+
+  /** 单批ack的最大数量 */
+  private static final int ACK_BATCH_SIZE = 256;
+
+  /** ack合并的最长等待时间 */
+  private static final Duration ACK_WINDOW = Duration.ofMillis(5);
+
+  /** stream key */
+  @Getter private final String key;
+
+  /** 消费组 */
+  @Getter private final String group;
+
+  /** 消费组内的消费者名称, 每个节点唯一 */
+  @Getter private final String consumer;
+
+  /** 无法解析的消息, stream, 保留原始json及entry id */
+  @Getter private final String deadLetterKey;
+
+  @Getter private final ReactiveMessageJsonFormatter<T> formatter;
+
+  private final Consumer<String> groupConsumer;
+
+  /** XREADGROUP读取新消息的位置 */
+  private final XReadArgs.StreamOffset<String>[] lastConsumed;
+
+  private final RedisClusterReactiveCommands<String, String> commands;
+
+  /** 合并ack */
+  private final ReactiveBatcher<String, Void> acks;
+
+  /**
+   * 外部传入客户端, 内部进行连接初始化, 消费组不存在时从stream开头创建
+   *
+   * @param key stream key
+   * @param group 消费组
+   * @param consumer 消费者名称, 每个节点唯一
+   * @param metaClass 泛型类型
+   * @param redisClient redis客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceStreamMessageQueue<T> connect(
+      @NonNull String key,
+      @NonNull String group,
+      @NonNull String consumer,
+      @NonNull Class<T> metaClass,
+      @NonNull RedisClient redisClient) {
+    return create(key, group, consumer, metaClass, redisClient.connect().reactive());
+  }
+
+  /**
+   * 外部传入集群客户端, 内部进行连接初始化, 消费组不存在时从stream开头创建
+   *
+   * @param key stream key
+   * @param group 消费组
+   * @param consumer 消费者名称, 每个节点唯一
+   * @param metaClass 泛型类型
+   * @param clusterClient redis集群客户端
+   * @return 队列实例
+   */
+  public static <T> LettuceStreamMessageQueue<T> connect(
+      @NonNull String key,
+      @NonNull String group,
+      @NonNull String consumer,
+      @NonNull Class<T> metaClass,
+      @NonNull RedisClusterClient clusterClient) {
+    return create(key, group, consumer, metaClass, clusterClient.connect().reactive());
+  }
+
+  /**
+   * 外部传入命令, 不进行连接初始化, 消费组不存在时从stream开头创建
+   *
+   * @param key stream key
+   * @param group 消费组
+   * @param consumer 消费者名称, 每个节点唯一
+   * @param metaClass 泛型类型
+   * @param commands 异步命令
+   * @return 队列实例
+   */
+  public static <T> LettuceStreamMessageQueue<T> create(
+      @NonNull String key,
+      @NonNull String group,
+      @NonNull String consumer,
+      @NonNull Class<T> metaClass,
+      @NonNull RedisClusterReactiveCommands<String, String> commands) {
+    commands
+        .xgroupCreate(
+            XReadArgs.StreamOffset.from(key, "0"), group, XGroupCreateArgs.Builder.mkstream())
+        .onErrorResume(RedisBusyException.class, e -> Mono.empty())
+        .block();
+    return new LettuceStreamMessageQueue<>(key, group, consumer, metaClass, commands);
+  }
+
+  private LettuceStreamMessageQueue(
+      String key,
+      String group,
+      String consumer,
+      Class<T> metaClass,
+      RedisClusterReactiveCommands<String, String> commands) {
+    this.key = key;
+    this.group = group;
+    this.consumer = consumer;
+    this.deadLetterKey = key + ":dead";
+    this.groupConsumer = Consumer.from(group, consumer);
+    @SuppressWarnings("unchecked") // 不能直接创建泛型数组
+    val offsets = (XReadArgs.StreamOffset<String>[]) new XReadArgs.StreamOffset<?>[1];
+    offsets[0] = XReadArgs.StreamOffset.lastConsumed(key);
+    this.lastConsumed = offsets;
+    this.commands = commands;
+    this.formatter =
+        new ReactiveMessageJsonFormatter<>(GlobalObjectMapper.getInstance(), metaClass);
+    this.acks =
+        new ReactiveBatcher<>(
+            ACK_BATCH_SIZE, ACK_WINDOW, ids -> ackAll(ids).thenReturn(Collections.emptyList()));
+  }
+
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> value) {
+    return formatter
+        .writeValue(value)
+        .flatMap(json -> commands.xadd(key, FIELD, json))
+        .thenReturn(1L);
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> values) {
+    return Flux.fromIterable(values)
+        .flatMapSequential(
+            value -> formatter.writeValue(value).flatMap(json -> commands.xadd(key, FIELD, json)))
+        .count();
+  }
+
+  /**
+   * 出队一条消息并立即ack, 至多一次
+   *
+   * @return 出队值
+   */
+  @Override
+  public Mono<Message<T>> dequeue() {
+    return dequeueBatch(1).next();
+  }
+
+  /**
+   * 读取一批消息并立即ack, 至多一次; 需要至少一次投递时使用 {@link #receive(int)}
+   *
+   * @param count 最大数量
+   * @return 按stream顺序的值
+   */
+  @Override
+  public Flux<Message<T>> dequeueBatch(int count) {
+    return receive(count)
+        .collectList()
+        .flatMapMany(
+            deliveries ->
+                ackAll(deliveries.stream().map(Delivery::getMember).collect(Collectors.toList()))
+                    .thenMany(Flux.fromIterable(deliveries)))
+        .map(Delivery::getMessage);
+  }
+
+  /**
+   * 通过XREADGROUP读取新消息, 不阻塞, 消息在ack之前保留在pending列表中
+   *
+   * @param count 最大数量
+   * @return 按stream顺序的消息
+   */
+  public Flux<Delivery<T>> receive(int count) {
+    return commands
+        .xreadgroup(groupConsumer, XReadArgs.Builder.count(count), lastConsumed)
+        .concatMap(this::toDelivery);
+  }
+
+  /**
+   * 确认消息处理完成, 与其他ack合并为一次XACK及XDEL
+   *
+   * @param delivery {@link #receive(int)} 或 {@link #claimStalled(Duration, int)} 返回的消息
+   * @return 所在批次写入完成
+   */
+  public Mono<Void> ack(@NonNull Delivery<T> delivery) {
+    return acks.add(delivery.getMember()).then();
+  }
+
+  /**
+   * 接管其他消费者超过 {@code minIdle} 未ack的消息, 通过XPENDING查找并XCLAIM到当前消费者
+   *
+   * @param minIdle 最短空闲时间
+   * @param count 最多检查的pending数量
+   * @return 接管的消息, 需要重新处理并ack
+   */
+  public Flux<Delivery<T>> claimStalled(@NonNull Duration minIdle, int count) {
+    return commands
+        .xpending(key, group, Range.create("-", "+"), Limit.from(count))
+        .collectList()
+        .map(PendingParser::parseRange)
+        .flatMapMany(
+            pending -> {
+              val ids =
+                  pending.stream()
+                      .filter(p -> p.getMsSinceLastDelivery() >= minIdle.toMillis())
+                      .map(PendingMessage::getId)
+                      .toArray(String[]::new);
+              if (ids.length == 0) {
+                return Flux.empty();
+              }
+              return commands.xclaim(
+                  key, groupConsumer, XClaimArgs.Builder.minIdleTime(minIdle), ids);
+            })
+        .concatMap(this::toDelivery);
+  }
+
+  /** 不再接收新的ack, 已提交的ack会被写入 */
+  public void shutdown() {
+    acks.shutdown();
+  }
+
+  /**
+   * 删除stream及死信stream, 消费组同时被删除
+   *
+   * @return 删除数量
+   */
+  @Override
+  public Mono<Long> delete() {
+    return commands.del(key, deadLetterKey);
+  }
+
+  private Mono<Void> ackAll(List<String> ids) {
+    if (ids.isEmpty()) {
+      return Mono.empty();
+    }
+    val array = ids.toArray(new String[0]);
+    // 同一连接上按顺序发送, 不等待XACK的响应
+    return Mono.when(commands.xack(key, group, array), commands.xdel(key, array));
+  }
+
+  /** 已被XDEL的entry在XCLAIM时body为空, ack后跳过; 无法解析的消息写入死信后ack, 不中断读取 */
+  private Mono<Delivery<T>> toDelivery(StreamMessage<String, String> entry) {
+    val id = entry.getId();
+    val body = entry.getBody();
+    val json = body == null ? null : body.get(FIELD);
+    if (json == null) {
+      log.warn("ack stream entry {} without field {}", id, FIELD);
+      return ackAll(Collections.singletonList(id)).then(Mono.empty());
+    }
+    return formatter
+        .readValue(json)
+        .map(m -> new Delivery<>(m, id))
+        .onErrorResume(
+            e -> {
+              log.error("dead letter invalid stream entry {} -> ", id, e);
+              val fields = new HashMap<String, String>();
+              fields.put(FIELD, json);
+              fields.put("id", id);
+              return commands
+                  .xadd(deadLetterKey, fields)
+                  .then(ackAll(Collections.singletonList(id)))
+                  .then(Mono.empty());
+            });
+  }
+}
@@ -0,0 +1,112 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.output.CommandOutput;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CommandType;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import personal.wxh.delayqueue.util.LuaScript;
+import personal.wxh.delayqueue.util.ScriptRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * list批量出队, 优先使用 {@code LPOP key count} (redis 6.2+), 服务端不支持时改用LRANGE+LTRIM脚本
+ *
+ * <p>是否支持在第一次调用时探测, 结果缓存在实例中
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+class ListBatchPopper<K, V> {
+
+  private static final LuaScript FALLBACK_SCRIPT = ScriptRegistry.get("/lua/lpop-batch.lua");
+
+  private final RedisClusterReactiveCommands<K, V> commands;
+
+  private final RedisCodec<K, V> codec;
+
+  private final K key;
+
+  private final K[] keys;
+
+  /** 服务端是否支持LPOP count */
+  private volatile boolean lpopCount = true;
+
+  @SuppressWarnings("unchecked")
+  ListBatchPopper(RedisClusterReactiveCommands<K, V> commands, RedisCodec<K, V> codec, K key) {
+    this.commands = commands;
+    this.codec = codec;
+    this.key = key;
+    this.keys = (K[]) Array.newInstance(key.getClass(), 1);
+    this.keys[0] = key;
+  }
+
+  /**
+   * 从list头部出队
+   *
+   * @param count 最大数量
+   * @return 按出队顺序的元素, 没有元素时为空列表
+   */
+  Mono<List<V>> pop(int count) {
+    if (count <= 0) {
+      return Mono.just(Collections.emptyList());
+    }
+    if (!lpopCount) {
+      return popByScript(count);
+    }
+    return commands
+        .<List<V>>dispatch(
+            CommandType.LPOP,
+            new ValueListOutput<>(codec),
+            new CommandArgs<>(codec).addKey(key).add(count))
+        .next()
+        .defaultIfEmpty(Collections.emptyList())
+        .onErrorResume(
+            RedisCommandExecutionException.class,
+            e -> {
+              if (!String.valueOf(e.getMessage()).contains("wrong number of arguments")) {
+                return Mono.error(e);
+              }
+              log.info("LPOP with count is not supported, fall back to LRANGE+LTRIM script");
+              lpopCount = false;
+              return popByScript(count);
+            });
+  }
+
+  private Mono<List<V>> popByScript(int count) {
+    return ScriptRegistry.<K, V, List<V>>eval(
+            commands, FALLBACK_SCRIPT, ScriptOutputType.MULTI, keys, value(count))
+        .next()
+        .defaultIfEmpty(Collections.emptyList());
+  }
+
+  /** 数字参数按当前codec编码 */
+  private V value(long number) {
+    return codec.decodeValue(StringCodec.ASCII.encodeValue(String.valueOf(number)));
+  }
+
+  /** 忽略nil的list输出, LPOP count在key不存在时返回nil */
+  private static class ValueListOutput<K, V> extends CommandOutput<K, V, List<V>> {
+
+    ValueListOutput(RedisCodec<K, V> codec) {
+      super(codec, new ArrayList<>());
+    }
+
+    @Override
+    public void set(ByteBuffer bytes) {
+      if (bytes != null) {
+        output.add(codec.decodeValue(bytes));
+      }
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package personal.wxh.delayqueue.core;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.io.Serializable;
 import lombok.AccessLevel;
@@ -38,7 +39,7 @@ public class Message<T> {
    * @return 空的message
    */
   public static <T> Message<T> ofNow(@NonNull Serializable id) {
-    return new Message<>(id, System.currentTimeMillis(), null);
+    return new Message<>(id, System.currentTimeMillis(), null, 0, 0L);
   }
 
   /**
@@ -55,7 +56,42 @@ public class Message<T> {
       @JsonProperty("id") @NonNull Serializable id,
       @JsonProperty("score") @NonNull Long score,
       @JsonProperty("body") T body) {
-    return new Message<>(id, score, body);
+    return new Message<>(id, score, body, 0, 0L);
+  }
+
+  /**
+   * 构造一个指定优先级的message对象
+   *
+   * @param id 唯一id
+   * @param score 排序字段
+   * @param body 自定义内容
+   * @param priority 优先级, 越大越优先
+   * @param <T> body 泛型类型
+   * @return 包含优先级的message对象
+   * @see LettuceReactiveMessageDelayQueue#withPriorityLanes(int)
+   */
+  public static <T> Message<T> of(
+      @NonNull Serializable id, @NonNull Long score, T body, int priority) {
+    return new Message<>(id, score, body, priority, 0L);
+  }
+
+  /**
+   * 构造一个周期消息, 每次出队时由脚本写入下一次
+   *
+   * @param id 唯一id
+   * @param score 第一次的时间戳, 毫秒
+   * @param interval 周期, 毫秒
+   * @param body 自定义内容
+   * @param <T> body 泛型类型
+   * @return 周期消息
+   * @see LettuceIdIndexedDelayQueue
+   */
+  public static <T> Message<T> ofRecurring(
+      @NonNull Serializable id, @NonNull Long score, long interval, T body) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("interval must be positive");
+    }
+    return new Message<>(id, score, body, 0, interval);
   }
 
   /** 唯一id */
@@ -66,4 +102,15 @@ public class Message<T> {
 
   /** 自定义数据, json解析时处理如果为null则不保存 */
   private T body;
+
+  /** 优先级, 越大越优先, 为0时不保存, 配置优先级通道后出队时按优先级写入不同的job队列 */
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  private int priority;
+
+  /**
+   * 周期, 毫秒, 为0时不保存; {@link LettuceIdIndexedDelayQueue} 出队时在同一次脚本调用中按该周期写入下一次, 错过的周期会被跳过, 直到 {@link
+   * LettuceIdIndexedDelayQueue#cancel(Serializable)}
+   */
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  private long interval;
 }
@@ -0,0 +1,81 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.val;
+
+/**
+ * 延迟队列在 {@link #getAt()} 时刻的快照, 通过 {@link ReactiveDelayQueue#stats(long, int)} 读取
+ *
+ * <p>{@code schedule[i]} 为score位于 {@code (at + i * bucketMillis, at + (i + 1) * bucketMillis]}
+ * 的消息数量, 晚于最后一个桶的消息只计入 {@link #getSize()}
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Getter
+@ToString
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class QueueStats {
+
+  /** 快照时间, 毫秒时间戳 */
+  private final long at;
+
+  /** 消息总数 */
+  private final long size;
+
+  /** 已到期尚未搬运的消息数量, score不大于at */
+  private final long due;
+
+  /** 队头score, 队列为空时为null */
+  private final Double nextScore;
+
+  /** 每个桶覆盖的时间范围, 毫秒 */
+  private final long bucketMillis;
+
+  /** 按时间分桶的未到期消息数量 */
+  private final List<Long> schedule;
+
+  /**
+   * 分桶范围之后的消息数量
+   *
+   * @return 数量
+   */
+  public long getBeyondSchedule() {
+    long scheduled = 0;
+    for (val count : schedule) {
+      scheduled += count;
+    }
+    return Math.max(size - due - scheduled, 0L);
+  }
+
+  /**
+   * 合并同一时间读取的多个快照, 时间及分桶参数以第一个为准
+   *
+   * @param stats 分片快照, 不能为空
+   * @return 合并后的快照
+   */
+  static QueueStats merge(List<QueueStats> stats) {
+    val first = stats.get(0);
+    long size = 0;
+    long due = 0;
+    Double nextScore = null;
+    val schedule = new ArrayList<Long>(Collections.nCopies(first.schedule.size(), 0L));
+    for (val s : stats) {
+      size += s.size;
+      due += s.due;
+      if (s.nextScore != null && (nextScore == null || s.nextScore < nextScore)) {
+        nextScore = s.nextScore;
+      }
+      for (int i = 0; i < schedule.size() && i < s.schedule.size(); i++) {
+        schedule.set(i, schedule.get(i) + s.schedule.get(i));
+      }
+    }
+    return new QueueStats(first.at, size, due, nextScore, first.bucketMillis, schedule);
+  }
+}
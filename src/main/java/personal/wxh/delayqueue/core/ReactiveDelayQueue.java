@@ -62,6 +62,41 @@ public interface ReactiveDelayQueue<T> {
    */
   Flux<Message<T>> dequeueBatch(long min, long max, long offset, long limit);
 
+  /**
+   * 查看队头(最早到期)消息的score, 不会移除消息; 默认不支持, watcher退回固定间隔搬运
+   *
+   * @return Mono<Double> or Mono.empty() 队列为空时
+   */
+  default Mono<Double> nextScore() {
+    return Mono.error(
+        new UnsupportedOperationException(
+            getClass().getSimpleName() + " does not support nextScore"));
+  }
+
+  /**
+   * 读取队列快照, 不会修改队列; 默认在订阅时读取当前时间并调用 {@link #stats(long, long, int)}
+   *
+   * @param bucketMillis 每个桶覆盖的时间范围, 毫秒
+   * @param buckets 从当前时间开始的桶数量, 可以为0
+   * @return 快照, 不支持时返回 {@link UnsupportedOperationException}
+   */
+  default Mono<QueueStats> stats(long bucketMillis, int buckets) {
+    return Mono.defer(() -> stats(System.currentTimeMillis(), bucketMillis, buckets));
+  }
+
+  /**
+   * 以指定时间读取队列快照, 多个队列使用同一时间读取的快照才能合并
+   *
+   * @param at 快照时间, 毫秒时间戳
+   * @param bucketMillis 每个桶覆盖的时间范围, 毫秒
+   * @param buckets 从at开始的桶数量, 可以为0
+   * @return 快照, 不支持时返回 {@link UnsupportedOperationException}
+   */
+  default Mono<QueueStats> stats(long at, long bucketMillis, int buckets) {
+    return Mono.error(
+        new UnsupportedOperationException(getClass().getSimpleName() + " does not support stats"));
+  }
+
   /**
    * 删除key
    *
@@ -1,6 +1,8 @@
 package personal.wxh.delayqueue.core;
 
+import java.util.Optional;
 import lombok.NonNull;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -32,6 +34,19 @@ public interface ReactiveMessageQueue<T> {
    */
   Mono<Message<T>> dequeue();
 
+  /**
+   * 批量出队, 实现应该在一次往返内完成; 默认逐条 {@link #dequeue()} 直到队列为空
+   *
+   * @param count 最大数量
+   * @return 按出队顺序的值, 队列为空时为Flux.empty()
+   */
+  default Flux<Message<T>> dequeueBatch(int count) {
+    return Flux.range(0, count)
+        .concatMap(i -> dequeue().map(Optional::of).defaultIfEmpty(Optional.empty()))
+        .takeWhile(Optional::isPresent)
+        .map(Optional::get);
+  }
+
   /**
    * 清除队列
    *
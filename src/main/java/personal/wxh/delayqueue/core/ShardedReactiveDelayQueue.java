@@ -0,0 +1,272 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisClient;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.val;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuples;
+
+/**
+ * 分片延迟队列, 按 {@link Message#getId()} 的hash把消息分散到多个分片
+ *
+ * <p>id通过 {@link String#valueOf(Object)} 转换后计算hash, 不同JVM上的路由相同, 与 {@link
+ * LettuceIdIndexedDelayQueue} 一样 {@code 1} 与 {@code "1"} 视为同一个id; 自定义id类型需要实现稳定的 {@code toString()}
+ *
+ * <p>出队时并发访问所有分片, 结果按score归并; 通过 {@link #newWatchers(int, TimeUnit)} 为每个分片创建独立的搬运循环
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class ShardedReactiveDelayQueue<T> implements ReactiveDelayQueue<T> {
+
+  private static final Comparator<Message<?>> SCORE_ORDER =
+      Comparator.comparingDouble(Message::getScore);
+
+  /** 所有分片, 下标即分片号 */
+  @Getter private final List<ReactiveDelayQueue<T>> shards;
+
+  /**
+   * 外部传入客户端, 内部进行连接初始化, 默认使用object类型不使用泛型
+   *
+   * @param key key前缀, 分片key为 {@code key:分片号}
+   * @param jobQueueKey 任务队列key, 所有分片共用
+   * @param shardCount 分片数量
+   * @param redisClient redis客户端
+   * @return 队列实例
+   */
+  public static ShardedReactiveDelayQueue<Object> connect(
+      @NonNull String key, String jobQueueKey, int shardCount, @NonNull RedisClient redisClient) {
+    return connect(key, jobQueueKey, Object.class, shardCount, redisClient);
+  }
+
+  /**
+   * 外部传入客户端, 每个分片使用独立的连接
+   *
+   * @param key key前缀, 分片key为 {@code key:分片号}
+   * @param jobQueueKey 任务队列key, 所有分片共用
+   * @param metaClazz 泛型类型
+   * @param shardCount 分片数量
+   * @param redisClient redis客户端
+   * @return 队列实例
+   */
+  public static <T> ShardedReactiveDelayQueue<T> connect(
+      @NonNull String key,
+      String jobQueueKey,
+      @NonNull Class<T> metaClazz,
+      int shardCount,
+      @NonNull RedisClient redisClient) {
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("shardCount must be positive");
+    }
+    val shards = new ArrayList<ReactiveDelayQueue<T>>(shardCount);
+    for (int i = 0; i < shardCount; i++) {
+      shards.add(
+          LettuceReactiveMessageDelayQueue.connect(
+              key + ":" + i, jobQueueKey, metaClazz, redisClient));
+    }
+    return new ShardedReactiveDelayQueue<>(shards);
+  }
+
+  /**
+   * 外部传入分片
+   *
+   * @param shards 分片, 顺序决定消息路由, 不能改变
+   * @return 队列实例
+   */
+  public static <T> ShardedReactiveDelayQueue<T> create(
+      @NonNull List<? extends ReactiveDelayQueue<T>> shards) {
+    if (shards.isEmpty()) {
+      throw new IllegalArgumentException("shards must not be empty");
+    }
+    return new ShardedReactiveDelayQueue<>(shards);
+  }
+
+  private ShardedReactiveDelayQueue(List<? extends ReactiveDelayQueue<T>> shards) {
+    this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+  }
+
+  /**
+   * 消息id所在的分片
+   *
+   * @param id 消息id
+   * @return 分片
+   */
+  public ReactiveDelayQueue<T> shardOf(@NonNull Serializable id) {
+    return shards.get(indexOf(id));
+  }
+
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> message) {
+    return shardOf(message.getId()).enqueue(message);
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> messages) {
+    val groups = new HashMap<Integer, List<Message<T>>>();
+    for (val message : messages) {
+      groups.computeIfAbsent(indexOf(message.getId()), i -> new ArrayList<>()).add(message);
+    }
+    return Flux.fromIterable(groups.entrySet())
+        .flatMap(e -> shards.get(e.getKey()).enqueueBatch(e.getValue()))
+        .reduce(0L, Long::sum);
+  }
+
+  /**
+   * 从队头最早的分片出队
+   *
+   * @param max 最大值
+   * @return Mono<T> or Mono.empty()
+   */
+  @Override
+  public Mono<Message<T>> dequeue(long max) {
+    return Flux.fromIterable(shards)
+        .flatMap(shard -> shard.nextScore().map(score -> Tuples.of(score, shard)))
+        .filter(t -> t.getT1() <= max)
+        .reduce((a, b) -> a.getT1() <= b.getT1() ? a : b)
+        .flatMap(t -> t.getT2().dequeue(max));
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max) {
+    return dequeueBatch(max, Long.MAX_VALUE);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max, long limit) {
+    return dequeueBatch(0, max, 0, limit);
+  }
+
+  /**
+   * 从所有分片出队
+   *
+   * <p>并发访问所有分片, 结果按score归并, job队列只在分片内有序. 限制数量时把数量平均分给各分片并发搬运, 分片不足时剩余数量在下一轮分给其他分片, 总数不超过 {@code
+   * limit}; 不保证搬运的是所有分片中最早的 {@code limit} 条, 需要分片之间严格按score搬运时通过 {@link #newWatchers(int,
+   * TimeUnit)} 为每个分片单独搬运
+   *
+   * @param min 最小值
+   * @param max 最大值
+   * @param offset 每个分片内的范围开始, 限制数量时只支持0
+   * @param limit 总数量
+   * @return Flux<T> or Flux.empty()
+   */
+  @Override
+  public Flux<Message<T>> dequeueBatch(long min, long max, long offset, long limit) {
+    if (limit != Long.MAX_VALUE) {
+      if (offset != 0) {
+        return Flux.error(new IllegalArgumentException("offset is not supported with a limit"));
+      }
+      return dequeueSplit(min, max, limit, shards);
+    }
+    @SuppressWarnings("unchecked")
+    Publisher<Message<T>>[] sources =
+        (Publisher<Message<T>>[])
+            shards.stream()
+                .map(shard -> shard.dequeueBatch(min, max, offset, limit))
+                .toArray(Publisher[]::new);
+    return Flux.mergeOrdered(SCORE_ORDER, sources);
+  }
+
+  @Override
+  public Mono<Double> nextScore() {
+    return Flux.fromIterable(shards).flatMap(ReactiveDelayQueue::nextScore).reduce(Math::min);
+  }
+
+  /**
+   * 并发读取所有分片的快照并合并, 所有分片使用同一个快照时间
+   *
+   * @param at 快照时间, 毫秒时间戳
+   * @param bucketMillis 每个桶覆盖的时间范围, 毫秒
+   * @param buckets 从at开始的桶数量, 可以为0
+   * @return 合并后的快照
+   */
+  @Override
+  public Mono<QueueStats> stats(long at, long bucketMillis, int buckets) {
+    return Flux.fromIterable(shards)
+        .flatMapSequential(shard -> shard.stats(at, bucketMillis, buckets))
+        .collectList()
+        .map(QueueStats::merge);
+  }
+
+  @Override
+  public Mono<Long> delete() {
+    return Flux.fromIterable(shards).flatMap(ReactiveDelayQueue::delete).reduce(0L, Long::sum);
+  }
+
+  /**
+   * 为每个分片创建一个搬运循环, 调用方负责 {@link SimpleTimeBasedJobWatcher#watch()} 及关闭
+   *
+   * @param delay 首次搬运延迟
+   * @param unit 时间单位
+   * @return 与分片一一对应的watcher
+   */
+  public List<SimpleTimeBasedJobWatcher<T>> newWatchers(int delay, @NonNull TimeUnit unit) {
+    return shards.stream()
+        .map(shard -> new SimpleTimeBasedJobWatcher<>(delay, unit, shard))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * 把剩余数量平均分给各分片并发搬运, 分到数量的分片全部用完时留到下一轮, 直到总数达到 {@code remaining} 或所有分片都已取空
+   *
+   * @param min 最小值
+   * @param max 最大值
+   * @param remaining 剩余数量
+   * @param active 可能还有到期消息的分片
+   * @return 每轮的结果按score归并
+   */
+  private Flux<Message<T>> dequeueSplit(
+      long min, long max, long remaining, List<ReactiveDelayQueue<T>> active) {
+    if (remaining <= 0 || active.isEmpty()) {
+      return Flux.empty();
+    }
+    val n = active.size();
+    return Flux.range(0, n)
+        .flatMap(
+            i -> {
+              val shard = active.get(i);
+              val share = remaining / n + (i < remaining % n ? 1 : 0);
+              if (share == 0) {
+                // 本轮没有分到数量, 留到下一轮
+                return Mono.just(Tuples.of(shard, Collections.<Message<T>>emptyList(), true));
+              }
+              return shard
+                  .dequeueBatch(min, max, 0, share)
+                  .collectList()
+                  .map(moved -> Tuples.of(shard, moved, moved.size() == share));
+            })
+        .collectList()
+        .flatMapMany(
+            results -> {
+              long moved = 0;
+              val next = new ArrayList<ReactiveDelayQueue<T>>();
+              val sources = new ArrayList<Flux<Message<T>>>();
+              for (val t : results) {
+                moved += t.getT2().size();
+                sources.add(Flux.fromIterable(t.getT2()));
+                if (t.getT3()) {
+                  next.add(t.getT1());
+                }
+              }
+              @SuppressWarnings({"unchecked", "rawtypes"})
+              Publisher<Message<T>>[] merged = sources.toArray(new Publisher[0]);
+              return Flux.mergeOrdered(SCORE_ORDER, merged)
+                  .concatWith(dequeueSplit(min, max, remaining - moved, next));
+            });
+  }
+
+  private int indexOf(Serializable id) {
+    // String的hashCode由规范定义, 不依赖对象地址
+    return Math.floorMod(String.valueOf(id).hashCode(), shards.size());
+  }
+}
@@ -1,46 +1,105 @@
 package personal.wxh.delayqueue.core;
 
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import lombok.RequiredArgsConstructor;
+import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import personal.wxh.delayqueue.util.TokenBucket;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * 持续监听队列, 搬运数据到jobQueue
  *
+ * <p>每轮搬运完成后读取队头score, 休眠到队头到期再进行下一轮, 单次休眠不超过 {@code maxIdleMillis}; 队列为空时从 {@code delay} 开始指数退避,
+ * 直到 {@code maxIdleMillis}
+ *
+ * <p>通过 {@link #wakeupOn(Flux)} 订阅唤醒通知后, 入队了比计划时间更早的消息时会立即重新调度
+ *
+ * <p>通过 {@link #rateLimit(TokenBucket)} 限制每秒搬运的数量, 积压时分批搬运; 队头已到期但本轮没有搬运任何消息时, 例如job队列达到 {@link
+ * LettuceReactiveMessageDelayQueue#withHighWaterMark(long)} 的水位, 按空队列退避
+ *
  * @author wangxinhua
  * @since 1.0
  */
-@RequiredArgsConstructor
 @Slf4j
 public class SimpleTimeBasedJobWatcher<T> {
 
+  /** 默认最大休眠时间 */
+  public static final long DEFAULT_MAX_IDLE_MILLIS = 1000L;
+
+  /** 首次搬运的延迟, 同时作为空队列退避的初始值 */
   private final int delay;
+
   private final TimeUnit unit;
 
+  /** 单次休眠上限, 毫秒 */
+  private final long maxIdleMillis;
+
+  /** 退避下限, 毫秒 */
+  private final long minIdleMillis;
+
   /** 单线程监听 */
   private final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
 
-  private ScheduledFuture<?> scheduledFuture;
+  private volatile ScheduledFuture<?> scheduledFuture;
+
+  /** 当前退避时间, 每轮搬运串行执行 */
+  private volatile long idleMillis;
+
+  private volatile boolean running;
+
+  /** 下一轮搬运的计划时间, 毫秒时间戳 */
+  private long nextTransferAt = Long.MAX_VALUE;
 
-  private final LettuceReactiveMessageDelayQueue<T> watchQueue;
+  /** 搬运进行中 */
+  private boolean transferring;
+
+  /** 搬运进行中收到的最早唤醒时间, 毫秒时间戳 */
+  private long pendingWakeupAt = Long.MAX_VALUE;
+
+  private Disposable wakeupSubscription;
+
+  /** 搬运限流, 为null时不限制 */
+  private volatile TokenBucket rateLimiter;
+
+  private final ReactiveDelayQueue<T> watchQueue;
+
+  public SimpleTimeBasedJobWatcher(int delay, TimeUnit unit, ReactiveDelayQueue<T> watchQueue) {
+    this(delay, unit, watchQueue, DEFAULT_MAX_IDLE_MILLIS);
+  }
+
+  /**
+   * @param delay 首次搬运延迟及空队列退避初始值
+   * @param unit 时间单位
+   * @param watchQueue 监听的延迟队列
+   * @param maxIdleMillis 单次休眠上限, 毫秒
+   */
+  public SimpleTimeBasedJobWatcher(
+      int delay,
+      @NonNull TimeUnit unit,
+      @NonNull ReactiveDelayQueue<T> watchQueue,
+      long maxIdleMillis) {
+    if (maxIdleMillis <= 0) {
+      throw new IllegalArgumentException("maxIdleMillis must be positive");
+    }
+    this.delay = delay;
+    this.unit = unit;
+    this.watchQueue = watchQueue;
+    this.maxIdleMillis = maxIdleMillis;
+    this.minIdleMillis = Math.min(Math.max(1L, unit.toMillis(delay)), maxIdleMillis);
+  }
 
   /** 开始监听 */
   public void watch() {
-    scheduledFuture =
-        service.schedule(
-            () -> {
-              watchQueue
-                  .dequeueBatch(System.currentTimeMillis())
-                  .subscribe(
-                      msg ->
-                          log.info(
-                              "transfer message to job queue -> {}", watchQueue.getJobQueueKey()));
-            },
-            delay,
-            unit);
+    running = true;
+    idleMillis = minIdleMillis;
+    schedule(unit.toMillis(delay));
   }
 
   /**
@@ -59,11 +118,174 @@ public class SimpleTimeBasedJobWatcher<T> {
     }
   }
 
+  /**
+   * 订阅唤醒信号, 收到早于下一轮计划时间的score时立即重新调度
+   *
+   * @param signals 新入队消息的score, 参考 {@link
+   *     LettuceReactiveMessageDelayQueue#subscribeWakeup(io.lettuce.core.pubsub.StatefulRedisPubSubConnection)}
+   * @return this
+   */
+  public SimpleTimeBasedJobWatcher<T> wakeupOn(@NonNull Flux<Double> signals) {
+    if (wakeupSubscription != null) {
+      wakeupSubscription.dispose();
+    }
+    wakeupSubscription =
+        signals.subscribe(this::wakeup, e -> log.error("wakeup subscription error -> ", e));
+    return this;
+  }
+
+  /**
+   * 限制搬运速率, 每轮最多搬运当前可用令牌数量的消息, 令牌不足时等待补充
+   *
+   * @param rateLimiter 令牌桶, 每条消息一个令牌
+   * @return this
+   */
+  public SimpleTimeBasedJobWatcher<T> rateLimit(@NonNull TokenBucket rateLimiter) {
+    this.rateLimiter = rateLimiter;
+    return this;
+  }
+
   /** 关闭服务 */
   public void shutdown() {
+    running = false;
+    if (wakeupSubscription != null) {
+      wakeupSubscription.dispose();
+    }
     if (scheduledFuture != null) {
       scheduledFuture.cancel(true);
     }
     service.shutdown();
   }
+
+  /**
+   * 安排下一轮搬运
+   *
+   * @param delayMillis 延迟, 毫秒
+   */
+  private synchronized void schedule(long delayMillis) {
+    if (!running) {
+      return;
+    }
+    try {
+      nextTransferAt = System.currentTimeMillis() + delayMillis;
+      scheduledFuture = service.schedule(this::transfer, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      log.debug("watcher already shutdown, stop scheduling");
+    }
+  }
+
+  /**
+   * 收到唤醒信号, 如果早于计划时间则取消当前计划并重新调度
+   *
+   * @param score 新入队消息的score
+   */
+  private synchronized void wakeup(double score) {
+    val due = (long) Math.ceil(score);
+    if (transferring) {
+      // 搬运结束后再处理, 避免同时执行两轮搬运
+      pendingWakeupAt = Math.min(pendingWakeupAt, due);
+      return;
+    }
+    if (due >= nextTransferAt) {
+      return;
+    }
+    if (scheduledFuture != null) {
+      scheduledFuture.cancel(false);
+    }
+    schedule(Math.max(due - System.currentTimeMillis(), 0L));
+  }
+
+  /**
+   * 本轮搬运结束, 合并搬运期间收到的唤醒后安排下一轮
+   *
+   * @param delayMillis 根据队头计算的延迟, 毫秒
+   */
+  private synchronized void transferred(long delayMillis) {
+    transferring = false;
+    val wakeupDelay = pendingWakeupAt - System.currentTimeMillis();
+    pendingWakeupAt = Long.MAX_VALUE;
+    schedule(Math.max(Math.min(delayMillis, wakeupDelay), 0L));
+  }
+
+  /**
+   * 标记搬运开始
+   *
+   * @return false 已经有一轮搬运在进行
+   */
+  private synchronized boolean beginTransfer() {
+    if (transferring) {
+      return false;
+    }
+    transferring = true;
+    nextTransferAt = Long.MAX_VALUE;
+    return true;
+  }
+
+  /** 搬运所有到期消息, 然后根据队头score决定下一轮的时间 */
+  private void transfer() {
+    if (!beginTransfer()) {
+      return;
+    }
+    val limiter = rateLimiter;
+    val limit = limiter == null ? Long.MAX_VALUE : limiter.available();
+    if (limit == 0) {
+      transferred(limiter.millisUntil(1));
+      return;
+    }
+    val now = System.currentTimeMillis();
+    (limiter == null ? watchQueue.dequeueBatch(now) : watchQueue.dequeueBatch(now, limit))
+        .count()
+        .doOnNext(
+            count -> {
+              if (count > 0) {
+                log.debug("transfer {} messages to job queue", count);
+              }
+              if (limiter != null) {
+                limiter.consume(count);
+              }
+            })
+        .flatMap(
+            count ->
+                watchQueue
+                    .nextScore()
+                    .map(score -> untilDue(score, count))
+                    // 不支持查看队头的队列按固定间隔搬运
+                    .onErrorResume(
+                        UnsupportedOperationException.class, e -> Mono.just(minIdleMillis)))
+        .switchIfEmpty(Mono.fromSupplier(this::backoff))
+        .onErrorResume(
+            e -> {
+              log.error("transfer error -> ", e);
+              return Mono.fromSupplier(this::backoff);
+            })
+        .subscribe(this::transferred);
+  }
+
+  /**
+   * 计算到队头到期的等待时间, 同时重置退避
+   *
+   * @param score 队头score
+   * @param transferred 本轮搬运数量
+   * @return 等待时间, 毫秒
+   */
+  private long untilDue(double score, long transferred) {
+    val wait = (long) Math.ceil(score) - System.currentTimeMillis();
+    if (wait <= 0 && transferred == 0) {
+      // 队头已到期但没有搬运, 通常是job队列达到水位, 避免空转
+      return backoff();
+    }
+    idleMillis = minIdleMillis;
+    return Math.min(Math.max(wait, 0L), maxIdleMillis);
+  }
+
+  /**
+   * 队列为空或出错时指数退避
+   *
+   * @return 等待时间, 毫秒
+   */
+  private long backoff() {
+    val current = idleMillis;
+    idleMillis = Math.min(current * 2, maxIdleMillis);
+    return current;
+  }
 }
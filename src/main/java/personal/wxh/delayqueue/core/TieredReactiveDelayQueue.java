@@ -0,0 +1,326 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScoredValue;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import personal.wxh.delayqueue.util.LuaScript;
+import personal.wxh.delayqueue.util.ScriptRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 分层存储的延迟队列
+ *
+ * <p>到期时间超过 {@code horizonMillis} 的消息按 {@code bucketMillis} 分桶追加到list中, 入队为O(1); 后台搬运在桶到期前 {@code
+ * horizonMillis} 把整个桶搬到热zset, 热zset只保存近期消息, 出队脚本的开销保持稳定
+ *
+ * <p>桶key为 {@code key:bucket:桶开始时间}, 桶索引为 {@code key:buckets}, 集群模式下key需要使用hash tag
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class TieredReactiveDelayQueue<T> implements ReactiveDelayQueue<T> {
+
+  /** 单次搬运脚本最多搬运的消息数量 */
+  private static final long PROMOTE_BATCH = 10000L;
+
+  private static final String ENQUEUE_COLD_SCRIPT_FILE = "/lua/enqueue-cold.lua";
+  private static final String PROMOTE_SCRIPT_FILE = "/lua/promote.lua";
+
+  /** 热数据队列, 出队操作全部委托给它 */
+  @Getter private final LettuceReactiveMessageDelayQueue<T> hotQueue;
+
+  /** 超过该时间才进入冷数据桶, 毫秒 */
+  @Getter private final long horizonMillis;
+
+  /** 每个桶覆盖的时间范围, 毫秒 */
+  @Getter private final long bucketMillis;
+
+  /** 桶索引key, zset, score为桶开始时间 */
+  @Getter private final String bucketIndexKey;
+
+  private final LuaScript enqueueColdScript = ScriptRegistry.get(ENQUEUE_COLD_SCRIPT_FILE);
+
+  private final LuaScript promoteScript = ScriptRegistry.get(PROMOTE_SCRIPT_FILE);
+
+  private final RedisClusterReactiveCommands<String, String> commands;
+
+  /** 单线程搬运冷数据 */
+  private final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+
+  /**
+   * 外部传入客户端, 内部进行连接初始化
+   *
+   * @param key key
+   * @param jobQueueKey 任务队列key
+   * @param metaClazz 泛型类型
+   * @param horizonMillis 超过该时间的消息进入冷数据桶
+   * @param bucketMillis 每个桶覆盖的时间范围
+   * @param redisClient redis客户端
+   * @return 队列实例
+   */
+  public static <T> TieredReactiveDelayQueue<T> connect(
+      @NonNull String key,
+      String jobQueueKey,
+      @NonNull Class<T> metaClazz,
+      long horizonMillis,
+      long bucketMillis,
+      @NonNull RedisClient redisClient) {
+    val hotQueue =
+        LettuceReactiveMessageDelayQueue.connect(key, jobQueueKey, metaClazz, redisClient);
+    return new TieredReactiveDelayQueue<>(hotQueue, horizonMillis, bucketMillis);
+  }
+
+  private TieredReactiveDelayQueue(
+      LettuceReactiveMessageDelayQueue<T> hotQueue, long horizonMillis, long bucketMillis) {
+    if (horizonMillis <= 0 || bucketMillis <= 0) {
+      throw new IllegalArgumentException("horizonMillis and bucketMillis must be positive");
+    }
+    this.hotQueue = hotQueue;
+    this.horizonMillis = horizonMillis;
+    this.bucketMillis = bucketMillis;
+    this.bucketIndexKey = hotQueue.getKey() + ":buckets";
+    this.commands = hotQueue.getCommands();
+  }
+
+  @Override
+  public Mono<Long> enqueue(@NonNull Message<T> message) {
+    if (message.getScore() <= System.currentTimeMillis() + horizonMillis) {
+      return hotQueue.enqueue(message);
+    }
+    return hotQueue
+        .getFormatter()
+        .writeValue(message)
+        .flatMap(
+            json ->
+                appendCold(
+                    bucketOf(message.getScore()), ScoredValue.just(message.getScore(), json)));
+  }
+
+  @Override
+  public Mono<Long> enqueueBatch(@NonNull Iterable<Message<T>> messages) {
+    val horizon = System.currentTimeMillis() + horizonMillis;
+    val hot = new ArrayList<Message<T>>();
+    val cold = new ArrayList<Message<T>>();
+    for (val message : messages) {
+      (message.getScore() <= horizon ? hot : cold).add(message);
+    }
+    val hotCount = hot.isEmpty() ? Mono.just(0L) : hotQueue.enqueueBatch(hot);
+    Mono<Long> coldCount =
+        Flux.fromIterable(cold)
+            .flatMap(
+                m ->
+                    hotQueue
+                        .getFormatter()
+                        .writeValue(m)
+                        .map(json -> ScoredValue.just(m.getScore(), json)))
+            .collectMultimap(s -> bucketOf(s.getScore()), s -> s, TreeMap::new)
+            .flatMapMany(groups -> Flux.fromIterable(groups.entrySet()))
+            .flatMap(e -> appendCold(e.getKey(), e.getValue()))
+            .reduce(0L, Long::sum);
+    return Mono.zip(hotCount, coldCount, Long::sum);
+  }
+
+  @Override
+  public Mono<Message<T>> dequeue(long max) {
+    return hotQueue.dequeue(max);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max) {
+    return hotQueue.dequeueBatch(max);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long max, long limit) {
+    return hotQueue.dequeueBatch(max, limit);
+  }
+
+  @Override
+  public Flux<Message<T>> dequeueBatch(long min, long max, long offset, long limit) {
+    return hotQueue.dequeueBatch(min, max, offset, limit);
+  }
+
+  /**
+   * 热zset队头与最早冷数据桶开始时间中较小的一个, 桶开始时间不晚于桶内任何消息
+   *
+   * @return Mono<Double> or Mono.empty()
+   */
+  @Override
+  public Mono<Double> nextScore() {
+    val coldHead =
+        commands.zrangeWithScores(bucketIndexKey, 0, 0).next().map(ScoredValue::getScore);
+    return Flux.merge(hotQueue.nextScore(), coldHead).reduce(Math::min);
+  }
+
+  /**
+   * 热zset快照与冷数据桶合并; 冷数据桶只读取LLEN, 桶内消息按桶开始时间整体计入到期数量或对应的分桶, 精度为 {@link #getBucketMillis()}
+   *
+   * @param at 快照时间, 毫秒时间戳
+   * @param bucketMillis 每个桶覆盖的时间范围, 毫秒
+   * @param buckets 从at开始的桶数量, 可以为0
+   * @return 快照
+   */
+  @Override
+  public Mono<QueueStats> stats(long at, long bucketMillis, int buckets) {
+    val cold =
+        commands
+            .zrangeWithScores(bucketIndexKey, 0, -1)
+            // 桶内score与消息交替保存
+            .flatMapSequential(
+                b -> commands.llen(b.getValue()).map(n -> ScoredValue.just(b.getScore(), n / 2)))
+            .collectList()
+            .map(counts -> coldStats(counts, at, bucketMillis, buckets));
+    return Mono.zip(hotQueue.stats(at, bucketMillis, buckets), cold)
+        .map(t -> QueueStats.merge(Arrays.asList(t.getT1(), t.getT2())));
+  }
+
+  @Override
+  public Mono<Long> delete() {
+    return commands
+        .zrange(bucketIndexKey, 0, -1)
+        .concatWithValues(bucketIndexKey)
+        .collectList()
+        .flatMap(keys -> commands.del(keys.toArray(new String[0])))
+        .flatMap(cold -> hotQueue.delete().map(hot -> hot + cold));
+  }
+
+  /**
+   * 搬运所有在 {@code horizonMillis} 内开始的桶
+   *
+   * @return 搬运的消息数量
+   */
+  public Mono<Long> promote() {
+    // 时间在订阅时读取, 同一个Mono可以重复订阅
+    return Mono.defer(
+        () -> {
+          val maxBucketScore = String.valueOf(System.currentTimeMillis() + horizonMillis);
+          return promoteOnce(maxBucketScore)
+              .expand(moved -> moved >= PROMOTE_BATCH ? promoteOnce(maxBucketScore) : Mono.empty())
+              .reduce(0L, Long::sum);
+        });
+  }
+
+  /**
+   * 开始后台搬运冷数据
+   *
+   * @param interval 搬运间隔, 必须小于 {@code horizonMillis}, 保证桶在到期前被搬运
+   * @param unit 时间单位
+   */
+  public void startPromoter(long interval, @NonNull TimeUnit unit) {
+    if (unit.toMillis(interval) >= horizonMillis) {
+      throw new IllegalArgumentException("promote interval must be shorter than horizonMillis");
+    }
+    service.scheduleWithFixedDelay(
+        () -> {
+          try {
+            val moved = promote().blockOptional().orElse(0L);
+            if (moved > 0) {
+              log.debug("promote {} messages to {}", moved, hotQueue.getKey());
+            }
+          } catch (Exception e) {
+            log.error("promote error -> ", e);
+          }
+        },
+        0,
+        interval,
+        unit);
+  }
+
+  /** 关闭后台搬运 */
+  public void shutdown() {
+    service.shutdown();
+  }
+
+  /**
+   * 冷数据桶的快照, 桶开始时间不晚于at的计入到期数量
+   *
+   * @param counts 按开始时间排序的桶及消息数量
+   * @param at 快照时间
+   * @param bucketMillis 快照每个桶覆盖的时间范围
+   * @param buckets 快照桶数量
+   * @return 快照
+   */
+  private static QueueStats coldStats(
+      List<ScoredValue<Long>> counts, long at, long bucketMillis, int buckets) {
+    long size = 0;
+    long due = 0;
+    val schedule = new ArrayList<Long>(Collections.nCopies(buckets, 0L));
+    for (val c : counts) {
+      size += c.getValue();
+      if (c.getScore() <= at) {
+        due += c.getValue();
+        continue;
+      }
+      val i = (long) Math.ceil((c.getScore() - at) / bucketMillis) - 1;
+      if (i >= 0 && i < buckets) {
+        schedule.set((int) i, schedule.get((int) i) + c.getValue());
+      }
+    }
+    val nextScore = counts.isEmpty() ? null : counts.get(0).getScore();
+    return new QueueStats(at, size, due, nextScore, bucketMillis, schedule);
+  }
+
+  /**
+   * 计算score所在的桶开始时间
+   *
+   * @param score 消息score
+   * @return 桶开始时间
+   */
+  private long bucketOf(double score) {
+    val s = (long) score;
+    return s - Math.floorMod(s, bucketMillis);
+  }
+
+  /**
+   * 追加到冷数据桶
+   *
+   * @param bucket 桶开始时间
+   * @param scored 消息
+   * @return 追加数量
+   */
+  private Mono<Long> appendCold(long bucket, Iterable<ScoredValue<String>> scored) {
+    val args = new ArrayList<String>();
+    args.add(String.valueOf(bucket));
+    for (val s : scored) {
+      args.add(String.valueOf(s.getScore()));
+      args.add(s.getValue());
+    }
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            enqueueColdScript,
+            ScriptOutputType.INTEGER,
+            new String[] {bucketIndexKey, hotQueue.getKey() + ":bucket:" + bucket},
+            args.toArray(new String[0]))
+        .next();
+  }
+
+  private Mono<Long> appendCold(long bucket, ScoredValue<String> scored) {
+    return appendCold(bucket, Collections.singletonList(scored));
+  }
+
+  private Mono<Long> promoteOnce(String maxBucketScore) {
+    return ScriptRegistry.<String, String, Long>eval(
+            hotQueue.getScriptCommands(),
+            promoteScript,
+            ScriptOutputType.INTEGER,
+            new String[] {bucketIndexKey, hotQueue.getKey()},
+            maxBucketScore,
+            String.valueOf(PROMOTE_BATCH))
+        .next();
+  }
+}
@@ -0,0 +1,214 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import personal.wxh.delayqueue.util.LuaScript;
+import personal.wxh.delayqueue.util.ScriptRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * 本地时间轮预取, 配合 {@link SimpleTimeBasedJobWatcher} 使用
+ *
+ * <p>定期把 {@code prefetchMillis} 内到期的消息原子地认领到租约中, 放入本地时间轮, 到达 {@link Message#getScore()}
+ * 时确认租约并写入job队列, job队列的类型与队列的出队脚本相同; 同一毫秒到期的消息合并为一次确认. 超过 {@code score + leaseMillis}
+ * 仍未确认的租约会被任意节点归还到zset
+ *
+ * <p>租约key为 {@code key:lease} 及 {@code key:lease:score}
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class TimingWheelPrefetcher<T> {
+
+  /** 单次认领的最大数量 */
+  private static final long CLAIM_BATCH = 1000L;
+
+  private static final String CLAIM_SCRIPT_FILE = "/lua/lease-claim.lua";
+  private static final String CONFIRM_SCRIPT_FILE = "/lua/lease-confirm.lua";
+  private static final String RETURN_SCRIPT_FILE = "/lua/lease-return.lua";
+
+  @Getter private final LettuceReactiveMessageDelayQueue<T> queue;
+
+  /** 预取窗口, 毫秒 */
+  @Getter private final long prefetchMillis;
+
+  /** 租约在消息score之后的宽限时间, 毫秒 */
+  @Getter private final long leaseMillis;
+
+  private final String leaseKey;
+
+  private final String leaseScoreKey;
+
+  /** 确认脚本的KEYS, 租约及各优先级的job队列 */
+  private final String[] confirmKeys;
+
+  private final LuaScript claimScript = ScriptRegistry.get(CLAIM_SCRIPT_FILE);
+
+  private final LuaScript confirmScript = ScriptRegistry.get(CONFIRM_SCRIPT_FILE);
+
+  private final LuaScript returnScript = ScriptRegistry.get(RETURN_SCRIPT_FILE);
+
+  private final RedisClusterReactiveCommands<String, String> commands;
+
+  /** 1ms精度的时间轮 */
+  private final Timer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 512);
+
+  /** 单线程预取及归还 */
+  private final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+
+  /**
+   * 使用队列的脚本连接, 租约脚本首次执行时按需加载
+   *
+   * @param queue 延迟队列
+   * @param prefetchMillis 预取窗口, 毫秒
+   * @param leaseMillis 租约宽限时间, 毫秒
+   * @return 预取实例
+   */
+  public static <T> TimingWheelPrefetcher<T> create(
+      @NonNull LettuceReactiveMessageDelayQueue<T> queue, long prefetchMillis, long leaseMillis) {
+    return new TimingWheelPrefetcher<>(queue, prefetchMillis, leaseMillis);
+  }
+
+  private TimingWheelPrefetcher(
+      LettuceReactiveMessageDelayQueue<T> queue, long prefetchMillis, long leaseMillis) {
+    if (prefetchMillis < 2 || leaseMillis <= 0) {
+      throw new IllegalArgumentException("prefetchMillis must be >= 2 and leaseMillis positive");
+    }
+    this.queue = queue;
+    this.prefetchMillis = prefetchMillis;
+    this.leaseMillis = leaseMillis;
+    this.leaseKey = queue.getKey() + ":lease";
+    this.leaseScoreKey = queue.getKey() + ":lease:score";
+    this.confirmKeys = new String[queue.getLanes() + 2];
+    confirmKeys[0] = leaseKey;
+    confirmKeys[1] = leaseScoreKey;
+    for (int i = 0; i < queue.getLanes(); i++) {
+      confirmKeys[i + 2] = LettucePriorityMessageQueue.laneKey(queue.getJobQueueKey(), i);
+    }
+    this.commands = queue.getScriptCommands();
+  }
+
+  /** 开始预取, 每半个预取窗口认领一次, 每个宽限时间归还一次过期租约 */
+  public void start() {
+    service.scheduleWithFixedDelay(this::prefetch, 0, prefetchMillis / 2, TimeUnit.MILLISECONDS);
+    service.scheduleWithFixedDelay(
+        this::returnExpired, leaseMillis, leaseMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** 停止预取, 时间轮中未投递的消息等待租约过期后被归还 */
+  public void shutdown() {
+    service.shutdown();
+    val pending = timer.stop();
+    if (!pending.isEmpty()) {
+      log.info("{} pending deliveries will be returned after lease expiry", pending.size());
+    }
+  }
+
+  /** 认领预取窗口内到期的消息, 按到期毫秒分组放入时间轮 */
+  private void prefetch() {
+    try {
+      long claimed;
+      do {
+        val items = claim(System.currentTimeMillis() + prefetchMillis);
+        claimed = items.size() / 2;
+        val groups = new TreeMap<Long, List<String>>();
+        for (int i = 0; i < items.size(); i += 2) {
+          val due = (long) Math.ceil(Double.parseDouble(items.get(i + 1)));
+          groups.computeIfAbsent(due, d -> new ArrayList<>()).add(items.get(i));
+        }
+        val now = System.currentTimeMillis();
+        groups.forEach(
+            (due, members) ->
+                timer.newTimeout(
+                    t -> confirm(members), Math.max(due - now, 0L), TimeUnit.MILLISECONDS));
+      } while (claimed >= CLAIM_BATCH);
+    } catch (Exception e) {
+      log.error("prefetch error -> ", e);
+    }
+  }
+
+  /**
+   * 认领消息
+   *
+   * @param max 最大score
+   * @return member, score交替
+   */
+  private List<String> claim(long max) {
+    return ScriptRegistry.<String, String, List<String>>eval(
+            commands,
+            claimScript,
+            ScriptOutputType.MULTI,
+            new String[] {queue.getKey(), leaseKey, leaseScoreKey},
+            String.valueOf(max),
+            String.valueOf(CLAIM_BATCH),
+            String.valueOf(leaseMillis))
+        .next()
+        .blockOptional()
+        .orElseGet(ArrayList::new);
+  }
+
+  /**
+   * 确认租约并投递到job队列, {@link LettuceReactiveMessageDelayQueue#withStreamJobQueue()} 的队列XADD到job
+   * stream, {@link LettuceReactiveMessageDelayQueue#withPriorityLanes(int)} 的队列按优先级写入对应的通道
+   *
+   * @param members 同一毫秒到期的消息
+   */
+  private void confirm(List<String> members) {
+    val args = new String[members.size() + 1];
+    args[0] = queue.isStreamJobQueue() ? "stream" : "list";
+    for (int i = 0; i < members.size(); i++) {
+      args[i + 1] = members.get(i);
+    }
+    ScriptRegistry.<String, String, Long>eval(
+            commands, confirmScript, ScriptOutputType.INTEGER, confirmKeys, args)
+        .next()
+        .subscribe(
+            confirmed -> {
+              if (confirmed < members.size()) {
+                log.warn("{} leases already returned before delivery", members.size() - confirmed);
+              }
+            },
+            e -> log.error("confirm lease error, leases will be returned after expiry -> ", e));
+  }
+
+  /** 归还过期租约 */
+  private void returnExpired() {
+    try {
+      val returned =
+          returnOnce()
+              .expand(n -> n >= CLAIM_BATCH ? returnOnce() : Mono.empty())
+              .reduce(0L, Long::sum)
+              .blockOptional()
+              .orElse(0L);
+      if (returned > 0) {
+        log.warn("return {} expired leases to {}", returned, queue.getKey());
+      }
+    } catch (Exception e) {
+      log.error("return expired leases error -> ", e);
+    }
+  }
+
+  private Mono<Long> returnOnce() {
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            returnScript,
+            ScriptOutputType.INTEGER,
+            new String[] {queue.getKey(), leaseKey, leaseScoreKey},
+            String.valueOf(System.currentTimeMillis()),
+            String.valueOf(CLAIM_BATCH))
+        .next();
+  }
+}
@@ -0,0 +1,277 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import personal.wxh.delayqueue.util.LuaScript;
+import personal.wxh.delayqueue.util.ScriptRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 多个节点协作监听同一组分区, 每个分区同一时间只由一个节点的 {@link SimpleTimeBasedJobWatcher} 搬运
+ *
+ * <p>节点通过 {@code group:members} zset心跳注册, score为按redis服务端时间计算的心跳过期时间, 不受节点间时钟偏差影响; 存活节点按名称排序后,
+ * 第i个节点负责下标满足 {@code p % n == i} 的分区. 每个分区通过 {@code group:lease:p} 租约互斥, 租约在每轮协调时续期, 节点宕机后租约在
+ * {@code leaseMillis} 内过期并由新的负责节点获取; 节点加入时原节点在下一轮释放不再负责的分区
+ *
+ * <p>节点长时间停顿导致租约过期时, 两个节点可能短暂地同时搬运同一分区, 出队脚本是原子的, 不会重复投递
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class WatcherCoordinator<T> {
+
+  private static final LuaScript ACQUIRE_SCRIPT = ScriptRegistry.get("/lua/partition-acquire.lua");
+
+  private static final LuaScript RELEASE_SCRIPT = ScriptRegistry.get("/lua/partition-release.lua");
+
+  private static final LuaScript HEARTBEAT_SCRIPT = ScriptRegistry.get("/lua/member-heartbeat.lua");
+
+  /** 协调组名称, 作为key前缀 */
+  @Getter private final String group;
+
+  /** 当前节点名称, 组内唯一 */
+  @Getter private final String nodeId;
+
+  /** 租约及心跳的有效期, 毫秒 */
+  @Getter private final long leaseMillis;
+
+  /** 分区, 下标即分区号, 所有节点需要使用相同的顺序 */
+  @Getter private final List<? extends ReactiveDelayQueue<T>> partitions;
+
+  private final String membersKey;
+
+  private final Function<ReactiveDelayQueue<T>, SimpleTimeBasedJobWatcher<T>> watcherFactory;
+
+  private final RedisClusterReactiveCommands<String, String> commands;
+
+  /** 当前持有租约的分区及其watcher */
+  private final Map<Integer, SimpleTimeBasedJobWatcher<T>> watchers = new ConcurrentHashMap<>();
+
+  /** 单线程协调 */
+  private final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+
+  /**
+   * 外部传入客户端, 内部进行连接初始化
+   *
+   * @param group 协调组名称
+   * @param nodeId 当前节点名称, 组内唯一
+   * @param partitions 分区, 例如 {@link ShardedReactiveDelayQueue#getShards()}
+   * @param leaseMillis 租约及心跳的有效期, 毫秒, 每三分之一有效期协调一次
+   * @param watcherFactory 获得分区后创建watcher, 失去分区时调用 {@link SimpleTimeBasedJobWatcher#shutdown()}
+   * @param redisClient redis客户端
+   * @return 协调实例
+   */
+  public static <T> WatcherCoordinator<T> connect(
+      @NonNull String group,
+      @NonNull String nodeId,
+      @NonNull List<? extends ReactiveDelayQueue<T>> partitions,
+      long leaseMillis,
+      @NonNull Function<ReactiveDelayQueue<T>, SimpleTimeBasedJobWatcher<T>> watcherFactory,
+      @NonNull RedisClient redisClient) {
+    return create(
+        group, nodeId, partitions, leaseMillis, watcherFactory, redisClient.connect().reactive());
+  }
+
+  /**
+   * 外部传入命令, 不进行连接初始化
+   *
+   * @param group 协调组名称
+   * @param nodeId 当前节点名称, 组内唯一
+   * @param partitions 分区, 例如 {@link ShardedReactiveDelayQueue#getShards()}
+   * @param leaseMillis 租约及心跳的有效期, 毫秒, 每三分之一有效期协调一次
+   * @param watcherFactory 获得分区后创建watcher, 失去分区时调用 {@link SimpleTimeBasedJobWatcher#shutdown()}
+   * @param commands 异步命令
+   * @return 协调实例
+   */
+  public static <T> WatcherCoordinator<T> create(
+      @NonNull String group,
+      @NonNull String nodeId,
+      @NonNull List<? extends ReactiveDelayQueue<T>> partitions,
+      long leaseMillis,
+      @NonNull Function<ReactiveDelayQueue<T>, SimpleTimeBasedJobWatcher<T>> watcherFactory,
+      @NonNull RedisClusterReactiveCommands<String, String> commands) {
+    if (leaseMillis < 3) {
+      throw new IllegalArgumentException("leaseMillis must be >= 3");
+    }
+    return new WatcherCoordinator<>(
+        group, nodeId, partitions, leaseMillis, watcherFactory, commands);
+  }
+
+  private WatcherCoordinator(
+      String group,
+      String nodeId,
+      List<? extends ReactiveDelayQueue<T>> partitions,
+      long leaseMillis,
+      Function<ReactiveDelayQueue<T>, SimpleTimeBasedJobWatcher<T>> watcherFactory,
+      RedisClusterReactiveCommands<String, String> commands) {
+    this.group = group;
+    this.nodeId = nodeId;
+    this.partitions = partitions;
+    this.leaseMillis = leaseMillis;
+    this.watcherFactory = watcherFactory;
+    this.commands = commands;
+    this.membersKey = group + ":members";
+  }
+
+  /** 开始后台协调, 立即执行第一轮 */
+  public void start() {
+    val interval = leaseMillis / 3;
+    service.scheduleWithFixedDelay(
+        () -> {
+          try {
+            rebalance().block();
+          } catch (Exception e) {
+            log.error("rebalance error -> ", e);
+          }
+        },
+        0,
+        interval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 执行一轮协调: 心跳, 清理过期节点, 获取或续期负责的分区, 释放不再负责的分区
+   *
+   * @return 完成信号
+   */
+  public Mono<Void> rebalance() {
+    return ScriptRegistry.<String, String, List<String>>eval(
+            commands,
+            HEARTBEAT_SCRIPT,
+            ScriptOutputType.MULTI,
+            new String[] {membersKey},
+            nodeId,
+            String.valueOf(leaseMillis))
+        .next()
+        .flatMapMany(
+            members -> {
+              val assigned = assigned(members);
+              return Flux.range(0, partitions.size())
+                  .concatMap(p -> assigned.contains(p) ? acquire(p) : release(p));
+            })
+        .then();
+  }
+
+  /**
+   * 当前持有租约的分区
+   *
+   * @return 分区号
+   */
+  public Set<Integer> getOwned() {
+    return Collections.unmodifiableSet(new TreeSet<>(watchers.keySet()));
+  }
+
+  /** 停止所有watcher, 释放租约并注销节点, 其他节点在下一轮接管 */
+  public void shutdown() {
+    service.shutdown();
+    try {
+      service.awaitTermination(leaseMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    Flux.fromIterable(new ArrayList<>(watchers.keySet()))
+        .concatMap(this::release)
+        .then(commands.zrem(membersKey, nodeId))
+        .onErrorResume(
+            e -> {
+              log.warn("release partitions error, leases will expire -> ", e);
+              return Mono.empty();
+            })
+        .block();
+  }
+
+  /**
+   * 按名称排序后取模分配
+   *
+   * @param members 存活节点
+   * @return 当前节点负责的分区号
+   */
+  private Set<Integer> assigned(List<String> members) {
+    val sorted = new ArrayList<String>(members);
+    Collections.sort(sorted);
+    val index = sorted.indexOf(nodeId);
+    val assigned = new TreeSet<Integer>();
+    if (index < 0) {
+      return assigned;
+    }
+    for (int p = index; p < partitions.size(); p += sorted.size()) {
+      assigned.add(p);
+    }
+    return assigned;
+  }
+
+  private Mono<Void> acquire(int partition) {
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            ACQUIRE_SCRIPT,
+            ScriptOutputType.INTEGER,
+            new String[] {leaseKey(partition)},
+            nodeId,
+            String.valueOf(leaseMillis))
+        .next()
+        .doOnNext(
+            acquired -> {
+              if (acquired > 0) {
+                startWatcher(partition);
+              } else {
+                // 续期失败说明租约已过期并被其他节点获取
+                stopWatcher(partition);
+              }
+            })
+        .then();
+  }
+
+  private Mono<Void> release(int partition) {
+    if (!watchers.containsKey(partition)) {
+      return Mono.empty();
+    }
+    stopWatcher(partition);
+    return ScriptRegistry.<String, String, Long>eval(
+            commands,
+            RELEASE_SCRIPT,
+            ScriptOutputType.INTEGER,
+            new String[] {leaseKey(partition)},
+            nodeId)
+        .then();
+  }
+
+  private void startWatcher(int partition) {
+    if (watchers.containsKey(partition)) {
+      return;
+    }
+    val watcher = watcherFactory.apply(partitions.get(partition));
+    watchers.put(partition, watcher);
+    watcher.watch();
+    log.info("node {} acquired partition {} of {}", nodeId, partition, group);
+  }
+
+  private void stopWatcher(int partition) {
+    val watcher = watchers.remove(partition);
+    if (watcher != null) {
+      watcher.shutdown();
+      log.info("node {} released partition {} of {}", nodeId, partition, group);
+    }
+  }
+
+  private String leaseKey(int partition) {
+    return group + ":lease:" + partition;
+  }
+}
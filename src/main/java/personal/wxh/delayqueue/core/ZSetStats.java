@@ -0,0 +1,87 @@
+package personal.wxh.delayqueue.core;
+
+import io.lettuce.core.Range;
+import io.lettuce.core.Range.Boundary;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import java.util.ArrayList;
+import java.util.Optional;
+import lombok.val;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 读取zset延迟队列的快照
+ *
+ * <p>所有命令在订阅时同时写入连接, 不等待前一个命令的响应, 整体只需要一次往返; 只包含读命令, 可以使用只读副本的连接
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+class ZSetStats {
+
+  private ZSetStats() {}
+
+  /**
+   * 以订阅时的当前时间读取
+   *
+   * @param commands 命令, 可以是只读副本连接
+   * @param key zset key
+   * @param bucketMillis 每个桶覆盖的时间范围, 毫秒
+   * @param buckets 桶数量, 可以为0
+   * @return 快照
+   */
+  static <K, V> Mono<QueueStats> read(
+      RedisClusterReactiveCommands<K, V> commands, K key, long bucketMillis, int buckets) {
+    return Mono.defer(() -> read(commands, key, System.currentTimeMillis(), bucketMillis, buckets));
+  }
+
+  /**
+   * @param commands 命令, 可以是只读副本连接
+   * @param key zset key
+   * @param at 快照时间, 毫秒时间戳
+   * @param bucketMillis 每个桶覆盖的时间范围, 毫秒
+   * @param buckets 桶数量, 可以为0
+   * @return 快照
+   */
+  static <K, V> Mono<QueueStats> read(
+      RedisClusterReactiveCommands<K, V> commands, K key, long at, long bucketMillis, int buckets) {
+    if (bucketMillis <= 0 || buckets < 0) {
+      return Mono.error(
+          new IllegalArgumentException(
+              "bucketMillis must be positive and buckets must not be negative"));
+    }
+    return Mono.defer(
+        () -> {
+          val counts = new ArrayList<Mono<Long>>(buckets + 2);
+          counts.add(commands.zcard(key));
+          counts.add(commands.zcount(key, Range.create(Double.NEGATIVE_INFINITY, (double) at)));
+          for (int i = 0; i < buckets; i++) {
+            val from = at + i * bucketMillis;
+            counts.add(
+                commands.zcount(
+                    key,
+                    Range.from(
+                        Boundary.excluding((double) from),
+                        Boundary.including((double) (from + bucketMillis)))));
+          }
+          val head =
+              commands
+                  .zrangeWithScores(key, 0, 0)
+                  .next()
+                  .map(v -> Optional.of(v.getScore()))
+                  .defaultIfEmpty(Optional.empty());
+          // mergeSequential同时订阅所有命令, 结果按提交顺序返回
+          return Mono.zip(
+              Flux.mergeSequential(counts).collectList(),
+              head,
+              (c, h) ->
+                  new QueueStats(
+                      at,
+                      c.get(0),
+                      c.get(1),
+                      h.orElse(null),
+                      bucketMillis,
+                      new ArrayList<>(c.subList(2, c.size()))));
+        });
+  }
+}
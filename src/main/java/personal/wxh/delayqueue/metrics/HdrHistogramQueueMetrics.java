@@ -0,0 +1,171 @@
+package personal.wxh.delayqueue.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import lombok.NonNull;
+import lombok.val;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * 基于HdrHistogram的指标, 计数使用 {@link LongAdder}, 耗时, 批量大小及搬运延迟使用 {@link Recorder}
+ *
+ * <p>记录是无锁的; {@code getInterval*} 返回上次读取以来的区间直方图并开始新的区间, 适合由一个上报线程定期读取. 直方图自动扩容, 保留3位有效数字
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class HdrHistogramQueueMetrics implements QueueMetrics {
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final Map<String, LongAdder> enqueued = new ConcurrentHashMap<>();
+
+  private final Map<String, LongAdder> dequeued = new ConcurrentHashMap<>();
+
+  private final Map<String, LongAdder> decodeFailures = new ConcurrentHashMap<>();
+
+  /** queue -> operation -> 失败次数 */
+  private final Map<String, Map<String, LongAdder>> errors = new ConcurrentHashMap<>();
+
+  /** queue -> operation -> 耗时, 纳秒 */
+  private final Map<String, Map<String, Recorder>> latencies = new ConcurrentHashMap<>();
+
+  /** queue -> operation -> 批量大小 */
+  private final Map<String, Map<String, Recorder>> batchSizes = new ConcurrentHashMap<>();
+
+  /** 毫秒, 提前搬运记为0 */
+  private final Map<String, Recorder> transferLags = new ConcurrentHashMap<>();
+
+  @Override
+  public void enqueued(String queue, long count) {
+    get(enqueued, queue, k -> new LongAdder()).add(count);
+  }
+
+  @Override
+  public void dequeued(String queue, long count) {
+    get(dequeued, queue, k -> new LongAdder()).add(count);
+  }
+
+  @Override
+  public void redisCall(String queue, String operation, long nanos, boolean success) {
+    get(byQueue(latencies, queue), operation, k -> new Recorder(SIGNIFICANT_DIGITS))
+        .recordValue(Math.max(nanos, 0L));
+    if (!success) {
+      get(byQueue(errors, queue), operation, k -> new LongAdder()).increment();
+    }
+  }
+
+  @Override
+  public void batchSize(String queue, String operation, int size) {
+    get(byQueue(batchSizes, queue), operation, k -> new Recorder(SIGNIFICANT_DIGITS))
+        .recordValue(Math.max(size, 0));
+  }
+
+  @Override
+  public void decodeFailure(String queue) {
+    get(decodeFailures, queue, k -> new LongAdder()).increment();
+  }
+
+  @Override
+  public void transferLag(String queue, long lagMillis) {
+    get(transferLags, queue, k -> new Recorder(SIGNIFICANT_DIGITS))
+        .recordValue(Math.max(lagMillis, 0L));
+  }
+
+  /**
+   * 累计入队数量
+   *
+   * @param queue 队列名称
+   * @return 数量
+   */
+  public long getEnqueued(@NonNull String queue) {
+    return sum(enqueued, queue);
+  }
+
+  /**
+   * 累计出队数量
+   *
+   * @param queue 队列名称
+   * @return 数量
+   */
+  public long getDequeued(@NonNull String queue) {
+    return sum(dequeued, queue);
+  }
+
+  /**
+   * 累计解码失败次数
+   *
+   * @param queue 队列名称
+   * @return 次数
+   */
+  public long getDecodeFailures(@NonNull String queue) {
+    return sum(decodeFailures, queue);
+  }
+
+  /**
+   * 累计redis调用失败次数
+   *
+   * @param queue 队列名称
+   * @param operation 操作
+   * @return 次数
+   */
+  public long getErrors(@NonNull String queue, @NonNull String operation) {
+    return sum(errors.getOrDefault(queue, Collections.emptyMap()), operation);
+  }
+
+  /**
+   * redis调用耗时的区间直方图
+   *
+   * @param queue 队列名称
+   * @param operation 操作
+   * @return 纳秒直方图, 没有记录时为空直方图
+   */
+  public Histogram getIntervalLatency(@NonNull String queue, @NonNull String operation) {
+    return interval(latencies.getOrDefault(queue, Collections.emptyMap()), operation);
+  }
+
+  /**
+   * 批量大小的区间直方图
+   *
+   * @param queue 队列名称
+   * @param operation 操作
+   * @return 直方图, 没有记录时为空直方图
+   */
+  public Histogram getIntervalBatchSize(@NonNull String queue, @NonNull String operation) {
+    return interval(batchSizes.getOrDefault(queue, Collections.emptyMap()), operation);
+  }
+
+  /**
+   * 搬运延迟的区间直方图
+   *
+   * @param queue 队列名称
+   * @return 毫秒直方图, 没有记录时为空直方图
+   */
+  public Histogram getIntervalTransferLag(@NonNull String queue) {
+    return interval(transferLags, queue);
+  }
+
+  private static <V> Map<String, V> byQueue(Map<String, Map<String, V>> map, String queue) {
+    return get(map, queue, k -> new ConcurrentHashMap<>());
+  }
+
+  /** 先无锁读取, 只在首次出现时进入computeIfAbsent */
+  private static <V> V get(Map<String, V> map, String key, Function<String, V> factory) {
+    val value = map.get(key);
+    return value != null ? value : map.computeIfAbsent(key, factory);
+  }
+
+  private static long sum(Map<String, LongAdder> map, String key) {
+    val adder = map.get(key);
+    return adder == null ? 0L : adder.sum();
+  }
+
+  private static Histogram interval(Map<String, Recorder> map, String key) {
+    val recorder = map.get(key);
+    return recorder == null ? new Histogram(SIGNIFICANT_DIGITS) : recorder.getIntervalHistogram();
+  }
+}
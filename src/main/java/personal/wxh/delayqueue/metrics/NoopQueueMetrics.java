@@ -0,0 +1,32 @@
+package personal.wxh.delayqueue.metrics;
+
+/**
+ * 空实现
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+final class NoopQueueMetrics implements QueueMetrics {
+
+  static final NoopQueueMetrics INSTANCE = new NoopQueueMetrics();
+
+  private NoopQueueMetrics() {}
+
+  @Override
+  public void enqueued(String queue, long count) {}
+
+  @Override
+  public void dequeued(String queue, long count) {}
+
+  @Override
+  public void redisCall(String queue, String operation, long nanos, boolean success) {}
+
+  @Override
+  public void batchSize(String queue, String operation, int size) {}
+
+  @Override
+  public void decodeFailure(String queue) {}
+
+  @Override
+  public void transferLag(String queue, long lagMillis) {}
+}
@@ -0,0 +1,71 @@
+package personal.wxh.delayqueue.metrics;
+
+/**
+ * 队列指标采集SPI, 在调用线程上同步执行, 实现需要线程安全且足够轻量
+ *
+ * <p>{@code queue} 为队列名称, {@code operation} 为队列方法名, 例如 {@code dequeueBatch}, 每个方法对应一次redis命令或脚本调用
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public interface QueueMetrics {
+
+  /**
+   * 不采集任何指标
+   *
+   * @return 单例
+   */
+  static QueueMetrics noop() {
+    return NoopQueueMetrics.INSTANCE;
+  }
+
+  /**
+   * 入队成功
+   *
+   * @param queue 队列名称
+   * @param count 新增数量
+   */
+  void enqueued(String queue, long count);
+
+  /**
+   * 出队成功
+   *
+   * @param queue 队列名称
+   * @param count 出队数量
+   */
+  void dequeued(String queue, long count);
+
+  /**
+   * 一次redis命令或脚本调用完成
+   *
+   * @param queue 队列名称
+   * @param operation 操作
+   * @param nanos 耗时, 纳秒, 包含结果解码
+   * @param success 是否成功
+   */
+  void redisCall(String queue, String operation, long nanos, boolean success);
+
+  /**
+   * 批量操作的实际数量
+   *
+   * @param queue 队列名称
+   * @param operation 操作
+   * @param size 数量
+   */
+  void batchSize(String queue, String operation, int size);
+
+  /**
+   * 消息解码失败
+   *
+   * @param queue 队列名称
+   */
+  void decodeFailure(String queue);
+
+  /**
+   * 消息从延迟队列搬运到job队列时距离到期的时间, 即 {@code now - Message.score}
+   *
+   * @param queue 队列名称
+   * @param lagMillis 延迟, 毫秒, 提前搬运时为负数
+   */
+  void transferLag(String queue, long lagMillis);
+}
@@ -0,0 +1,275 @@
+package personal.wxh.delayqueue.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.val;
+import personal.wxh.delayqueue.core.Message;
+
+/**
+ * 紧凑的二进制消息信封, 由子类决定body的编码方式
+ *
+ * <pre>
+ * | version 1B | flags 1B | id type 1B | id | score 8B | priority | interval | body |
+ * </pre>
+ *
+ * <p>priority与interval只在不为0时写入并在flags中标记
+ *
+ * <p>id只支持 {@code Integer}, {@code Long}, {@code String}, 不使用java反序列化; 解码时长度字段超出剩余数据的消息会被拒绝
+ *
+ * <p>配置 {@link Lz4BodyCompressor} 后, 超过阈值的body会被压缩并在flags中标记, 压缩与未压缩的消息可以在同一个队列中共存
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public abstract class BinaryEnvelopeCodec<T> implements MessageCodec<T> {
+
+  protected static final byte VERSION = 1;
+
+  /** 包含body */
+  protected static final int FLAG_BODY = 1;
+
+  /** body经过压缩, body前写入原始长度 */
+  protected static final int FLAG_COMPRESSED = 1 << 1;
+
+  /** 包含priority, score后写入变长整数 */
+  protected static final int FLAG_PRIORITY = 1 << 2;
+
+  /** 包含interval, priority后写入变长整数 */
+  protected static final int FLAG_INTERVAL = 1 << 3;
+
+  private static final byte ID_INT = 'I';
+  private static final byte ID_LONG = 'L';
+  private static final byte ID_STRING = 'S';
+
+  /** lz4最大压缩比, 限制解压时按原始长度分配的内存 */
+  private static final int MAX_COMPRESSION_RATIO = 255;
+
+  /** body压缩, 为null时不压缩, 解码总是支持压缩数据 */
+  @Getter private final Lz4BodyCompressor compressor;
+
+  protected BinaryEnvelopeCodec() {
+    this(null);
+  }
+
+  protected BinaryEnvelopeCodec(Lz4BodyCompressor compressor) {
+    this.compressor = compressor;
+  }
+
+  @Override
+  public ByteBuffer encode(@NonNull Message<T> message) {
+    val out = new BufferOutputStream(64);
+    val body = message.getBody();
+    out.write(VERSION);
+    val priority = message.getPriority();
+    val interval = message.getInterval();
+    out.write(
+        (body == null ? 0 : FLAG_BODY)
+            | (priority == 0 ? 0 : FLAG_PRIORITY)
+            | (interval == 0 ? 0 : FLAG_INTERVAL));
+    writeId(message.getId(), out);
+    out.writeLong(Double.doubleToRawLongBits(message.getScore()));
+    if (priority != 0) {
+      out.writeVarLong(priority);
+    }
+    if (interval != 0) {
+      out.writeVarLong(interval);
+    }
+    if (body != null) {
+      val bodyStart = out.size();
+      try {
+        writeBody(body, out);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (compressor != null) {
+        compressBody(out, bodyStart);
+      }
+    }
+    return out.toByteBuffer();
+  }
+
+  @Override
+  public Message<T> decode(@NonNull ByteBuffer buffer) {
+    val in = buffer.duplicate();
+    val version = in.get();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("unsupported envelope version " + version);
+    }
+    val flags = in.get();
+    val id = readId(in);
+    val score = Double.longBitsToDouble(in.getLong());
+    val priority = (flags & FLAG_PRIORITY) != 0 ? (int) readVarLong(in) : 0;
+    val interval = (flags & FLAG_INTERVAL) != 0 ? readVarLong(in) : 0L;
+    try {
+      T body = null;
+      if ((flags & FLAG_BODY) != 0) {
+        body = readBody((flags & FLAG_COMPRESSED) != 0 ? decompressBody(in) : in);
+      }
+      val message = Message.of(id, 0L, body, priority);
+      message.setScore(score);
+      message.setInterval(interval);
+      return message;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * 写入body
+   *
+   * @param body 非空body
+   * @param out 输出流, 不需要关闭
+   * @throws IOException 编码异常
+   */
+  protected abstract void writeBody(@NonNull T body, @NonNull OutputStream out) throws IOException;
+
+  /**
+   * 读取body
+   *
+   * @param body 从position到limit为body数据
+   * @return body
+   * @throws IOException 解码异常
+   */
+  protected abstract T readBody(@NonNull ByteBuffer body) throws IOException;
+
+  /**
+   * 原地压缩body, 压缩后没有变小则保留原始数据
+   *
+   * @param out 已写入完整消息的输出流
+   * @param bodyStart body开始位置
+   */
+  private void compressBody(BufferOutputStream out, int bodyStart) {
+    val rawLength = out.size() - bodyStart;
+    val compressed = compressor.compress(out.buffer(), bodyStart, rawLength);
+    if (compressed == null) {
+      return;
+    }
+    out.truncate(bodyStart);
+    out.writeVarLong(rawLength);
+    out.write(compressed, 0, compressed.length);
+    out.setByte(1, out.buffer()[1] | FLAG_COMPRESSED);
+  }
+
+  private static ByteBuffer decompressBody(ByteBuffer in) {
+    val rawLength = readVarLong(in);
+    if (rawLength < 0 || rawLength > (long) in.remaining() * MAX_COMPRESSION_RATIO) {
+      throw new IllegalArgumentException("invalid raw body length " + rawLength);
+    }
+    if (in.hasArray()) {
+      return ByteBuffer.wrap(
+          Lz4BodyCompressor.decompress(
+              in.array(), in.arrayOffset() + in.position(), in.remaining(), (int) rawLength));
+    }
+    val src = new byte[in.remaining()];
+    in.get(src);
+    return ByteBuffer.wrap(Lz4BodyCompressor.decompress(src, 0, src.length, (int) rawLength));
+  }
+
+  private static void writeId(Serializable id, BufferOutputStream out) {
+    if (id instanceof Integer) {
+      out.write(ID_INT);
+      out.writeVarLong((Integer) id);
+    } else if (id instanceof Long) {
+      out.write(ID_LONG);
+      out.writeVarLong((Long) id);
+    } else if (id instanceof String) {
+      out.write(ID_STRING);
+      out.writeLengthPrefixed(((String) id).getBytes(StandardCharsets.UTF_8));
+    } else {
+      throw new IllegalArgumentException("unsupported id type " + id.getClass().getName());
+    }
+  }
+
+  private static Serializable readId(ByteBuffer in) {
+    val type = in.get();
+    switch (type) {
+      case ID_INT:
+        return (int) readVarLong(in);
+      case ID_LONG:
+        return readVarLong(in);
+      case ID_STRING:
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+      default:
+        throw new IllegalArgumentException("unsupported id type " + type);
+    }
+  }
+
+  private static byte[] readBytes(ByteBuffer in) {
+    val length = readVarLong(in);
+    if (length < 0 || length > in.remaining()) {
+      throw new IllegalArgumentException("invalid length " + length);
+    }
+    val bytes = new byte[(int) length];
+    in.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * zigzag变长整数
+   *
+   * @param in 输入
+   * @return 原始值
+   */
+  private static long readVarLong(ByteBuffer in) {
+    long raw = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.get();
+      raw |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return (raw >>> 1) ^ -(raw & 1);
+  }
+
+  /** 直接暴露内部数组的输出流, 编码结果不需要再复制 */
+  protected static class BufferOutputStream extends ByteArrayOutputStream {
+
+    BufferOutputStream(int size) {
+      super(size);
+    }
+
+    void writeLong(long v) {
+      for (int i = 7; i >= 0; i--) {
+        write((int) (v >>> (i * 8)));
+      }
+    }
+
+    void writeVarLong(long v) {
+      long raw = (v << 1) ^ (v >> 63);
+      while ((raw & ~0x7FL) != 0) {
+        write((int) ((raw & 0x7F) | 0x80));
+        raw >>>= 7;
+      }
+      write((int) raw);
+    }
+
+    void writeLengthPrefixed(byte[] bytes) {
+      writeVarLong(bytes.length);
+      write(bytes, 0, bytes.length);
+    }
+
+    byte[] buffer() {
+      return buf;
+    }
+
+    void truncate(int size) {
+      count = size;
+    }
+
+    void setByte(int index, int b) {
+      buf[index] = (byte) b;
+    }
+
+    ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
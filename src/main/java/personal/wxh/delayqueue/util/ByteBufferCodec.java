@@ -0,0 +1,77 @@
+package personal.wxh.delayqueue.util;
+
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.ToByteBufEncoder;
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import lombok.val;
+
+/**
+ * key为 {@code byte[]}, value为 {@link ByteBuffer} 的codec, value直接写入netty缓冲区, 不经过String
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class ByteBufferCodec
+    implements RedisCodec<byte[], ByteBuffer>, ToByteBufEncoder<byte[], ByteBuffer> {
+
+  public static final ByteBufferCodec INSTANCE = new ByteBufferCodec();
+
+  private static final byte[] EMPTY = new byte[0];
+
+  @Override
+  public byte[] decodeKey(ByteBuffer bytes) {
+    val key = new byte[bytes.remaining()];
+    bytes.get(key);
+    return key;
+  }
+
+  /**
+   * netty缓冲区会被复用, 需要复制一份
+   *
+   * @param bytes 原始数据
+   * @return 堆内缓冲区
+   */
+  @Override
+  public ByteBuffer decodeValue(ByteBuffer bytes) {
+    val value = ByteBuffer.allocate(bytes.remaining());
+    value.put(bytes);
+    value.flip();
+    return value;
+  }
+
+  @Override
+  public ByteBuffer encodeKey(byte[] key) {
+    return ByteBuffer.wrap(key == null ? EMPTY : key);
+  }
+
+  @Override
+  public ByteBuffer encodeValue(ByteBuffer value) {
+    return value == null ? ByteBuffer.wrap(EMPTY) : value.duplicate();
+  }
+
+  @Override
+  public void encodeKey(byte[] key, ByteBuf target) {
+    if (key != null) {
+      target.writeBytes(key);
+    }
+  }
+
+  @Override
+  public void encodeValue(ByteBuffer value, ByteBuf target) {
+    if (value != null) {
+      target.writeBytes(value.duplicate());
+    }
+  }
+
+  @Override
+  public int estimateSize(Object keyOrValue) {
+    if (keyOrValue instanceof byte[]) {
+      return ((byte[]) keyOrValue).length;
+    }
+    if (keyOrValue instanceof ByteBuffer) {
+      return ((ByteBuffer) keyOrValue).remaining();
+    }
+    return 0;
+  }
+}
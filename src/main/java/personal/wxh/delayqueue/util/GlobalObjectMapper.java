@@ -2,6 +2,7 @@ package personal.wxh.delayqueue.util;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 /**
  * @author wangxinhua
@@ -10,18 +11,33 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class GlobalObjectMapper {
   private enum Instance {
     ;
-    private static ObjectMapper mapper = new ObjectMapper();
+    private static ObjectMapper mapper = configure(new ObjectMapper());
+  }
 
-    static {
-      // 写入类型信息
-      mapper.activateDefaultTypingAsProperty(
-          mapper.getPolymorphicTypeValidator(), ObjectMapper.DefaultTyping.NON_FINAL, "@class");
-      // 忽略空值
-      mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-    }
+  private enum BinaryInstance {
+    ;
+    private static ObjectMapper mapper = configure(new ObjectMapper(new SmileFactory()));
   }
 
   public static ObjectMapper getInstance() {
     return Instance.mapper;
   }
+
+  /**
+   * smile格式的objectMapper, 配置与 {@link #getInstance()} 相同
+   *
+   * @return objectMapper
+   */
+  public static ObjectMapper getBinaryInstance() {
+    return BinaryInstance.mapper;
+  }
+
+  private static ObjectMapper configure(ObjectMapper mapper) {
+    // 写入类型信息
+    mapper.activateDefaultTypingAsProperty(
+        mapper.getPolymorphicTypeValidator(), ObjectMapper.DefaultTyping.NON_FINAL, "@class");
+    // 忽略空值
+    mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    return mapper;
+  }
 }
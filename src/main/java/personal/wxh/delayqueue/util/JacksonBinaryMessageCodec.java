@@ -0,0 +1,70 @@
+package personal.wxh.delayqueue.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import lombok.NonNull;
+import lombok.val;
+
+/**
+ * body使用jackson二进制格式(smile)编码的消息codec
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class JacksonBinaryMessageCodec<T> extends BinaryEnvelopeCodec<T> {
+
+  private final ObjectMapper objectMapper;
+  private final Class<T> metaClass;
+
+  /**
+   * 使用全局的smile objectMapper
+   *
+   * @param metaClass body类型
+   */
+  public JacksonBinaryMessageCodec(@NonNull Class<T> metaClass) {
+    this(GlobalObjectMapper.getBinaryInstance(), metaClass, null);
+  }
+
+  /**
+   * 使用全局的smile objectMapper, 超过阈值的body进行压缩
+   *
+   * @param metaClass body类型
+   * @param compressor body压缩
+   */
+  public JacksonBinaryMessageCodec(
+      @NonNull Class<T> metaClass, @NonNull Lz4BodyCompressor compressor) {
+    this(GlobalObjectMapper.getBinaryInstance(), metaClass, compressor);
+  }
+
+  /**
+   * @param objectMapper smile等二进制格式的objectMapper
+   * @param metaClass body类型
+   * @param compressor body压缩, 为null时不压缩
+   */
+  public JacksonBinaryMessageCodec(
+      @NonNull ObjectMapper objectMapper,
+      @NonNull Class<T> metaClass,
+      Lz4BodyCompressor compressor) {
+    super(compressor);
+    this.objectMapper = objectMapper;
+    this.metaClass = metaClass;
+  }
+
+  @Override
+  protected void writeBody(@NonNull T body, @NonNull OutputStream out) throws IOException {
+    objectMapper.writeValue(out, body);
+  }
+
+  @Override
+  protected T readBody(@NonNull ByteBuffer body) throws IOException {
+    if (body.hasArray()) {
+      return objectMapper.readValue(
+          body.array(), body.arrayOffset() + body.position(), body.remaining(), metaClass);
+    }
+    val bytes = new byte[body.remaining()];
+    body.get(bytes);
+    return objectMapper.readValue(bytes, metaClass);
+  }
+}
@@ -0,0 +1,40 @@
+package personal.wxh.delayqueue.util;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * lua脚本及其sha1, 通过 {@link ScriptRegistry#get(String)} 获取
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Getter
+@ToString(of = {"fileName", "digest"})
+@EqualsAndHashCode(of = "digest")
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public class LuaScript {
+
+  /** classpath下的文件名 */
+  private final String fileName;
+
+  /** 脚本内容, NOSCRIPT时通过EVAL发送 */
+  private final String source;
+
+  /** EVALSHA使用的sha1 */
+  private final String digest;
+
+  /**
+   * 使用外部加载的sha1, 兼容通过 {@link ScriptLoader} 加载的脚本
+   *
+   * @param digest 外部加载的sha1
+   * @return 新的脚本对象, 内容不变
+   */
+  public LuaScript withDigest(@NonNull String digest) {
+    return digest.equals(this.digest) ? this : new LuaScript(fileName, source, digest);
+  }
+}
@@ -0,0 +1,118 @@
+package personal.wxh.delayqueue.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+import lombok.val;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * 基于LZ4的body压缩, 配合 {@link BinaryEnvelopeCodec} 使用
+ *
+ * <p>只压缩不小于 {@code threshold} 字节的body, 压缩后没有变小则保留原始数据; 同时统计压缩效果
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class Lz4BodyCompressor {
+
+  private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+  /** 解码的数据来自redis, 使用检查输入边界的解压 */
+  private static final LZ4SafeDecompressor DECOMPRESSOR = FACTORY.safeDecompressor();
+
+  private final LZ4Compressor compressor = FACTORY.fastCompressor();
+
+  /** 压缩阈值, 字节 */
+  @Getter private final int threshold;
+
+  /** 参与压缩的原始字节数 */
+  private final LongAdder rawBytes = new LongAdder();
+
+  /** 压缩后实际保存的字节数 */
+  private final LongAdder storedBytes = new LongAdder();
+
+  /** 压缩的消息数量 */
+  private final LongAdder compressedCount = new LongAdder();
+
+  /** 达到阈值但压缩后没有变小的消息数量 */
+  private final LongAdder incompressibleCount = new LongAdder();
+
+  public Lz4BodyCompressor(int threshold) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("threshold must not be negative");
+    }
+    this.threshold = threshold;
+  }
+
+  /**
+   * 压缩
+   *
+   * @param src 原始数据
+   * @param offset 开始位置
+   * @param length 长度
+   * @return 压缩结果, 未达到阈值或压缩后没有变小时返回null
+   */
+  byte[] compress(byte[] src, int offset, int length) {
+    if (length < threshold) {
+      return null;
+    }
+    val dest = new byte[compressor.maxCompressedLength(length)];
+    val compressedLength = compressor.compress(src, offset, length, dest, 0, dest.length);
+    rawBytes.add(length);
+    if (compressedLength >= length) {
+      incompressibleCount.increment();
+      storedBytes.add(length);
+      return null;
+    }
+    compressedCount.increment();
+    storedBytes.add(compressedLength);
+    return compressedLength == dest.length ? dest : Arrays.copyOf(dest, compressedLength);
+  }
+
+  /**
+   * 解压
+   *
+   * @param src 压缩数据
+   * @param offset 开始位置
+   * @param length 压缩数据长度
+   * @param rawLength 原始长度
+   * @return 原始数据
+   */
+  static byte[] decompress(byte[] src, int offset, int length, int rawLength) {
+    val dest = new byte[rawLength];
+    val n = DECOMPRESSOR.decompress(src, offset, length, dest, 0, rawLength);
+    if (n != rawLength) {
+      throw new IllegalArgumentException("expected " + rawLength + " bytes but got " + n);
+    }
+    return dest;
+  }
+
+  public long getRawBytes() {
+    return rawBytes.sum();
+  }
+
+  public long getStoredBytes() {
+    return storedBytes.sum();
+  }
+
+  public long getCompressedCount() {
+    return compressedCount.sum();
+  }
+
+  public long getIncompressibleCount() {
+    return incompressibleCount.sum();
+  }
+
+  /**
+   * 压缩率, 保存字节数 / 原始字节数, 越小越好
+   *
+   * @return 没有达到阈值的数据时返回1
+   */
+  public double getRatio() {
+    val raw = rawBytes.sum();
+    return raw == 0 ? 1D : (double) storedBytes.sum() / raw;
+  }
+}
@@ -0,0 +1,32 @@
+package personal.wxh.delayqueue.util;
+
+import java.nio.ByteBuffer;
+import lombok.NonNull;
+import personal.wxh.delayqueue.core.Message;
+
+/**
+ * 消息二进制编解码, 配合 {@link ByteBufferCodec} 连接使用
+ *
+ * <p>实现需要线程安全, 编解码失败时抛出 {@code RuntimeException}
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public interface MessageCodec<T> {
+
+  /**
+   * 编码消息
+   *
+   * @param message 消息对象
+   * @return 编码结果, position为0, limit为数据长度
+   */
+  ByteBuffer encode(@NonNull Message<T> message);
+
+  /**
+   * 解码消息
+   *
+   * @param buffer 编码数据, 从position开始读取
+   * @return 消息对象
+   */
+  Message<T> decode(@NonNull ByteBuffer buffer);
+}
@@ -0,0 +1,123 @@
+package personal.wxh.delayqueue.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import reactor.core.Disposable;
+import reactor.core.publisher.EmitterProcessor;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * 把单个操作合并为批量操作, 达到 {@code maxSize} 或等待超过 {@code window} 时执行一次批量处理
+ *
+ * <p>批量处理按提交顺序串行执行, 结果列表与输入按下标对应, 每个 {@link #add(Object)} 得到自己的结果; 结果列表较短时对应的Mono为空,
+ * 批量处理失败时该批所有Mono都收到异常. 批量处理慢于提交时已经成批的元素在内存中排队, {@link #shutdown()} 后提交的元素收到 {@code
+ * IllegalStateException}
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class ReactiveBatcher<I, R> {
+
+  private final FluxSink<Pending<I, R>> sink;
+
+  private final Disposable subscription;
+
+  /** 停止后不再接收新元素, 与 {@link #sink} 的写入互斥 */
+  private boolean closed;
+
+  /**
+   * @param maxSize 单批最大数量
+   * @param window 最长等待时间
+   * @param handler 批量处理, 返回与输入按下标对应的结果
+   */
+  public ReactiveBatcher(
+      int maxSize, @NonNull Duration window, @NonNull Function<List<I>, Mono<List<R>>> handler) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    val processor = EmitterProcessor.<Pending<I, R>>create(false);
+    this.sink = processor.sink(FluxSink.OverflowStrategy.BUFFER);
+    this.subscription =
+        processor
+            .bufferTimeout(maxSize, window)
+            // bufferTimeout不支持背压, 批量处理未完成时暂存后续批次
+            .onBackpressureBuffer()
+            .concatMap(batch -> flush(batch, handler))
+            .subscribe(null, e -> log.error("batcher terminated -> ", e));
+  }
+
+  /**
+   * 提交一个元素, 订阅时才会加入批次
+   *
+   * @param item 元素
+   * @return 批量处理后该元素的结果
+   */
+  public Mono<R> add(@NonNull I item) {
+    return Mono.create(
+        s -> {
+          synchronized (this) {
+            if (!closed) {
+              sink.next(new Pending<>(item, s));
+              return;
+            }
+          }
+          s.error(new IllegalStateException("batcher is shut down"));
+        });
+  }
+
+  /** 不再接收新元素, 已提交的元素会被处理完 */
+  public synchronized void shutdown() {
+    closed = true;
+    sink.complete();
+  }
+
+  /**
+   * 立即停止, 未处理的元素不会再收到结果
+   *
+   * @see #shutdown()
+   */
+  public void dispose() {
+    synchronized (this) {
+      closed = true;
+    }
+    subscription.dispose();
+  }
+
+  private Mono<Void> flush(List<Pending<I, R>> batch, Function<List<I>, Mono<List<R>>> handler) {
+    val items = new ArrayList<I>(batch.size());
+    for (val p : batch) {
+      items.add(p.item);
+    }
+    return Mono.defer(() -> handler.apply(items))
+        .defaultIfEmpty(new ArrayList<>())
+        .doOnNext(
+            results -> {
+              for (int i = 0; i < batch.size(); i++) {
+                val r = i < results.size() ? results.get(i) : null;
+                if (r == null) {
+                  batch.get(i).sink.success();
+                } else {
+                  batch.get(i).sink.success(r);
+                }
+              }
+            })
+        .doOnError(e -> batch.forEach(p -> p.sink.error(e)))
+        .onErrorResume(e -> Mono.empty())
+        .then();
+  }
+
+  @RequiredArgsConstructor
+  private static class Pending<I, R> {
+    private final I item;
+    private final MonoSink<R> sink;
+  }
+}
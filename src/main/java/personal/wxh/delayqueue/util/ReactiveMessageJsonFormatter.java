@@ -2,11 +2,13 @@ package personal.wxh.delayqueue.util;
 
 import static personal.wxh.delayqueue.util.Exceptions.checked;
 
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.util.Collection;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
-import lombok.val;
 import personal.wxh.delayqueue.core.Message;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -15,11 +17,22 @@ import reactor.core.publisher.Mono;
  * @author wangxinhua
  * @since 1.0
  */
-@RequiredArgsConstructor
 public class ReactiveMessageJsonFormatter<T> {
 
   private final ObjectMapper objectMapper;
-  private final Class<T> metaClass;
+
+  /** {@code Message<T>}, 构造时解析一次 */
+  private final JavaType type;
+
+  /** 批量读取使用 */
+  private final ObjectReader reader;
+
+  public ReactiveMessageJsonFormatter(
+      @NonNull ObjectMapper objectMapper, @NonNull Class<T> metaClass) {
+    this.objectMapper = objectMapper;
+    this.type = objectMapper.getTypeFactory().constructParametricType(Message.class, metaClass);
+    this.reader = objectMapper.readerFor(type);
+  }
 
   /**
    * 读取json，支持复合类型
@@ -29,10 +42,28 @@ public class ReactiveMessageJsonFormatter<T> {
    * @see Exceptions#checked(CheckedSupplier)
    */
   public Mono<Message<T>> readValue(@NonNull String json) {
-    val type = objectMapper.getTypeFactory().constructParametricType(Message.class, metaClass);
     return Mono.fromSupplier(checked(() -> objectMapper.readValue(json, type)));
   }
 
+  /**
+   * 批量读取json, 复用同一个reader逐条解析, 一条失败不影响其他消息
+   *
+   * @param jsons 目标json
+   * @return 顺序与输入相同的结果, 所有可以解析的消息发出后再发出异常 | 每条失败的消息对应一个 {@code IllegalArgumentException},
+   *     包含下标与原始json, 多条失败时合并为一个异常
+   */
+  public Flux<Message<T>> readValues(@NonNull Collection<String> jsons) {
+    return Flux.fromIterable(jsons)
+        .index()
+        .concatMapDelayError(
+            t ->
+                Mono.fromSupplier(checked(() -> reader.<Message<T>>readValue(t.getT2())))
+                    .onErrorMap(
+                        e ->
+                            new IllegalArgumentException(
+                                "invalid message at " + t.getT1() + " -> " + t.getT2(), e)));
+  }
+
   /**
    * 写入json
    *
@@ -7,7 +7,9 @@ import lombok.val;
 /**
  * @author wangxinhua
  * @since 1.0
+ * @deprecated 使用 {@link ScriptRegistry}, sha1在本地计算并在首次执行时按需加载
  */
+@Deprecated
 public class ScriptLoader {
 
   /**
@@ -0,0 +1,137 @@
+package personal.wxh.delayqueue.util;
+
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.output.StatusOutput;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CommandKeyword;
+import io.lettuce.core.protocol.CommandType;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * lua脚本注册表, 替代 {@link ScriptLoader}
+ *
+ * <p>sha1在本地计算, 不需要在初始化时连接redis; 脚本按文件名缓存, 所有队列实例共享. 执行时先EVALSHA, 服务端返回NOSCRIPT (首次使用, 重启或故障转移后)
+ * 时先SCRIPT LOAD再重试EVALSHA, 之后的EVALSHA恢复正常; 集群模式下SCRIPT LOAD可能路由到其他节点, 重试仍然NOSCRIPT时改用EVAL
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class ScriptRegistry {
+
+  private static final Map<String, LuaScript> SCRIPTS = new ConcurrentHashMap<>();
+
+  private ScriptRegistry() {}
+
+  /**
+   * 获取classpath下的脚本, 同一文件只读取一次
+   *
+   * @param fileName 文件名
+   * @return 脚本
+   */
+  public static LuaScript get(@NonNull String fileName) {
+    return SCRIPTS.computeIfAbsent(
+        fileName,
+        f -> {
+          val source = ResourceLoader.loadAsString(f);
+          return new LuaScript(f, source, sha1(source));
+        });
+  }
+
+  /**
+   * 执行脚本, NOSCRIPT时加载脚本后重试
+   *
+   * @param commands 命令
+   * @param script 脚本
+   * @param type 返回类型
+   * @param keys 脚本操作的key
+   * @param args 参数
+   * @return 脚本结果
+   */
+  @SafeVarargs
+  @SuppressWarnings("varargs") // args只传给lettuce编码, 不会被写入
+  public static <K, V, T> Flux<T> eval(
+      @NonNull RedisClusterReactiveCommands<K, V> commands,
+      @NonNull LuaScript script,
+      @NonNull ScriptOutputType type,
+      @NonNull K[] keys,
+      V... args) {
+    return commands
+        .<T>evalsha(script.getDigest(), type, keys, args)
+        .onErrorResume(
+            ScriptRegistry::isNoScript,
+            e -> {
+              log.info("script {} not cached on server, load and retry", script.getFileName());
+              return load(commands, script)
+                  .thenMany(commands.<T>evalsha(script.getDigest(), type, keys, args))
+                  .onErrorResume(
+                      ScriptRegistry::isNoScript,
+                      retry -> commands.eval(script.getSource(), type, keys, args));
+            });
+  }
+
+  /**
+   * 异步预加载脚本, 可以在启动时调用以避免首次执行时的EVAL
+   *
+   * @param commands 命令, 集群模式下只会加载到该连接路由的节点
+   * @param scripts 脚本
+   * @return 加载完成
+   */
+  public static Mono<Void> preload(
+      @NonNull RedisClusterReactiveCommands<?, String> commands, @NonNull LuaScript... scripts) {
+    return Flux.fromArray(scripts).flatMap(s -> commands.scriptLoad(s.getSource())).then();
+  }
+
+  /**
+   * SCRIPT LOAD, 脚本按utf-8字节写入, 与连接的codec无关
+   *
+   * @param commands 命令
+   * @param script 脚本
+   * @return sha1
+   */
+  @SuppressWarnings("unchecked") // codec只用于解码状态回复, 不编码K, V
+  private static <K, V> Mono<String> load(
+      RedisClusterReactiveCommands<K, V> commands, LuaScript script) {
+    val codec = (RedisCodec<K, V>) StringCodec.UTF8;
+    return commands
+        .<String>dispatch(
+            CommandType.SCRIPT,
+            new StatusOutput<>(codec),
+            new CommandArgs<>(codec)
+                .add(CommandKeyword.LOAD)
+                .add(script.getSource().getBytes(StandardCharsets.UTF_8)))
+        .next();
+  }
+
+  private static boolean isNoScript(Throwable e) {
+    return e instanceof RedisNoScriptException
+        || String.valueOf(e.getMessage()).startsWith("NOSCRIPT");
+  }
+
+  private static String sha1(String source) {
+    try {
+      val digest =
+          MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+      val hex = new StringBuilder(digest.length * 2);
+      for (val b : digest) {
+        hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
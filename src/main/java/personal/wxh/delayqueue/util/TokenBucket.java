@@ -0,0 +1,100 @@
+package personal.wxh.delayqueue.util;
+
+import lombok.Getter;
+import lombok.val;
+
+/**
+ * 令牌桶限流, 以固定速率补充令牌, 最多积累 {@code burst} 个
+ *
+ * <p>{@link #consume(long)} 允许超额扣除, 令牌变为负数时需要等待补回, 适合先执行再按实际数量扣除的批量操作
+ *
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class TokenBucket {
+
+  /** 每秒补充的令牌数量 */
+  @Getter private final double permitsPerSecond;
+
+  /** 最大令牌数量 */
+  @Getter private final long burst;
+
+  private final double permitsPerNano;
+
+  private double tokens;
+
+  private long refilledAt;
+
+  /**
+   * 初始为满桶
+   *
+   * @param permitsPerSecond 每秒补充的令牌数量
+   * @param burst 最大令牌数量
+   */
+  public TokenBucket(double permitsPerSecond, long burst) {
+    if (permitsPerSecond <= 0 || burst <= 0) {
+      throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+    }
+    this.permitsPerSecond = permitsPerSecond;
+    this.burst = burst;
+    this.permitsPerNano = permitsPerSecond / 1_000_000_000D;
+    this.tokens = burst;
+    this.refilledAt = System.nanoTime();
+  }
+
+  /**
+   * 当前可用的令牌数量
+   *
+   * @return 整数部分, 不小于0
+   */
+  public synchronized long available() {
+    refill();
+    return Math.max(0L, (long) tokens);
+  }
+
+  /**
+   * 扣除令牌, 可以超过当前可用数量
+   *
+   * @param permits 数量
+   */
+  public synchronized void consume(long permits) {
+    refill();
+    tokens -= permits;
+  }
+
+  /**
+   * 尝试获取令牌
+   *
+   * @param permits 数量
+   * @return true 获取成功
+   */
+  public synchronized boolean tryAcquire(long permits) {
+    refill();
+    if (tokens < permits) {
+      return false;
+    }
+    tokens -= permits;
+    return true;
+  }
+
+  /**
+   * 距离积累到指定数量的等待时间
+   *
+   * @param permits 数量, 不应超过 {@code burst}
+   * @return 等待时间, 毫秒, 已经足够时为0
+   */
+  public synchronized long millisUntil(long permits) {
+    refill();
+    val missing = permits - tokens;
+    if (missing <= 0) {
+      return 0L;
+    }
+    return (long) Math.ceil(missing / permitsPerSecond * 1000D);
+  }
+
+  private void refill() {
+    val now = System.nanoTime();
+    tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+    refilledAt = now;
+  }
+}
@@ -0,0 +1,13 @@
+-- 按id取消消息, 同时删除消息内容
+
+local zset_key = KEYS[1]
+local payload_key = KEYS[2]
+
+local removed = 0
+for i = 1, #ARGV do
+    if redis.call('ZREM', zset_key, ARGV[i]) == 1 then
+        removed = removed + 1
+    end
+    redis.call('HDEL', payload_key, ARGV[i])
+end
+return removed
@@ -0,0 +1,124 @@
+-- 批量出队列, 通过HMGET取出消息内容push到job队列, 周期消息在同一次调用中写入下一次
+-- 单条出队同样使用本脚本, limit为1且不限制水位
+-- 所有key都通过KEYS传入, 集群模式下需要使用相同的hash tag
+
+local zset_key = KEYS[1]
+local payload_key = KEYS[2]
+local job_list_key = KEYS[3]
+
+local min_score = ARGV[1]
+local max_score = ARGV[2]
+local offset = ARGV[3]
+local limit = ARGV[4]
+-- 当前时间, 毫秒
+local now = tonumber(ARGV[5])
+
+-- job队列水位上限, 可选, 只搬运到job队列长度达到水位为止
+local high_water = tonumber(ARGV[6])
+if high_water ~= nil and high_water > 0 then
+    local room = high_water - redis.call('LLEN', job_list_key)
+    if room <= 0 then
+        return {}
+    end
+    if room < tonumber(limit) then
+        limit = room
+    end
+end
+
+-- set_score在reschedule-indexed.lua与dequeue-trans-batch-indexed.lua中完全相同, 修改时需要同步
+-- 替换消息json顶层的score字段, 跳过字符串及嵌套的对象和数组, body中同名的字段不受影响, 其余内容原样保留
+-- 不使用cjson重新编码: cjson只保留14位有效数字, 空数组会被编码为对象; 没有顶层score字段时返回nil
+local function set_score(json, score)
+    local depth = 0
+    local i = 1
+    while true do
+        local s = string.find(json, '["{}%[%]]', i)
+        if s == nil then
+            return nil
+        end
+        local c = string.sub(json, s, s)
+        if c == '"' then
+            -- 查找字符串结束的引号, 跳过转义字符
+            local e = s + 1
+            while true do
+                local q = string.find(json, '["\\]', e)
+                if q == nil then
+                    return nil
+                end
+                if string.sub(json, q, q) == '\\' then
+                    e = q + 2
+                else
+                    e = q
+                    break
+                end
+            end
+            if depth == 1 and string.sub(json, s, e) == '"score"' then
+                local value_start = string.match(json, '^%s*:%s*()', e + 1)
+                if value_start then
+                    local value_end = string.find(json, '[,}%s]', value_start)
+                    if value_end == nil then
+                        return nil
+                    end
+                    return string.sub(json, 1, value_start - 1) .. score .. string.sub(json, value_end)
+                end
+            end
+            i = e + 1
+        else
+            if c == '{' or c == '[' then
+                depth = depth + 1
+            else
+                depth = depth - 1
+            end
+            i = s + 1
+        end
+    end
+end
+
+-- 周期消息按interval计算晚于当前时间的下一次score, 重新写入zset并同步消息内容中的score
+-- 当前时间由调用方单独传入, 不能使用出队的max, max可能远大于当前时间
+local function reschedule_recurring(id, payload, now)
+    if not string.find(payload, '"interval":', 1, true) then
+        return
+    end
+    local ok, decoded = pcall(cjson.decode, payload)
+    if not ok or type(decoded) ~= 'table' then
+        return
+    end
+    local interval = tonumber(decoded['interval'])
+    local score = tonumber(decoded['score'])
+    if interval == nil or interval <= 0 or score == nil then
+        return
+    end
+    -- 提前出队(score晚于当前时间)时从score开始计算
+    local base = math.max(now, score)
+    local next_score = string.format('%.0f', score + interval * (math.floor((base - score) / interval) + 1))
+    redis.call('ZADD', zset_key, next_score, id)
+    redis.call('HSET', payload_key, id, set_score(payload, next_score) or payload)
+end
+
+local ids = redis.call('ZRANGEBYSCORE', zset_key, min_score, max_score, 'LIMIT', offset, limit)
+local result = {}
+-- unpack的参数个数有限制, 分批处理
+for i = 1, #ids, 1000 do
+    local chunk = {unpack(ids, i, math.min(i + 999, #ids))}
+    local payloads = redis.call('HMGET', payload_key, unpack(chunk))
+    redis.call('ZREM', zset_key, unpack(chunk))
+    redis.call('HDEL', payload_key, unpack(chunk))
+    local pushed = {}
+    for j = 1, #chunk do
+        -- 缺失的内容HMGET返回false
+        if payloads[j] then
+            pushed[#pushed + 1] = payloads[j]
+            result[#result + 1] = payloads[j]
+        end
+    end
+    if #pushed > 0 then
+        redis.call('RPUSH', job_list_key, unpack(pushed))
+    end
+    for j = 1, #chunk do
+        if payloads[j] then
+            reschedule_recurring(chunk[j], payloads[j], now)
+        end
+    end
+end
+return result
@@ -0,0 +1,54 @@
+-- 与dequeue-trans-batch.lua相同, 到期消息按priority字段写入对应的job队列
+-- KEYS[2]开始依次为优先级0, 1, 2...的job队列, 超出范围的优先级归入最近的队列
+
+-- 解析失败或没有priority字段的消息进入优先级0
+local function lane_of(m)
+    local ok, decoded = pcall(cjson.decode, m)
+    local priority = 0
+    if ok and type(decoded) == 'table' then
+        priority = tonumber(decoded['priority']) or 0
+    end
+    return math.max(0, math.min(math.floor(priority), #KEYS - 2)) + 2
+end
+
+local zset_key = KEYS[1]
+
+local min_score = ARGV[1]
+local max_score = ARGV[2]
+local offset = ARGV[3]
+local limit = ARGV[4]
+
+-- 所有通道合计的水位上限, 可选
+local high_water = tonumber(ARGV[5])
+if high_water ~= nil and high_water > 0 then
+    local room = high_water
+    for i = 2, #KEYS do
+        room = room - redis.call('LLEN', KEYS[i])
+    end
+    if room <= 0 then
+        return {}
+    end
+    if room < tonumber(limit) then
+        limit = room
+    end
+end
+
+local list = redis.call('ZRANGEBYSCORE', zset_key, min_score, max_score, 'LIMIT', offset, limit)
+if #list == 0 then
+    return {}
+end
+redis.call('ZREM', zset_key, unpack(list))
+
+-- 按通道分组, 每个通道一次RPUSH, 通道内保持score顺序
+local lanes = {}
+for _, m in ipairs(list) do
+    local lane = lane_of(m)
+    if lanes[lane] == nil then
+        lanes[lane] = {}
+    end
+    table.insert(lanes[lane], m)
+end
+for lane, items in pairs(lanes) do
+    redis.call('RPUSH', KEYS[lane], unpack(items))
+end
+return list
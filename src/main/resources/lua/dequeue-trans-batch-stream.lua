@@ -0,0 +1,37 @@
+-- 与dequeue-trans-batch.lua相同, 到期消息按score顺序逐条XADD到job stream, field为m
+-- 所有key都通过KEYS传入, 集群模式下zset与stream需要使用相同的hash tag
+
+local zset_key = KEYS[1]
+local stream_key = KEYS[2]
+
+local min_score = ARGV[1]
+local max_score = ARGV[2]
+local offset = ARGV[3]
+local limit = ARGV[4]
+
+-- stream水位上限, 可选
+local high_water = tonumber(ARGV[5])
+if high_water ~= nil and high_water > 0 then
+    local room = high_water - redis.call('XLEN', stream_key)
+    if room <= 0 then
+        return {}
+    end
+    if room < tonumber(limit) then
+        limit = room
+    end
+end
+
+local status, type = next(redis.call('TYPE', zset_key))
+if status ~= nil and status == 'ok' then
+    if type == 'zset' then
+        local list = redis.call('ZRANGEBYSCORE', zset_key, min_score, max_score, 'LIMIT', offset, limit)
+        if list ~= nil and #list > 0 then
+            redis.call('ZREM', zset_key, unpack(list))
+            for _, m in ipairs(list) do
+                redis.call('XADD', stream_key, '*', 'm', m)
+            end
+            return list
+        end
+    end
+end
+return {}
@@ -1,6 +1,8 @@
 -- 出队列的同时把数据push到job队列
+-- 所有key都通过KEYS传入, 集群模式下zset与job队列需要使用相同的hash tag
 
 local zset_key = KEYS[1]
+local job_list_key = KEYS[2]
 
 -- 最小值范围, 可选
 local min_score = ARGV[1]
@@ -10,7 +12,18 @@ local max_score = ARGV[2]
 local offset = ARGV[3]
 local limit = ARGV[4]
 
-local job_list_key = ARGV[5]
+-- job队列水位上限, 可选, 只搬运到job队列长度达到水位为止
+local high_water = tonumber(ARGV[5])
+if high_water ~= nil and high_water > 0 then
+    local room = high_water - redis.call('LLEN', job_list_key)
+    if room <= 0 then
+        return {}
+    end
+    if room < tonumber(limit) then
+        limit = room
+    end
+end
+
 -- TYPE命令的返回结果是{'ok':'zset'}这样子,这里利用next做一轮迭代
 local status, type = next(redis.call('TYPE', zset_key))
 if status ~= nil and status == 'ok' then
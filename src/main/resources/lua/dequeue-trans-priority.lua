@@ -0,0 +1,25 @@
+-- 与dequeue-trans.lua相同, 到期消息按priority字段写入对应的job队列
+-- KEYS[2]开始依次为优先级0, 1, 2...的job队列, 超出范围的优先级归入最近的队列
+
+-- 解析失败或没有priority字段的消息进入优先级0
+local function lane_of(m)
+    local ok, decoded = pcall(cjson.decode, m)
+    local priority = 0
+    if ok and type(decoded) == 'table' then
+        priority = tonumber(decoded['priority']) or 0
+    end
+    return math.max(0, math.min(math.floor(priority), #KEYS - 2)) + 2
+end
+
+local zset_key = KEYS[1]
+local max_score = ARGV[1]
+
+local message = redis.call('ZRANGEBYSCORE', zset_key, '-inf', max_score, 'LIMIT', 0, 1)
+if #message > 0 then
+    local m = message[1]
+    redis.call('ZREM', zset_key, m)
+    redis.call('RPUSH', KEYS[lane_of(m)], m)
+    return message
+else
+    return {}
+end
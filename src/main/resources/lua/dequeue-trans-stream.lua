@@ -0,0 +1,14 @@
+-- 与dequeue-trans.lua相同, 到期消息XADD到job stream, field为m
+local zset_key = KEYS[1]
+local stream_key = KEYS[2]
+local max_score = ARGV[1]
+
+local message = redis.call('ZRANGEBYSCORE', zset_key, '-inf', max_score, 'LIMIT', 0, 1)
+if #message > 0 then
+    local m = message[1]
+    redis.call('ZREM', zset_key, m)
+    redis.call('XADD', stream_key, '*', 'm', m)
+    return message
+else
+    return {}
+end
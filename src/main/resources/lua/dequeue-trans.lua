@@ -1,6 +1,6 @@
 local zset_key = KEYS[1]
+local job_list_key = KEYS[2]
 local max_score = ARGV[1]
-local job_list_key = ARGV[2]
 
 local message = redis.call('ZRANGEBYSCORE', zset_key, '-inf', max_score, 'LIMIT', 0, 1)
 if #message > 0 then
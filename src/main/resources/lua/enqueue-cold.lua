@@ -0,0 +1,25 @@
+-- 远期消息追加到时间桶, 同时在桶索引中登记该桶
+
+local index_key = KEYS[1]
+local bucket_key = KEYS[2]
+local bucket_score = ARGV[1]
+
+-- ARGV[2]开始为score, member交替, 原样追加到list保证O(1)
+local appended = 0
+local args = {}
+for i = 2, #ARGV do
+    args[#args + 1] = ARGV[i]
+    -- unpack的参数个数有限制, 分批RPUSH
+    if #args >= 1000 then
+        redis.call('RPUSH', bucket_key, unpack(args))
+        appended = appended + #args / 2
+        args = {}
+    end
+end
+if #args > 0 then
+    redis.call('RPUSH', bucket_key, unpack(args))
+    appended = appended + #args / 2
+end
+
+redis.call('ZADD', index_key, bucket_score, bucket_key)
+return appended
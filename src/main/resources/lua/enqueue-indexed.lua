@@ -0,0 +1,30 @@
+-- 按id入队, zset只保存id, 消息内容保存在hash中
+-- 已存在的id不会被覆盖, 重复入队是幂等的; 新消息早于原队头时发布唤醒通知
+
+local zset_key = KEYS[1]
+local payload_key = KEYS[2]
+local channel = ARGV[1]
+
+local head = redis.call('ZRANGE', zset_key, 0, 0, 'WITHSCORES')
+
+-- ARGV[2]开始为score, id, 消息内容交替
+local added = 0
+local min_score = nil
+local min_arg = nil
+for i = 2, #ARGV, 3 do
+    local id = ARGV[i + 1]
+    if redis.call('HSETNX', payload_key, id, ARGV[i + 2]) == 1 then
+        redis.call('ZADD', zset_key, ARGV[i], id)
+        added = added + 1
+        local score = tonumber(ARGV[i])
+        if min_score == nil or score < min_score then
+            min_score = score
+            min_arg = ARGV[i]
+        end
+    end
+end
+
+if min_score ~= nil and (#head == 0 or min_score < tonumber(head[2])) then
+    redis.call('PUBLISH', channel, min_arg)
+end
+return added
@@ -0,0 +1,44 @@
+-- 入队的同时, 如果新消息早于原队头则发布唤醒通知
+
+local zset_key = KEYS[1]
+local channel = ARGV[1]
+-- count: 返回新增总数; each: 按参数顺序返回每个消息是否新增
+local mode = ARGV[2]
+
+-- ARGV[3]开始为score, member交替
+local head = redis.call('ZRANGE', zset_key, 0, 0, 'WITHSCORES')
+
+local added = 0
+local each = {}
+local min_score = nil
+local min_arg = nil
+local args = {}
+for i = 3, #ARGV, 2 do
+    local score = tonumber(ARGV[i])
+    if min_score == nil or score < min_score then
+        min_score = score
+        min_arg = ARGV[i]
+    end
+    if mode == 'each' then
+        each[#each + 1] = redis.call('ZADD', zset_key, ARGV[i], ARGV[i + 1])
+    else
+        args[#args + 1] = ARGV[i]
+        args[#args + 1] = ARGV[i + 1]
+        -- unpack的参数个数有限制, 分批ZADD
+        if #args >= 1000 then
+            added = added + redis.call('ZADD', zset_key, unpack(args))
+            args = {}
+        end
+    end
+end
+if #args > 0 then
+    added = added + redis.call('ZADD', zset_key, unpack(args))
+end
+
+if min_score ~= nil and (#head == 0 or min_score < tonumber(head[2])) then
+    redis.call('PUBLISH', channel, min_arg)
+end
+if mode == 'each' then
+    return each
+end
+return added
@@ -0,0 +1,21 @@
+-- 把即将到期的消息认领到租约中, 由客户端在本地按score精确投递
+-- 租约zset的score为租约过期时间, 原始score保存在hash中用于归还
+
+local zset_key = KEYS[1]
+local lease_key = KEYS[2]
+local lease_score_key = KEYS[3]
+
+local max_score = ARGV[1]
+local limit = ARGV[2]
+-- 租约在消息score之后的宽限时间, 毫秒
+local grace = tonumber(ARGV[3])
+
+local items = redis.call('ZRANGEBYSCORE', zset_key, '-inf', max_score, 'WITHSCORES', 'LIMIT', 0, limit)
+for i = 1, #items, 2 do
+    local member = items[i]
+    local score = items[i + 1]
+    redis.call('ZREM', zset_key, member)
+    redis.call('ZADD', lease_key, tonumber(score) + grace, member)
+    redis.call('HSET', lease_score_key, member, score)
+end
+return items
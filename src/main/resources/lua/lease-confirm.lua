@@ -0,0 +1,36 @@
+-- 确认租约, 把消息写入job队列; 已经被归还的消息不会重复投递
+-- KEYS[3]开始依次为优先级0, 1, 2...的job队列, 只有一个时所有消息写入KEYS[3]
+-- ARGV[1]为stream时XADD到job stream, field为m, 与dequeue-trans-batch-stream.lua相同, 否则RPUSH到job队列
+-- ARGV[2]开始为同一毫秒到期的消息
+
+-- 路由规则与dequeue-trans-batch-priority.lua的lane_of相同, 通道从KEYS[3]开始
+-- 解析失败或没有priority字段的消息进入优先级0
+local function lane_of(m)
+    local ok, decoded = pcall(cjson.decode, m)
+    local priority = 0
+    if ok and type(decoded) == 'table' then
+        priority = tonumber(decoded['priority']) or 0
+    end
+    return math.max(0, math.min(math.floor(priority), #KEYS - 3)) + 3
+end
+
+local lease_key = KEYS[1]
+local lease_score_key = KEYS[2]
+local stream = ARGV[1] == 'stream'
+
+local confirmed = 0
+for i = 2, #ARGV do
+    local member = ARGV[i]
+    if redis.call('ZREM', lease_key, member) == 1 then
+        redis.call('HDEL', lease_score_key, member)
+        if stream then
+            redis.call('XADD', KEYS[3], '*', 'm', member)
+        elseif #KEYS == 3 then
+            redis.call('RPUSH', KEYS[3], member)
+        else
+            redis.call('RPUSH', KEYS[lane_of(member)], member)
+        end
+        confirmed = confirmed + 1
+    end
+end
+return confirmed
@@ -0,0 +1,19 @@
+-- 归还过期未确认的租约, 按原始score重新放回zset
+
+local zset_key = KEYS[1]
+local lease_key = KEYS[2]
+local lease_score_key = KEYS[3]
+
+local now = ARGV[1]
+local limit = ARGV[2]
+
+local expired = redis.call('ZRANGEBYSCORE', lease_key, '-inf', now, 'LIMIT', 0, limit)
+for _, member in ipairs(expired) do
+    local score = redis.call('HGET', lease_score_key, member)
+    if score then
+        redis.call('ZADD', zset_key, score, member)
+    end
+    redis.call('ZREM', lease_key, member)
+    redis.call('HDEL', lease_score_key, member)
+end
+return #expired
@@ -0,0 +1,10 @@
+-- 不支持 LPOP key count 的redis版本, 通过LRANGE+LTRIM批量出队
+
+local list_key = KEYS[1]
+local count = tonumber(ARGV[1])
+
+local items = redis.call('LRANGE', list_key, 0, count - 1)
+if #items > 0 then
+    redis.call('LTRIM', list_key, #items, -1)
+end
+return items
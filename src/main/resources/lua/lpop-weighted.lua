@@ -0,0 +1,31 @@
+-- 按权重从多个list批量出队, KEYS按优先级从高到低, ARGV[1]为数量, ARGV[2]开始为对应的权重
+-- 先按权重比例分配配额, 空闲通道剩余的配额再按优先级顺序补齐
+
+local count = tonumber(ARGV[1])
+local total = 0
+for i = 1, #KEYS do
+    total = total + tonumber(ARGV[i + 1])
+end
+
+local result = {}
+local function pop(key, n)
+    if n <= 0 then
+        return
+    end
+    local items = redis.call('LRANGE', key, 0, n - 1)
+    if #items > 0 then
+        redis.call('LTRIM', key, #items, -1)
+        for _, item in ipairs(items) do
+            table.insert(result, item)
+        end
+    end
+end
+
+for i = 1, #KEYS do
+    local quota = math.ceil(count * tonumber(ARGV[i + 1]) / total)
+    pop(KEYS[i], math.min(quota, count - #result))
+end
+for i = 1, #KEYS do
+    pop(KEYS[i], count - #result)
+end
+return result
@@ -0,0 +1,13 @@
+-- 节点心跳: 按redis服务端时间写入过期时间, 清理过期节点并返回存活节点, 不依赖各节点的本地时钟
+-- TIME之后还有写命令, redis 5以下需要开启命令复制
+redis.replicate_commands()
+
+local members_key = KEYS[1]
+local node = ARGV[1]
+local lease_millis = tonumber(ARGV[2])
+
+local t = redis.call('TIME')
+local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+redis.call('ZADD', members_key, now + lease_millis, node)
+redis.call('ZREMRANGEBYSCORE', members_key, '-inf', now)
+return redis.call('ZRANGE', members_key, 0, -1)
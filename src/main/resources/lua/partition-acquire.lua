@@ -0,0 +1,15 @@
+-- 获取或续期分区租约, 已被其他节点持有时返回0
+local lease_key = KEYS[1]
+local node = ARGV[1]
+local lease_millis = ARGV[2]
+
+local owner = redis.call('GET', lease_key)
+if owner == node then
+    redis.call('PEXPIRE', lease_key, lease_millis)
+    return 1
+end
+if not owner then
+    redis.call('SET', lease_key, node, 'PX', lease_millis)
+    return 1
+end
+return 0
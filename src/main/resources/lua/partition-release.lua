@@ -0,0 +1,5 @@
+-- 只释放自己持有的分区租约
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
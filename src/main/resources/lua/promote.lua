@@ -0,0 +1,31 @@
+-- 把即将到期的时间桶搬运到热zset
+-- 桶key由桶索引给出, 集群模式下需要与zset使用相同的hash tag
+
+local index_key = KEYS[1]
+local zset_key = KEYS[2]
+local max_bucket_score = ARGV[1]
+-- 单次调用最多搬运的消息数量, 避免长时间阻塞
+local budget = tonumber(ARGV[2])
+
+local moved = 0
+local buckets = redis.call('ZRANGEBYSCORE', index_key, '-inf', max_bucket_score)
+for _, bucket_key in ipairs(buckets) do
+    while moved < budget do
+        local n = math.min(budget - moved, 500)
+        -- 桶内为score, member交替, 可以直接作为ZADD参数
+        local items = redis.call('LRANGE', bucket_key, 0, n * 2 - 1)
+        if #items == 0 then
+            break
+        end
+        redis.call('ZADD', zset_key, unpack(items))
+        redis.call('LTRIM', bucket_key, #items, -1)
+        moved = moved + #items / 2
+    end
+    -- LTRIM清空list后key会被删除
+    if redis.call('EXISTS', bucket_key) == 0 then
+        redis.call('ZREM', index_key, bucket_key)
+    else
+        break
+    end
+end
+return moved
@@ -0,0 +1,13 @@
+-- 处理失败时立即把消息放回job队列头部, 已经被ack或被reaper归还的投递不会重复放回
+
+local inflight_key = KEYS[1]
+local list_key = KEYS[2]
+
+local requeued = 0
+for i = 1, #ARGV do
+    if redis.call('ZREM', inflight_key, ARGV[i]) == 1 then
+        redis.call('LPUSH', list_key, string.match(ARGV[i], '^%d+:(.*)$') or ARGV[i])
+        requeued = requeued + 1
+    end
+end
+return requeued
@@ -0,0 +1,27 @@
+-- 从job队列取出消息的同时放入in-flight zset, score为可见性超时的截止时间
+-- in-flight member为 "投递序号:消息json", 每次投递唯一, 重新投递后旧的ack不会误删
+-- 消费者崩溃后消息会被reaper重新投递
+-- 截止时间按redis服务端时间计算, 不依赖各节点的本地时钟; TIME之后还有写命令, redis 5以下需要开启命令复制
+redis.replicate_commands()
+
+local list_key = KEYS[1]
+local inflight_key = KEYS[2]
+local seq_key = KEYS[3]
+
+local visibility_timeout = tonumber(ARGV[1])
+local count = tonumber(ARGV[2])
+
+local t = redis.call('TIME')
+local deadline = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) + visibility_timeout
+
+local tokens = {}
+for i = 1, count do
+    local m = redis.call('LPOP', list_key)
+    if not m then
+        break
+    end
+    local token = redis.call('INCR', seq_key) .. ':' .. m
+    redis.call('ZADD', inflight_key, deadline, token)
+    tokens[#tokens + 1] = token
+end
+return tokens
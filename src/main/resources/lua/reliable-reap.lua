@@ -0,0 +1,37 @@
+-- 把超过可见性超时仍未ack的消息放回job队列头部重新投递, 去掉投递序号只放回消息json
+-- 超时按redis服务端时间判断, 与reliable-pop.lua一致; TIME之后还有写命令, redis 5以下需要开启命令复制
+redis.replicate_commands()
+
+local inflight_key = KEYS[1]
+local list_key = KEYS[2]
+
+local limit = ARGV[1]
+
+local t = redis.call('TIME')
+local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+
+-- 从最晚到期的开始取, 多批归还时较早到期的批次最后LPUSH, 位于job队列头部
+local range = redis.call('ZREVRANGEBYSCORE', inflight_key, now, '-inf', 'WITHSCORES', 'LIMIT', 0, limit)
+local expired = {}
+for i = 1, #range, 2 do
+    expired[#expired + 1] = {member = range[i], score = tonumber(range[i + 1]), seq = tonumber(string.match(range[i], '^(%d+):'))}
+end
+-- 同一次出队的截止时间相同, zset按member字符串排序, 这里按投递序号从晚到早排序
+table.sort(expired, function(a, b)
+    if a.score ~= b.score then
+        return a.score > b.score
+    end
+    return (a.seq or 0) > (b.seq or 0)
+end)
+if #expired > 0 then
+    local members = {}
+    local messages = {}
+    for i = 1, #expired do
+        members[i] = expired[i].member
+        messages[i] = string.match(expired[i].member, '^%d+:(.*)$') or expired[i].member
+    end
+    redis.call('ZREM', inflight_key, unpack(members))
+    -- LPUSH按参数顺序逐个插入头部, 最早到期的最后插入, 重新投递保持原来的顺序
+    redis.call('LPUSH', list_key, unpack(messages))
+end
+return #expired
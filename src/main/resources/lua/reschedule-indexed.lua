@@ -0,0 +1,75 @@
+-- 修改尚未出队消息的score, 同时替换消息内容中的score, 消息已出队或已取消时返回0
+-- 新score早于原队头时发布唤醒通知
+
+-- set_score在reschedule-indexed.lua与dequeue-trans-batch-indexed.lua中完全相同, 修改时需要同步
+-- 替换消息json顶层的score字段, 跳过字符串及嵌套的对象和数组, body中同名的字段不受影响, 其余内容原样保留
+-- 不使用cjson重新编码: cjson只保留14位有效数字, 空数组会被编码为对象; 没有顶层score字段时返回nil
+local function set_score(json, score)
+    local depth = 0
+    local i = 1
+    while true do
+        local s = string.find(json, '["{}%[%]]', i)
+        if s == nil then
+            return nil
+        end
+        local c = string.sub(json, s, s)
+        if c == '"' then
+            -- 查找字符串结束的引号, 跳过转义字符
+            local e = s + 1
+            while true do
+                local q = string.find(json, '["\\]', e)
+                if q == nil then
+                    return nil
+                end
+                if string.sub(json, q, q) == '\\' then
+                    e = q + 2
+                else
+                    e = q
+                    break
+                end
+            end
+            if depth == 1 and string.sub(json, s, e) == '"score"' then
+                local value_start = string.match(json, '^%s*:%s*()', e + 1)
+                if value_start then
+                    local value_end = string.find(json, '[,}%s]', value_start)
+                    if value_end == nil then
+                        return nil
+                    end
+                    return string.sub(json, 1, value_start - 1) .. score .. string.sub(json, value_end)
+                end
+            end
+            i = e + 1
+        else
+            if c == '{' or c == '[' then
+                depth = depth + 1
+            else
+                depth = depth - 1
+            end
+            i = s + 1
+        end
+    end
+end
+
+local zset_key = KEYS[1]
+local payload_key = KEYS[2]
+local channel = ARGV[1]
+local score = ARGV[2]
+local id = ARGV[3]
+
+if not redis.call('ZSCORE', zset_key, id) then
+    return 0
+end
+local payload = redis.call('HGET', payload_key, id)
+if not payload then
+    return 0
+end
+local head = redis.call('ZRANGE', zset_key, 0, 0, 'WITHSCORES')
+redis.call('ZADD', zset_key, score, id)
+local updated = set_score(payload, score)
+if updated then
+    redis.call('HSET', payload_key, id, updated)
+end
+if tonumber(score) < tonumber(head[2]) then
+    redis.call('PUBLISH', channel, score)
+end
+return 1
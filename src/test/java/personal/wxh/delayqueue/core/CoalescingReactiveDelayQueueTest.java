@@ -0,0 +1,64 @@
+package personal.wxh.delayqueue.core;
+
+import java.time.Duration;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class CoalescingReactiveDelayQueueTest extends BaseRedisTest {
+
+  private CoalescingReactiveDelayQueue<Object> testQueue;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    this.testQueue =
+        new CoalescingReactiveDelayQueue<>(
+            LettuceReactiveMessageDelayQueue.connect(
+                "testCoalescingQueue", "testCoalescingJobQueue", client),
+            16,
+            Duration.ofMillis(5));
+  }
+
+  @After
+  public void shutdown() {
+    testQueue.shutdown();
+  }
+
+  @Test
+  public void enqueueSplitsResults() {
+    val number = 100;
+    val step =
+        testQueue
+            .delete()
+            .thenMany(Flux.range(0, number).flatMap(i -> testQueue.enqueue(Message.of(i, 1L))))
+            .reduce(0L, Long::sum);
+    StepVerifier.create(step)
+        .expectNext((long) number)
+        .then(() -> testQueue.delete().block())
+        .verifyComplete();
+  }
+
+  @Test
+  public void enqueueDuplicate() {
+    val message = Message.<Object>of(1, 1L);
+    val step =
+        testQueue
+            .delete()
+            .thenMany(Flux.merge(testQueue.enqueue(message), testQueue.enqueue(message)))
+            .reduce(0L, Long::sum);
+    StepVerifier.create(step)
+        .expectNext(1L)
+        .then(() -> testQueue.delete().block())
+        .verifyComplete();
+  }
+}
@@ -0,0 +1,178 @@
+package personal.wxh.delayqueue.core;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class DelayQueueConsumerTest {
+
+  @Test
+  public void handleAllMessages() throws InterruptedException {
+    val queue = new InMemoryReactiveMessageQueue<Object>();
+    val number = 1000;
+    for (int i = 0; i < number; i++) {
+      queue.enqueue(Message.of(i, (long) i)).block();
+    }
+    val seen = ConcurrentHashMap.<Object>newKeySet();
+    val latch = new CountDownLatch(number);
+    val consumer =
+        DelayQueueConsumer.<Object>create(
+            queue,
+            m -> {
+              seen.add(m.getId());
+              latch.countDown();
+            },
+            4,
+            64);
+    consumer.start();
+    Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    Assert.assertTrue(consumer.shutdown(Duration.ofSeconds(1)));
+    Assert.assertEquals(number, seen.size());
+    Assert.assertEquals(number, consumer.getHandled());
+  }
+
+  @Test
+  public void handlerTimeout() throws InterruptedException {
+    val queue = new InMemoryReactiveMessageQueue<Object>();
+    queue.enqueue(Message.of(1, 1L)).block();
+    val failure = new AtomicReference<Throwable>();
+    val latch = new CountDownLatch(1);
+    val consumer =
+        DelayQueueConsumer.<Object>create(
+                queue,
+                m -> {
+                  try {
+                    Thread.sleep(10_000);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                },
+                1,
+                4)
+            .handlerTimeout(Duration.ofMillis(50))
+            .onFailure(
+                (m, e) -> {
+                  failure.set(e);
+                  latch.countDown();
+                });
+    consumer.start();
+    Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+    Assert.assertTrue(failure.get() instanceof TimeoutException);
+    Assert.assertTrue(consumer.shutdown(Duration.ofSeconds(1)));
+    Assert.assertEquals(1, consumer.getFailed());
+  }
+
+  @Test
+  public void pushBackOnDrainTimeout() throws InterruptedException {
+    val queue = new InMemoryReactiveMessageQueue<Object>();
+    for (int i = 0; i < 10; i++) {
+      queue.enqueue(Message.of(i, (long) i)).block();
+    }
+    val started = new CountDownLatch(1);
+    val release = new CountDownLatch(1);
+    val handled = ConcurrentHashMap.<Object>newKeySet();
+    val consumer =
+        DelayQueueConsumer.<Object>create(
+            queue,
+            m -> {
+              started.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              handled.add(m.getId());
+            },
+            1,
+            10);
+    consumer.start();
+    Assert.assertTrue(started.await(2, TimeUnit.SECONDS));
+    // 1条处理中, 9条在缓冲区, 超时后放回队列
+    Assert.assertFalse(consumer.shutdown(Duration.ofMillis(100)));
+    Assert.assertEquals(9, queue.size());
+    release.countDown();
+  }
+
+  @Test
+  public void pushBackLateFetch() throws InterruptedException {
+    val delegate = new InMemoryReactiveMessageQueue<Object>();
+    for (int i = 0; i < 10; i++) {
+      delegate.enqueue(Message.of(i, (long) i)).block();
+    }
+    // 拉取在shutdown超时之后才返回
+    val queue =
+        new ReactiveMessageQueue<Object>() {
+          @Override
+          public Mono<Long> enqueue(Message<Object> value) {
+            return delegate.enqueue(value);
+          }
+
+          @Override
+          public Mono<Long> enqueueBatch(Iterable<Message<Object>> values) {
+            return delegate.enqueueBatch(values);
+          }
+
+          @Override
+          public Mono<Message<Object>> dequeue() {
+            return delegate.dequeue();
+          }
+
+          @Override
+          public Flux<Message<Object>> dequeueBatch(int count) {
+            return Mono.delay(Duration.ofMillis(200)).thenMany(delegate.dequeueBatch(count));
+          }
+
+          @Override
+          public Mono<Long> delete() {
+            return delegate.delete();
+          }
+        };
+    val handled = ConcurrentHashMap.<Object>newKeySet();
+    val consumer = DelayQueueConsumer.<Object>create(queue, m -> handled.add(m.getId()), 1, 10);
+    consumer.start();
+    consumer.shutdown(Duration.ofMillis(50));
+    Thread.sleep(500);
+    Assert.assertTrue(handled.isEmpty());
+    Assert.assertEquals(10, delegate.size());
+  }
+
+  @Test
+  public void virtualThreads() throws InterruptedException {
+    val queue = new InMemoryReactiveMessageQueue<Object>();
+    queue.enqueue(Message.of(1, 1L)).block();
+    val latch = new CountDownLatch(1);
+    val consumer = DelayQueueConsumer.<Object>create(queue, m -> latch.countDown(), 8, 8);
+    if (!supportsVirtualThreads()) {
+      try {
+        consumer.virtualThreads();
+        Assert.fail("virtual threads should be unsupported");
+      } catch (UnsupportedOperationException expected) {
+        return;
+      }
+    }
+    consumer.virtualThreads().start();
+    Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+    Assert.assertTrue(consumer.shutdown(Duration.ofSeconds(1)));
+  }
+
+  private static boolean supportsVirtualThreads() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Test;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class InMemoryReactiveDelayQueueTest {
+
+  @Test
+  public void enqueueIdempotent() {
+    val queue = new InMemoryReactiveDelayQueue<Object>();
+    val step =
+        queue
+            .enqueue(Message.of(1, 10L))
+            .then(queue.enqueueBatch(Arrays.asList(Message.of(1, 10L), Message.of(1, 20L))));
+    StepVerifier.create(step).expectNext(1L).verifyComplete();
+  }
+
+  @Test
+  public void dequeueInScoreOrder() {
+    val queue = new InMemoryReactiveDelayQueue<Object>();
+    val step =
+        queue
+            .enqueueBatch(
+                Arrays.asList(
+                    Message.of(3, 30L), Message.of(1, 10L), Message.of(2, 20L), Message.of(4, 40L)))
+            .then(queue.dequeue(5))
+            .thenMany(queue.dequeueBatch(30))
+            .map(Message::getId);
+    StepVerifier.create(step).expectNext(1, 2, 3).verifyComplete();
+    StepVerifier.create(queue.nextScore()).expectNext(40D).verifyComplete();
+    StepVerifier.create(queue.getJobQueue().dequeueBatch(10).map(Message::getId))
+        .expectNext(1, 2, 3)
+        .verifyComplete();
+  }
+
+  @Test
+  public void dequeueBatchRange() {
+    val queue = new InMemoryReactiveDelayQueue<Object>();
+    val messages = new ArrayList<Message<Object>>();
+    for (int i = 0; i < 10; i++) {
+      messages.add(Message.of(i, (long) i));
+    }
+    val step =
+        queue.enqueueBatch(messages).thenMany(queue.dequeueBatch(2, 8, 1, 3)).map(Message::getId);
+    StepVerifier.create(step).expectNext(3, 4, 5).verifyComplete();
+  }
+
+  @Test
+  public void concurrentDequeue() throws InterruptedException {
+    val queue = new InMemoryReactiveDelayQueue<Object>();
+    val total = 100_000;
+    val messages = new ArrayList<Message<Object>>(total);
+    for (int i = 0; i < total; i++) {
+      messages.add(Message.of(i, (long) (i % 100)));
+    }
+    queue.enqueueBatch(messages).block();
+
+    val threads = 4;
+    val seen = ConcurrentHashMap.<Object>newKeySet();
+    val duplicated = ConcurrentHashMap.<Object>newKeySet();
+    val done = new CountDownLatch(threads);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    for (int t = 0; t < threads; t++) {
+      pool.execute(
+          () -> {
+            Message<Object> m;
+            while ((m = queue.dequeue(Long.MAX_VALUE).block()) != null) {
+              add(seen, duplicated, m.getId());
+            }
+            done.countDown();
+          });
+    }
+    Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+    pool.shutdown();
+    Assert.assertTrue(duplicated.isEmpty());
+    Assert.assertEquals(total, seen.size());
+    Assert.assertEquals(total, queue.getJobQueue().size());
+  }
+
+  private static void add(Set<Object> seen, Set<Object> duplicated, Object id) {
+    if (!seen.add(id)) {
+      duplicated.add(id);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package personal.wxh.delayqueue.core;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import personal.wxh.delayqueue.metrics.HdrHistogramQueueMetrics;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class InstrumentedReactiveDelayQueueTest extends BaseRedisTest {
+
+  @Test
+  public void transfer() {
+    val metrics = new HdrHistogramQueueMetrics();
+    val delegate =
+        LettuceReactiveMessageDelayQueue.connect(
+            "testInstrumentedQueue", "testInstrumentedJobQueue", client);
+    val queue = new InstrumentedReactiveDelayQueue<>(delegate, "instrumented", metrics);
+    val now = System.currentTimeMillis();
+    val step =
+        delegate
+            .clearAll()
+            .then(queue.enqueueBatch(Arrays.asList(Message.of(1, now - 100), Message.of(2, now))))
+            .thenMany(queue.dequeueBatch(now))
+            .count();
+    StepVerifier.create(step).expectNext(2L).then(delegate::blockClearAll).verifyComplete();
+
+    Assert.assertEquals(2, metrics.getEnqueued("instrumented"));
+    Assert.assertEquals(2, metrics.getDequeued("instrumented"));
+    Assert.assertEquals(
+        2, metrics.getIntervalBatchSize("instrumented", "dequeueBatch").getMaxValue());
+    Assert.assertTrue(metrics.getIntervalTransferLag("instrumented").getMaxValue() >= 100);
+    Assert.assertEquals(
+        1, metrics.getIntervalLatency("instrumented", "enqueueBatch").getTotalCount());
+  }
+
+  @Test
+  public void batchLatencyExcludesDownstream() {
+    val metrics = new HdrHistogramQueueMetrics();
+    val delegate =
+        LettuceReactiveMessageDelayQueue.connect(
+            "testInstrumentedQueue", "testInstrumentedJobQueue", client);
+    val queue = new InstrumentedReactiveDelayQueue<>(delegate, "instrumented", metrics);
+    val now = System.currentTimeMillis();
+    // 只能遍历一次的Iterable, 订阅前不会被读取
+    Iterable<Message<Object>> once = Stream.of(Message.of(1, now), Message.of(2, now))::iterator;
+    val enqueue = queue.enqueueBatch(once);
+    Assert.assertEquals(
+        0, metrics.getIntervalBatchSize("instrumented", "enqueueBatch").getTotalCount());
+    val step =
+        delegate
+            .clearAll()
+            .then(enqueue)
+            .thenMany(queue.dequeueBatch(now))
+            .delayElements(Duration.ofMillis(100))
+            .count();
+    StepVerifier.create(step).expectNext(2L).then(delegate::blockClearAll).verifyComplete();
+
+    Assert.assertEquals(
+        2, metrics.getIntervalBatchSize("instrumented", "enqueueBatch").getMaxValue());
+    Assert.assertTrue(
+        metrics.getIntervalLatency("instrumented", "dequeueBatch").getMaxValue()
+            < TimeUnit.MILLISECONDS.toNanos(100));
+  }
+}
@@ -0,0 +1,61 @@
+package personal.wxh.delayqueue.core;
+
+import lombok.val;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettuceConnectionManagerTest extends BaseRedisTest {
+
+  private LettuceConnectionManager manager;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    this.manager = LettuceConnectionManager.create(client, 2, 1);
+  }
+
+  @After
+  public void close() {
+    manager.close();
+  }
+
+  @Test
+  public void sharedQueues() {
+    val delayQueue =
+        LettuceReactiveMessageDelayQueue.connect(
+            "testManagedQueue", "testManagedJobQueue", Object.class, manager);
+    val jobQueue =
+        LettuceReactiveMessageQueue.connect("testManagedJobQueue", Object.class, manager);
+    val step =
+        delayQueue
+            .clearAll()
+            .then(delayQueue.enqueue(Message.of(1, 1L)))
+            .thenMany(delayQueue.dequeueBatch(10))
+            .then(jobQueue.dequeue())
+            .map(Message::getId);
+    StepVerifier.create(step).expectNext(1).then(delayQueue::blockClearAll).verifyComplete();
+  }
+
+  @Test
+  public void blockingBounded() {
+    val connection = manager.acquireBlocking();
+    Assert.assertEquals(1, manager.getBlockingInUse());
+    try {
+      manager.acquireBlocking();
+      Assert.fail("blocking connections should be bounded");
+    } catch (IllegalStateException expected) {
+      // ignored
+    }
+    manager.releaseBlocking(connection);
+    Assert.assertEquals(0, manager.getBlockingInUse());
+  }
+}
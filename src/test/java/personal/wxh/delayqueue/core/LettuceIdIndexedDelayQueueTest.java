@@ -0,0 +1,233 @@
+package personal.wxh.delayqueue.core;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import personal.wxh.delayqueue.util.GlobalObjectMapper;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettuceIdIndexedDelayQueueTest extends BaseRedisTest {
+
+  private LettuceIdIndexedDelayQueue<Object> testQueue;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    this.testQueue =
+        LettuceIdIndexedDelayQueue.connect(
+            "testIndexedQueue", "testIndexedJobQueue", Object.class, client);
+  }
+
+  @Test
+  public void enqueueIdempotent() {
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.of(1, 10L, "a")))
+            .then(
+                testQueue.enqueueBatch(
+                    Arrays.asList(Message.of(1, 20L, "b"), Message.of(2, 20L, "c"))));
+    StepVerifier.create(step).expectNext(1L).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void cancel() {
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.of(1, 10L, "a")))
+            .then(testQueue.cancel(1))
+            .concatWith(testQueue.cancel(1))
+            .concatWith(testQueue.dequeueBatch(100).hasElements());
+    StepVerifier.create(step).expectNext(true, false, false).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void reschedule() {
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.of(1, 10L, "a")))
+            .then(testQueue.enqueue(Message.of(2, 20L, "b")))
+            .then(testQueue.reschedule(2, 5L))
+            .thenMany(testQueue.dequeueBatch(100))
+            .map(Message::getScore);
+    StepVerifier.create(step).expectNext(5D, 10D).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void rescheduleKeepsData() {
+    // 只替换消息的score字段, 不影响body中相同的内容
+    val data = "\"score\":1,";
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.of(1, 10L, data)))
+            .then(testQueue.reschedule(1, 5L))
+            .thenMany(testQueue.dequeueBatch(100));
+    StepVerifier.create(step)
+        .assertNext(
+            m -> {
+              Assert.assertEquals(5D, m.getScore(), 0);
+              Assert.assertEquals(data, m.getBody());
+            })
+        .then(this::clear)
+        .verifyComplete();
+  }
+
+  @Test
+  public void rescheduleTopLevelScore() throws Exception {
+    val body = new HashMap<String, Object>();
+    body.put("score", 1);
+    body.put("tags", Arrays.asList("score"));
+    // body写在顶层score之前, 只替换顶层的score
+    val mapper = GlobalObjectMapper.getInstance();
+    val tree =
+        (ObjectNode)
+            mapper.readTree(testQueue.getFormatter().writeValue(Message.of(1, 10L, body)).block());
+    val reordered = mapper.createObjectNode();
+    reordered.set("body", tree.remove("body"));
+    reordered.setAll(tree);
+    val commands = testQueue.getCommands();
+    val step =
+        testQueue
+            .delete()
+            .then(
+                commands.hset(testQueue.getPayloadKey(), "1", mapper.writeValueAsString(reordered)))
+            .then(commands.zadd(testQueue.getKey(), 10D, "1"))
+            .then(testQueue.reschedule(1, 5L))
+            .thenMany(testQueue.dequeueBatch(100));
+    StepVerifier.create(step)
+        .assertNext(
+            m -> {
+              Assert.assertEquals(5D, m.getScore(), 0);
+              Assert.assertEquals(body, m.getBody());
+            })
+        .then(this::clear)
+        .verifyComplete();
+  }
+
+  @Test
+  public void rescheduleMissing() {
+    val step = testQueue.delete().then(testQueue.reschedule(1, 5L));
+    StepVerifier.create(step).expectNext(false).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void dequeueBatchBelowHighWaterMark() {
+    val throttled = testQueue.withHighWaterMark(3);
+    val messages = new ArrayList<Message<Object>>();
+    for (int i = 0; i < 5; i++) {
+      messages.add(Message.of(i, (long) i));
+    }
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.deleteJobList())
+            .then(testQueue.enqueueBatch(messages))
+            .thenMany(throttled.dequeueBatch(100))
+            .map(Message::getId)
+            .concatWith(throttled.dequeueBatch(100).map(Message::getId));
+    // job队列达到水位后不再搬运
+    StepVerifier.create(step).expectNext(0, 1, 2).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void dequeueAboveHighWaterMark() {
+    val throttled = testQueue.withHighWaterMark(1);
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.deleteJobList())
+            .then(testQueue.enqueueBatch(Arrays.asList(Message.of(0, 0L), Message.of(1, 1L))))
+            .then(throttled.dequeue(Long.MAX_VALUE))
+            .concatWith(throttled.dequeue(Long.MAX_VALUE))
+            .map(Message::getId);
+    // 单条出队不受水位限制
+    StepVerifier.create(step).expectNext(0, 1).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void recurring() {
+    // 下一次按当前时间计算, 与出队的max无关
+    val first = System.currentTimeMillis() - 50;
+    val interval = 100_000L;
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.ofRecurring(1, first, interval, "tick")))
+            .thenMany(testQueue.dequeueBatch(Long.MAX_VALUE))
+            .map(Message::getScore)
+            .concatWith(testQueue.nextScore());
+    StepVerifier.create(step)
+        .expectNext((double) first, (double) (first + interval))
+        .then(this::clear)
+        .verifyComplete();
+  }
+
+  @Test
+  public void recurringSkipsMissedPeriods() {
+    val interval = 100_000L;
+    val first = System.currentTimeMillis() - 2 * interval - 50;
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.ofRecurring(1, first, interval, "tick")))
+            .then(testQueue.dequeue(Long.MAX_VALUE))
+            .then(testQueue.nextScore());
+    StepVerifier.create(step)
+        .expectNext((double) (first + 3 * interval))
+        .then(this::clear)
+        .verifyComplete();
+  }
+
+  @Test
+  public void recurringKeepsBodyScore() {
+    val body = new HashMap<String, Object>();
+    body.put("score", 1);
+    val interval = 100_000L;
+    val first = System.currentTimeMillis() - 50;
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.ofRecurring(1, first, interval, body)))
+            .then(testQueue.dequeue(Long.MAX_VALUE))
+            .thenMany(testQueue.dequeueBatch(Long.MAX_VALUE));
+    // 只替换顶层的score, body中同名的字段不变
+    StepVerifier.create(step)
+        .assertNext(
+            m -> {
+              Assert.assertEquals(first + interval, m.getScore(), 0);
+              Assert.assertEquals(body, m.getBody());
+            })
+        .then(this::clear)
+        .verifyComplete();
+  }
+
+  @Test
+  public void cancelRecurring() {
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.ofRecurring(1, 10L, 100_000L, "tick")))
+            .thenMany(testQueue.dequeueBatch(Long.MAX_VALUE))
+            .then(testQueue.cancel(1))
+            .concatWith(testQueue.dequeueBatch(Long.MAX_VALUE).hasElements());
+    StepVerifier.create(step).expectNext(true, false).then(this::clear).verifyComplete();
+  }
+
+  private void clear() {
+    testQueue.delete().then(testQueue.deleteJobList()).block();
+  }
+}
@@ -0,0 +1,89 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettucePriorityMessageQueueTest extends BaseRedisTest {
+
+  private static final String JOB_QUEUE = "testPriorityJobQueue";
+
+  private LettuceReactiveMessageDelayQueue<Object> delayQueue;
+
+  private LettucePriorityMessageQueue<Object> jobQueue;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    this.delayQueue =
+        LettuceReactiveMessageDelayQueue.connect("testPriorityDelayQueue", JOB_QUEUE, client)
+            .withPriorityLanes(2);
+    this.jobQueue =
+        LettucePriorityMessageQueue.connect(JOB_QUEUE, Object.class, new int[] {1, 3}, client);
+    delayQueue.blockClearAll();
+  }
+
+  @After
+  public void clear() {
+    delayQueue.blockClearAll();
+  }
+
+  @Test
+  public void routeByPriority() {
+    val step =
+        delayQueue
+            .enqueue(Message.of(1, 1L, null, 0))
+            .then(delayQueue.enqueue(Message.of(2, 2L, null, 1)))
+            .then(delayQueue.enqueue(Message.of(3, 3L, null, 5)))
+            .thenMany(delayQueue.dequeueBatch(10))
+            .then(jobQueue.sizes());
+    StepVerifier.create(step).expectNext(Arrays.asList(1L, 2L)).verifyComplete();
+  }
+
+  @Test
+  public void weightedDequeue() {
+    val messages = new ArrayList<Message<Object>>();
+    for (int i = 0; i < 8; i++) {
+      messages.add(Message.of(i, (long) i, null, i % 2));
+    }
+    // 权重1:3, 取4条时低优先级1条, 高优先级3条
+    val step =
+        jobQueue
+            .enqueueBatch(messages)
+            .thenMany(jobQueue.dequeueBatch(4))
+            .map(Message::getPriority)
+            .collectList();
+    StepVerifier.create(step).expectNext(Arrays.asList(1, 1, 1, 0)).verifyComplete();
+    // 剩余消息少于配额时全部出队
+    StepVerifier.create(Flux.defer(() -> jobQueue.dequeueBatch(10)).map(Message::getId))
+        .expectNext(7, 2, 4, 6)
+        .verifyComplete();
+  }
+
+  @Test
+  public void weightedSingleDequeue() {
+    val messages = new ArrayList<Message<Object>>();
+    for (int i = 0; i < 8; i++) {
+      messages.add(Message.of(i, (long) i, null, i % 2));
+    }
+    // 权重1:3, 单条出队按比例轮流取各通道
+    val step =
+        jobQueue
+            .enqueueBatch(messages)
+            .thenMany(Flux.range(0, 8).concatMap(i -> jobQueue.dequeue()))
+            .map(Message::getPriority)
+            .collectList();
+    StepVerifier.create(step).expectNext(Arrays.asList(1, 1, 0, 1, 1, 0, 0, 0)).verifyComplete();
+  }
+}
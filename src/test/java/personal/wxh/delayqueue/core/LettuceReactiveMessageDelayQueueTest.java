@@ -1,6 +1,8 @@
 package personal.wxh.delayqueue.core;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.junit.Assert;
@@ -83,10 +85,96 @@ public class LettuceReactiveMessageDelayQueueTest extends BaseRedisTest {
         .verifyComplete();
   }
 
+  @Test
+  public void dequeueBatchBelowHighWaterMark() {
+    val throttled = testQueue.withHighWaterMark(5);
+    val jobQueue = LettuceReactiveMessageQueue.connect("testJobQueue", client);
+    val step =
+        testQueue
+            .clearAll()
+            .then(jobQueue.enqueue(Message.of(-1, 0L)))
+            .thenMany(Flux.range(0, 10).map(i -> Message.<Object>of(i, (long) i)))
+            .collectList()
+            .flatMap(testQueue::enqueueBatch)
+            .thenMany(throttled.dequeueBatch(100))
+            .count();
+    // job队列已有1条, 只搬运4条
+    StepVerifier.create(step).expectNext(4L).verifyComplete();
+    StepVerifier.create(throttled.dequeueBatch(100)).verifyComplete();
+    StepVerifier.create(jobQueue.dequeueBatch(5).then(throttled.dequeueBatch(100).count()))
+        .expectNext(5L)
+        .then(testQueue::blockClearAll)
+        .verifyComplete();
+  }
+
   @Test
   public void dequeueOnEmpty() {
     val number = 10;
     val step = testQueue.delete().thenMany(testQueue.dequeueBatch(0, number));
     StepVerifier.create(step).expectNextCount(0).then(testQueue::blockClearAll).verifyComplete();
   }
+
+  @Test
+  public void nextScore() {
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.of(1, 20L)))
+            .then(testQueue.enqueue(Message.of(2, 10L)))
+            .then(testQueue.nextScore());
+    StepVerifier.create(step).expectNext(10D).then(testQueue::blockClearAll).verifyComplete();
+  }
+
+  @Test
+  public void nextScoreOnEmpty() {
+    val step = testQueue.delete().then(testQueue.nextScore());
+    StepVerifier.create(step).then(testQueue::blockClearAll).verifyComplete();
+  }
+
+  @Test
+  public void stats() {
+    val now = System.currentTimeMillis();
+    val step =
+        testQueue
+            .delete()
+            .then(
+                testQueue.enqueueBatch(
+                    Arrays.asList(
+                        Message.of(1, now - 1000),
+                        Message.of(2, now + 30_000),
+                        Message.of(3, now + 90_000),
+                        Message.of(4, now + 3_600_000))))
+            .then(testQueue.stats(60_000, 2));
+    StepVerifier.create(step)
+        .assertNext(
+            stats -> {
+              Assert.assertEquals(4, stats.getSize());
+              Assert.assertEquals(1, stats.getDue());
+              Assert.assertEquals(now - 1000, stats.getNextScore(), 0);
+              Assert.assertEquals(Arrays.asList(1L, 1L), stats.getSchedule());
+              Assert.assertEquals(1, stats.getBeyondSchedule());
+            })
+        .then(testQueue::blockClearAll)
+        .verifyComplete();
+  }
+
+  @Test
+  public void wakeupOnEarlierHead() {
+    val pubSub = client.connectPubSub();
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.of(1, 20L)))
+            .thenMany(
+                testQueue
+                    .subscribeWakeup(pubSub)
+                    .mergeWith(
+                        Mono.delay(Duration.ofMillis(100))
+                            .then(testQueue.enqueue(Message.of(2, 30L)))
+                            .then(testQueue.enqueue(Message.of(3, 10L)))
+                            .then(Mono.empty())))
+            .take(1)
+            .doFinally(s -> pubSub.close());
+    StepVerifier.create(step).expectNext(10D).then(testQueue::blockClearAll).verifyComplete();
+  }
 }
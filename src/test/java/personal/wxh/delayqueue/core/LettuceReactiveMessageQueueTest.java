@@ -1,6 +1,8 @@
 package personal.wxh.delayqueue.core;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import lombok.extern.slf4j.Slf4j;
@@ -9,6 +11,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import personal.wxh.delayqueue.BaseRedisTest;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 /**
@@ -61,4 +64,119 @@ public class LettuceReactiveMessageQueueTest extends BaseRedisTest {
         .consumeRecordedWith(messages -> Assert.assertEquals(messages.size(), number))
         .verifyComplete();
   }
+
+  @Test
+  public void consume() {
+    val number = 10;
+    val step =
+        testQueue
+            .delete()
+            .thenMany(
+                testQueue
+                    .consume()
+                    .mergeWith(
+                        Mono.delay(Duration.ofMillis(100))
+                            .thenMany(
+                                Flux.range(0, number)
+                                    .map(Message::ofNow)
+                                    .concatMap(testQueue::enqueue))
+                            .then(Mono.empty())))
+            .take(number);
+    StepVerifier.create(step).expectNextCount(number).then(testQueue::syncDelete).verifyComplete();
+  }
+
+  @Test
+  public void consumeRespectsDemand() {
+    val number = 10;
+    val step =
+        testQueue
+            .delete()
+            .thenMany(Flux.range(0, number).map(Message::ofNow).flatMap(testQueue::enqueue))
+            .thenMany(testQueue.consume());
+    StepVerifier.create(step, 3)
+        .expectNextCount(3)
+        .expectNoEvent(Duration.ofMillis(200))
+        .thenCancel()
+        .verify();
+    StepVerifier.create(Mono.delay(Duration.ofMillis(100)).then(testQueue.delete()))
+        .expectNext(1L)
+        .verifyComplete();
+  }
+
+  @Test
+  public void consumeCancelPushesBack() {
+    val number = 10;
+    val lst = IntStream.range(0, number).mapToObj(Message::ofNow).collect(Collectors.toList());
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueueBatch(lst))
+            .thenMany(testQueue.consume().take(3))
+            .count()
+            // 放回是异步的
+            .concatWith(
+                Mono.delay(Duration.ofMillis(100)).then(testQueue.dequeueBatch(number).count()));
+    StepVerifier.create(step)
+        .expectNext(3L, (long) number - 3)
+        .then(testQueue::syncDelete)
+        .verifyComplete();
+  }
+
+  @Test
+  public void consumeDeadLettersInvalidMessage() {
+    val commands = client.connect().reactive();
+    val step =
+        testQueue
+            .delete()
+            .then(commands.rpush("testJobQueue", "{invalid"))
+            .then(testQueue.enqueue(Message.ofNow(1)))
+            .thenMany(testQueue.consume());
+    StepVerifier.create(step).expectError().verify();
+    StepVerifier.create(
+            Mono.delay(Duration.ofMillis(100))
+                .then(commands.lrange(testQueue.getDeadLetterKey(), 0, -1).collectList())
+                .zipWith(testQueue.dequeue().map(Message::getId)))
+        .assertNext(
+            t -> {
+              Assert.assertEquals(Collections.singletonList("{invalid"), t.getT1());
+              Assert.assertEquals(1, t.getT2());
+            })
+        .then(testQueue::syncDelete)
+        .verifyComplete();
+  }
+
+  @Test
+  public void dequeueBatch() {
+    val number = 10;
+    val lst = IntStream.range(0, number).mapToObj(Message::ofNow).collect(Collectors.toList());
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueueBatch(lst))
+            .thenMany(testQueue.dequeueBatch(number - 1))
+            .map(Message::getId)
+            .concatWith(testQueue.dequeueBatch(number).map(Message::getId));
+    StepVerifier.create(step)
+        .expectNext(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)
+        .then(testQueue::syncDelete)
+        .verifyComplete();
+  }
+
+  @Test
+  public void dequeueBatchReportsInvalidMessage() {
+    val commands = client.connect().reactive();
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.ofNow(1)))
+            .then(commands.rpush("testJobQueue", "{invalid"))
+            .then(testQueue.enqueue(Message.ofNow(2)))
+            .thenMany(testQueue.dequeueBatch(3))
+            .map(Message::getId);
+    StepVerifier.create(step)
+        .expectNext(1, 2)
+        .expectErrorMatches(
+            e -> e instanceof IllegalArgumentException && e.getMessage().contains("{invalid"))
+        .verify();
+  }
 }
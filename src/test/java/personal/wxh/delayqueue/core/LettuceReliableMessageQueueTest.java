@@ -0,0 +1,156 @@
+package personal.wxh.delayqueue.core;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import personal.wxh.delayqueue.metrics.HdrHistogramQueueMetrics;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettuceReliableMessageQueueTest extends BaseRedisTest {
+
+  private LettuceReactiveMessageQueue<Object> jobQueue;
+
+  private LettuceReliableMessageQueue<Object> testQueue;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    this.jobQueue = LettuceReactiveMessageQueue.connect("testReliableQueue", client);
+    this.testQueue =
+        LettuceReliableMessageQueue.connect("testReliableQueue", Object.class, 100, client);
+  }
+
+  @Test
+  public void ackRemovesInflight() {
+    val step =
+        testQueue
+            .delete()
+            .then(jobQueue.enqueue(Message.of(1, 1L)))
+            .then(testQueue.dequeue())
+            .flatMap(testQueue::ack)
+            .then(Mono.delay(Duration.ofMillis(150)))
+            .then(testQueue.reap());
+    StepVerifier.create(step).expectNext(0L).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void redeliverAfterTimeout() {
+    val step =
+        testQueue
+            .delete()
+            .then(jobQueue.enqueue(Message.of(1, 1L)))
+            .then(testQueue.dequeue())
+            .then(testQueue.dequeue())
+            .map(d -> -1L)
+            .switchIfEmpty(Mono.delay(Duration.ofMillis(150)).then(testQueue.reap()))
+            .then(testQueue.dequeue())
+            .map(d -> d.getMessage().getId());
+    StepVerifier.create(step).expectNext(1).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void nackRequeues() {
+    val step =
+        testQueue
+            .delete()
+            .then(jobQueue.enqueue(Message.of(1, 1L)))
+            .then(testQueue.dequeue())
+            .flatMap(testQueue::nack)
+            .then(testQueue.dequeue())
+            .map(d -> d.getMessage().getId());
+    StepVerifier.create(step).expectNext(1).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void lateAckKeepsRedelivery() {
+    val step =
+        testQueue
+            .delete()
+            .then(jobQueue.enqueue(Message.of(1, 1L)))
+            .then(testQueue.dequeue())
+            .delayUntil(d -> Mono.delay(Duration.ofMillis(150)).then(testQueue.reap()))
+            .delayUntil(d -> testQueue.dequeue())
+            // 第一次投递的ack迟到, 不能删除重新投递的消息
+            .flatMap(testQueue::ack)
+            .then(Mono.delay(Duration.ofMillis(150)))
+            .then(testQueue.reap());
+    StepVerifier.create(step).expectNext(1L).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void identicalMessagesTrackedSeparately() {
+    val step =
+        testQueue
+            .delete()
+            .then(jobQueue.enqueue(Message.of(1, 1L)))
+            .then(jobQueue.enqueue(Message.of(1, 1L)))
+            .thenMany(testQueue.dequeueBatch(2))
+            .next()
+            .flatMap(testQueue::ack)
+            .then(Mono.delay(Duration.ofMillis(150)))
+            .then(testQueue.reap());
+    StepVerifier.create(step).expectNext(1L).then(this::clear).verifyComplete();
+  }
+
+  @Test
+  public void redeliverInOrder() {
+    val messages = new ArrayList<Message<Object>>();
+    for (int i = 1; i <= 12; i++) {
+      messages.add(Message.of(i, (long) i));
+    }
+    val step =
+        testQueue
+            .delete()
+            .then(jobQueue.enqueueBatch(messages))
+            .thenMany(testQueue.dequeueBatch(12))
+            .then(Mono.delay(Duration.ofMillis(150)))
+            .then(testQueue.reap())
+            .thenMany(testQueue.dequeueBatch(12))
+            .map(d -> d.getMessage().getId())
+            .collectList();
+    StepVerifier.create(step)
+        .expectNext(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12))
+        .then(this::clear)
+        .verifyComplete();
+  }
+
+  @Test
+  public void dequeueBatchDeadLettersInvalidMessage() {
+    val metrics = new HdrHistogramQueueMetrics();
+    testQueue.metrics(metrics);
+    val commands = client.connect().reactive();
+    val step =
+        testQueue
+            .delete()
+            .then(jobQueue.enqueue(Message.of(1, 1L)))
+            .then(commands.rpush("testReliableQueue", "{invalid"))
+            .then(jobQueue.enqueue(Message.of(2, 2L)))
+            .thenMany(testQueue.dequeueBatch(10))
+            .concatMap(d -> testQueue.ack(d).thenReturn(d.getMessage().getId()));
+    StepVerifier.create(step).expectNext(1, 2).verifyComplete();
+    // 死信已从in-flight删除, 不会被重新投递
+    StepVerifier.create(Mono.delay(Duration.ofMillis(150)).then(testQueue.reap()))
+        .expectNext(0L)
+        .verifyComplete();
+    Assert.assertEquals(1, metrics.getDecodeFailures("testReliableQueue"));
+    StepVerifier.create(commands.lrange(testQueue.getDeadLetterKey(), 0, -1))
+        .assertNext(token -> Assert.assertTrue(token.endsWith(":{invalid")))
+        .verifyComplete();
+    clear();
+  }
+
+  private void clear() {
+    testQueue.delete().block();
+  }
+}
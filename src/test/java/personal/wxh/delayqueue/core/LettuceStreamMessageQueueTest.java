@@ -0,0 +1,87 @@
+package personal.wxh.delayqueue.core;
+
+import java.time.Duration;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class LettuceStreamMessageQueueTest extends BaseRedisTest {
+
+  private static final String STREAM = "testStreamJobQueue";
+
+  private LettuceReactiveMessageDelayQueue<Object> delayQueue;
+
+  private LettuceStreamMessageQueue<Object> consumer1;
+
+  private LettuceStreamMessageQueue<Object> consumer2;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    this.delayQueue =
+        LettuceReactiveMessageDelayQueue.connect("testStreamDelayQueue", STREAM, client)
+            .withStreamJobQueue();
+    delayQueue.blockClearAll();
+    this.consumer1 = LettuceStreamMessageQueue.connect(STREAM, "g", "c1", Object.class, client);
+    this.consumer2 = LettuceStreamMessageQueue.connect(STREAM, "g", "c2", Object.class, client);
+  }
+
+  @After
+  public void clear() {
+    consumer1.syncDelete();
+    delayQueue.blockClearAll();
+  }
+
+  @Test
+  public void transferToStream() {
+    val step =
+        delayQueue
+            .enqueue(Message.of(1, 1L))
+            .then(delayQueue.enqueue(Message.of(2, 2L)))
+            .thenMany(delayQueue.dequeueBatch(10))
+            .thenMany(consumer1.dequeueBatch(10))
+            .map(Message::getId);
+    StepVerifier.create(step).expectNext(1, 2).verifyComplete();
+  }
+
+  @Test
+  public void claimStalled() {
+    val claimed =
+        consumer1
+            .enqueue(Message.of(1, 1L))
+            .thenMany(consumer1.receive(1))
+            .then(Mono.delay(Duration.ofMillis(100)))
+            .thenMany(consumer2.claimStalled(Duration.ofMillis(50), 10))
+            .flatMap(d -> consumer2.ack(d).thenReturn(d.getMessage().getId()));
+    StepVerifier.create(claimed).expectNext(1).verifyComplete();
+    StepVerifier.create(consumer2.claimStalled(Duration.ZERO, 10)).verifyComplete();
+  }
+
+  @Test
+  public void deadLetterInvalidEntry() {
+    val commands = client.connect().reactive();
+    val step =
+        consumer1
+            .enqueue(Message.of(1, 1L))
+            .then(commands.xadd(STREAM, LettuceStreamMessageQueue.FIELD, "{invalid"))
+            .then(commands.xadd(STREAM, "other", "x"))
+            .then(consumer1.enqueue(Message.of(2, 2L)))
+            .thenMany(consumer1.receive(10))
+            .concatMap(d -> consumer1.ack(d).thenReturn(d.getMessage().getId()));
+    StepVerifier.create(step).expectNext(1, 2).verifyComplete();
+    // 无法解析及没有消息字段的entry都已经ack
+    StepVerifier.create(consumer2.claimStalled(Duration.ZERO, 10)).verifyComplete();
+    StepVerifier.create(commands.xlen(consumer1.getDeadLetterKey()))
+        .expectNext(1L)
+        .verifyComplete();
+  }
+}
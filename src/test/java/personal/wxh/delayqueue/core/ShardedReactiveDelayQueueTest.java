@@ -0,0 +1,142 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import reactor.test.StepVerifier;
+import reactor.util.function.Tuples;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class ShardedReactiveDelayQueueTest extends BaseRedisTest {
+
+  private ShardedReactiveDelayQueue<Object> testQueue;
+
+  private LettuceReactiveMessageQueue<Object> jobQueue;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    this.testQueue =
+        ShardedReactiveDelayQueue.connect("testShardedQueue", "testJobQueue", 4, client);
+    this.jobQueue = LettuceReactiveMessageQueue.connect("testJobQueue", client);
+  }
+
+  @Test
+  public void dequeueBatchInScoreOrder() {
+    val number = 20;
+    val messages =
+        IntStream.range(0, number)
+            .mapToObj(i -> Message.of(i, (long) (number - i)))
+            .collect(Collectors.toList());
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueueBatch(messages))
+            .thenMany(testQueue.dequeueBatch(number));
+    StepVerifier.create(step)
+        .recordWith(ArrayList::new)
+        .expectNextCount(number)
+        .consumeRecordedWith(
+            ret -> {
+              double last = Double.NEGATIVE_INFINITY;
+              for (val message : ret) {
+                Assert.assertTrue(message.getScore() >= last);
+                last = message.getScore();
+              }
+            })
+        .then(this::clear)
+        .verifyComplete();
+  }
+
+  @Test
+  public void dequeueBatchGlobalLimit() {
+    val number = 20;
+    val limit = 7;
+    val messages =
+        IntStream.range(0, number)
+            .mapToObj(i -> Message.of(i, (long) (number - i)))
+            .collect(Collectors.toList());
+    val step =
+        testQueue
+            .delete()
+            .then(jobQueue.delete())
+            .then(testQueue.enqueueBatch(messages))
+            .thenMany(testQueue.dequeueBatch(number, limit))
+            .map(Message::getId)
+            .collect(Collectors.toSet())
+            .flatMap(
+                moved ->
+                    jobQueue
+                        .dequeueBatch(number)
+                        .map(Message::getId)
+                        .collect(Collectors.toSet())
+                        .map(jobs -> Tuples.of(moved, jobs)));
+    StepVerifier.create(step)
+        .assertNext(
+            t -> {
+              // 总数等于limit, 搬运的消息与返回的一致
+              Assert.assertEquals(limit, t.getT1().size());
+              Assert.assertEquals(t.getT1(), t.getT2());
+            })
+        .then(this::clear)
+        .verifyComplete();
+  }
+
+  @Test
+  public void dequeueBatchAboveMin() {
+    val number = 20;
+    val messages =
+        IntStream.range(0, number)
+            .mapToObj(i -> Message.of(i, (long) i))
+            .collect(Collectors.toList());
+    // 各分片队头都早于min, 仍然搬运范围内的消息
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueueBatch(messages))
+            .thenMany(testQueue.dequeueBatch(10, number, 0, 5))
+            .map(Message::getScore)
+            .collectList();
+    StepVerifier.create(step)
+        .assertNext(
+            scores -> {
+              Assert.assertEquals(5, scores.size());
+              scores.forEach(score -> Assert.assertTrue(score >= 10));
+            })
+        .then(this::clear)
+        .verifyComplete();
+  }
+
+  @Test
+  public void shardOfStringForm() {
+    for (int i = 0; i < 20; i++) {
+      Assert.assertSame(testQueue.shardOf(i), testQueue.shardOf(String.valueOf(i)));
+    }
+  }
+
+  @Test
+  public void nextScore() {
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.of(1, 20L)))
+            .then(testQueue.enqueue(Message.of(2, 10L)))
+            .then(testQueue.nextScore());
+    StepVerifier.create(step).expectNext(10D).then(this::clear).verifyComplete();
+  }
+
+  private void clear() {
+    testQueue.delete().then(jobQueue.delete()).block();
+  }
+}
@@ -0,0 +1,98 @@
+package personal.wxh.delayqueue.core;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class TieredReactiveDelayQueueTest extends BaseRedisTest {
+
+  private TieredReactiveDelayQueue<Object> testQueue;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    this.testQueue =
+        TieredReactiveDelayQueue.connect(
+            "testTieredQueue",
+            "testJobQueue",
+            Object.class,
+            TimeUnit.MINUTES.toMillis(1),
+            TimeUnit.MINUTES.toMillis(1),
+            client);
+  }
+
+  @Test
+  public void farMessageGoesCold() {
+    val score = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+    val bucket = score - score % TimeUnit.MINUTES.toMillis(1);
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.of(1, score)))
+            .then(testQueue.promote())
+            .then(testQueue.getHotQueue().nextScore().defaultIfEmpty(-1D))
+            .concatWith(testQueue.nextScore());
+    StepVerifier.create(step)
+        .expectNext(-1D)
+        .expectNext((double) bucket)
+        .then(() -> testQueue.delete().block())
+        .verifyComplete();
+  }
+
+  @Test
+  public void nearMessageGoesHot() {
+    val score = System.currentTimeMillis() + 10;
+    val step =
+        testQueue
+            .delete()
+            .then(testQueue.enqueue(Message.of(1, score)))
+            .then(testQueue.getHotQueue().nextScore());
+    StepVerifier.create(step)
+        .expectNext((double) score)
+        .then(() -> testQueue.delete().block())
+        .verifyComplete();
+  }
+
+  @Test
+  public void stats() {
+    val now = System.currentTimeMillis();
+    val hour = TimeUnit.HOURS.toMillis(1);
+    val minute = TimeUnit.MINUTES.toMillis(1);
+    val cold = now + 2 * hour - (now + 2 * hour) % minute + 1000;
+    val step =
+        testQueue
+            .delete()
+            .then(
+                testQueue.enqueueBatch(
+                    Arrays.asList(
+                        Message.of(1, now - 1000),
+                        Message.of(2, now + 30_000),
+                        Message.of(3, cold),
+                        Message.of(4, cold + 1),
+                        Message.of(5, cold + hour))))
+            .then(testQueue.stats(now, hour, 3));
+    StepVerifier.create(step)
+        .assertNext(
+            stats -> {
+              Assert.assertEquals(now, stats.getAt());
+              Assert.assertEquals(5, stats.getSize());
+              Assert.assertEquals(1, stats.getDue());
+              Assert.assertEquals(now - 1000, stats.getNextScore(), 0);
+              Assert.assertEquals(Arrays.asList(1L, 2L, 1L), stats.getSchedule());
+            })
+        .then(() -> testQueue.delete().block())
+        .verifyComplete();
+  }
+}
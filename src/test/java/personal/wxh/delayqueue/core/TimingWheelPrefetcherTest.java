@@ -0,0 +1,94 @@
+package personal.wxh.delayqueue.core;
+
+import java.time.Duration;
+import java.util.Arrays;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class TimingWheelPrefetcherTest extends BaseRedisTest {
+
+  private LettuceReactiveMessageDelayQueue<Object> testQueue;
+
+  private LettuceReactiveMessageQueue<Object> jobQueue;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    this.testQueue = LettuceReactiveMessageDelayQueue.connect("testQueue", "testJobQueue", client);
+    this.jobQueue = LettuceReactiveMessageQueue.connect("testJobQueue", client);
+  }
+
+  @Test
+  public void deliverAtScore() {
+    val prefetcher = TimingWheelPrefetcher.create(testQueue, 1000, 1000);
+    val score = System.currentTimeMillis() + 200;
+    val step =
+        testQueue
+            .clearAll()
+            .then(testQueue.enqueue(Message.of(1, score)))
+            .doOnNext(__ -> prefetcher.start())
+            .then(Mono.delay(Duration.ofMillis(500)))
+            .then(jobQueue.dequeue())
+            .doFinally(s -> prefetcher.shutdown());
+    StepVerifier.create(step)
+        .expectNextMatches(message -> message.getScore() == score)
+        .then(testQueue::blockClearAll)
+        .verifyComplete();
+  }
+
+  @Test
+  public void deliverToStream() {
+    val streamQueue =
+        LettuceReactiveMessageDelayQueue.connect("testQueue", "testPrefetchStream", client)
+            .withStreamJobQueue();
+    // 创建消费组之前清理上次残留的stream
+    client.connect().sync().del("testPrefetchStream");
+    val consumer =
+        LettuceStreamMessageQueue.connect("testPrefetchStream", "g", "c1", Object.class, client);
+    val prefetcher = TimingWheelPrefetcher.create(streamQueue, 1000, 1000);
+    val score = System.currentTimeMillis() + 200;
+    val step =
+        streamQueue
+            .delete()
+            .then(streamQueue.enqueue(Message.of(1, score)))
+            .doOnNext(__ -> prefetcher.start())
+            .then(Mono.delay(Duration.ofMillis(500)))
+            .thenMany(consumer.dequeueBatch(10))
+            .map(Message::getId)
+            .doFinally(s -> prefetcher.shutdown());
+    StepVerifier.create(step).expectNext(1).verifyComplete();
+    consumer.syncDelete();
+  }
+
+  @Test
+  public void deliverToPriorityLane() {
+    val laneQueue = testQueue.withPriorityLanes(2);
+    val lanes =
+        LettucePriorityMessageQueue.connect("testJobQueue", Object.class, new int[] {1, 1}, client);
+    val prefetcher = TimingWheelPrefetcher.create(laneQueue, 1000, 1000);
+    val score = System.currentTimeMillis() + 200;
+    val step =
+        laneQueue
+            .clearAll()
+            .then(laneQueue.enqueue(Message.of(1, score, null, 1)))
+            .doOnNext(__ -> prefetcher.start())
+            .then(Mono.delay(Duration.ofMillis(500)))
+            .then(lanes.sizes())
+            .doFinally(s -> prefetcher.shutdown());
+    StepVerifier.create(step)
+        .expectNext(Arrays.asList(0L, 1L))
+        .then(laneQueue::blockClearAll)
+        .verifyComplete();
+  }
+}
@@ -0,0 +1,72 @@
+package personal.wxh.delayqueue.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class WatcherCoordinatorTest extends BaseRedisTest {
+
+  private static final String GROUP = "testWatcherGroup";
+
+  private WatcherCoordinator<Object> node1;
+
+  private WatcherCoordinator<Object> node2;
+
+  @Before
+  @Override
+  public void init() {
+    super.init();
+    val partitions = new ArrayList<InMemoryReactiveDelayQueue<Object>>();
+    for (int i = 0; i < 4; i++) {
+      partitions.add(new InMemoryReactiveDelayQueue<>());
+    }
+    val commands = client.connect().reactive();
+    commands.del(GROUP + ":members", GROUP + ":lease:0", GROUP + ":lease:1").block();
+    commands.del(GROUP + ":lease:2", GROUP + ":lease:3").block();
+    this.node1 = WatcherCoordinator.create(GROUP, "n1", partitions, 3000, this::watcher, commands);
+    this.node2 = WatcherCoordinator.create(GROUP, "n2", partitions, 3000, this::watcher, commands);
+  }
+
+  @After
+  public void clear() {
+    node1.shutdown();
+    node2.shutdown();
+  }
+
+  @Test
+  public void splitAndTakeOver() {
+    node1.rebalance().block();
+    assertEquals(4, node1.getOwned().size());
+
+    // n2加入后n1释放一半, n2在下一轮获取
+    node2.rebalance().block();
+    node1.rebalance().block();
+    node2.rebalance().block();
+    assertEquals(2, node1.getOwned().size());
+    assertEquals(2, node2.getOwned().size());
+    val all = new HashSet<Integer>(node1.getOwned());
+    all.addAll(node2.getOwned());
+    assertEquals(4, all.size());
+
+    node1.shutdown();
+    node2.rebalance().block();
+    assertEquals(4, node2.getOwned().size());
+    assertTrue(node1.getOwned().isEmpty());
+  }
+
+  private SimpleTimeBasedJobWatcher<Object> watcher(ReactiveDelayQueue<Object> queue) {
+    return new SimpleTimeBasedJobWatcher<>(100, TimeUnit.MILLISECONDS, queue);
+  }
+}
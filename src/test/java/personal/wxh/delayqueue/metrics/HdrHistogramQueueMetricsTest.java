@@ -0,0 +1,43 @@
+package personal.wxh.delayqueue.metrics;
+
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class HdrHistogramQueueMetricsTest {
+
+  @Test
+  public void record() {
+    val metrics = new HdrHistogramQueueMetrics();
+    metrics.enqueued("q", 3);
+    metrics.enqueued("q", 2);
+    metrics.redisCall("q", "dequeueBatch", 1_000_000L, true);
+    metrics.redisCall("q", "dequeueBatch", 3_000_000L, false);
+    metrics.transferLag("q", 15);
+    metrics.transferLag("q", -5);
+    Assert.assertEquals(5, metrics.getEnqueued("q"));
+    Assert.assertEquals(0, metrics.getDequeued("q"));
+    Assert.assertEquals(1, metrics.getErrors("q", "dequeueBatch"));
+
+    val latency = metrics.getIntervalLatency("q", "dequeueBatch");
+    Assert.assertEquals(2, latency.getTotalCount());
+    Assert.assertTrue(latency.getMaxValue() >= 3_000_000L);
+    // 读取后开始新的区间
+    Assert.assertEquals(0, metrics.getIntervalLatency("q", "dequeueBatch").getTotalCount());
+
+    val lag = metrics.getIntervalTransferLag("q");
+    Assert.assertEquals(2, lag.getTotalCount());
+    Assert.assertEquals(0, lag.getMinValue());
+  }
+
+  @Test
+  public void unknownQueue() {
+    val metrics = new HdrHistogramQueueMetrics();
+    Assert.assertEquals(0, metrics.getDecodeFailures("none"));
+    Assert.assertEquals(0, metrics.getIntervalBatchSize("none", "enqueueBatch").getTotalCount());
+  }
+}
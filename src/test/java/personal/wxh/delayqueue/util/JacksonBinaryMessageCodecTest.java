@@ -0,0 +1,89 @@
+package personal.wxh.delayqueue.util;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Test;
+import personal.wxh.delayqueue.core.Message;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+@Slf4j
+public class JacksonBinaryMessageCodecTest {
+
+  private final JacksonBinaryMessageCodec<Object> codec =
+      new JacksonBinaryMessageCodec<>(Object.class);
+
+  @Test
+  public void roundTrip() {
+    val message = Message.<Object>of("order-1", 1000L, Collections.singletonMap("k", "v"));
+    val decoded = codec.decode(codec.encode(message));
+    Assert.assertEquals(message, decoded);
+  }
+
+  @Test
+  public void roundTripWithoutBody() {
+    for (val id : new java.io.Serializable[] {1, -1L, Long.MAX_VALUE, ""}) {
+      val message = Message.of(id, 1000L);
+      Assert.assertEquals(message, codec.decode(codec.encode(message)));
+    }
+  }
+
+  @Test
+  public void roundTripWithPriorityAndInterval() {
+    val message = Message.<Object>of(1, 1000L, "body", 3);
+    Assert.assertEquals(message, codec.decode(codec.encode(message)));
+    val compressing = new JacksonBinaryMessageCodec<>(Object.class, new Lz4BodyCompressor(16));
+    val large = Message.<Object>of(2, 1000L, String.join("", Collections.nCopies(20, "x")), 2);
+    Assert.assertEquals(large, compressing.decode(compressing.encode(large)));
+    val recurring = Message.<Object>ofRecurring(3, 1000L, 60_000L, null);
+    Assert.assertEquals(recurring, codec.decode(codec.encode(recurring)));
+  }
+
+  @Test
+  public void compressAboveThreshold() {
+    val compressor = new Lz4BodyCompressor(256);
+    val compressing = new JacksonBinaryMessageCodec<>(Object.class, compressor);
+    val small = Message.<Object>of(1, 1000L, "small");
+    val large = Message.<Object>of(2, 1000L, String.join("", Collections.nCopies(200, "payload")));
+    Assert.assertEquals(small, compressing.decode(compressing.encode(small)));
+    val encoded = compressing.encode(large);
+    Assert.assertEquals(large, compressing.decode(encoded));
+    Assert.assertTrue(encoded.remaining() < codec.encode(large).remaining());
+    Assert.assertEquals(1, compressor.getCompressedCount());
+    Assert.assertTrue(compressor.getRatio() < 1D);
+    // 未配置压缩的codec也能读取压缩数据
+    Assert.assertEquals(large, codec.decode(encoded));
+  }
+
+  @Test
+  public void fractionalScore() {
+    val message = Message.of(1, 0L);
+    message.setScore(1000.5D);
+    Assert.assertEquals(1000.5D, codec.decode(codec.encode(message)).getScore(), 0D);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectUnsupportedId() {
+    codec.encode(Message.of(java.util.UUID.randomUUID(), 1000L));
+  }
+
+  @Test
+  public void rejectInvalidLength() {
+    val encoded = codec.encode(Message.of("order-1", 1000L));
+    // 把id长度改为超出剩余数据
+    val corrupted = ByteBuffer.allocate(encoded.remaining()).put(encoded);
+    corrupted.put(3, (byte) 0x7E);
+    corrupted.flip();
+    try {
+      codec.decode(corrupted);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      log.info("rejected -> {}", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package personal.wxh.delayqueue.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class ReactiveBatcherTest {
+
+  @Test
+  public void resultsMatchItems() {
+    val batches = new CopyOnWriteArrayList<List<Integer>>();
+    val batcher =
+        new ReactiveBatcher<Integer, Integer>(
+            4,
+            Duration.ofMillis(20),
+            items -> {
+              batches.add(items);
+              return Mono.just(items.stream().map(i -> i * 10).collect(Collectors.toList()));
+            });
+    val step = Flux.range(0, 10).flatMap(batcher::add).collectSortedList();
+    StepVerifier.create(step)
+        .consumeNextWith(
+            results -> {
+              val expected = new ArrayList<Integer>();
+              for (int i = 0; i < 10; i++) {
+                expected.add(i * 10);
+              }
+              Assert.assertEquals(expected, results);
+            })
+        .verifyComplete();
+    Assert.assertTrue(batches.stream().allMatch(b -> b.size() <= 4));
+    Assert.assertTrue(batches.size() >= 3);
+    batcher.shutdown();
+  }
+
+  @Test
+  public void errorPropagatesToBatch() {
+    val batcher =
+        new ReactiveBatcher<Integer, Integer>(
+            2, Duration.ofMillis(20), items -> Mono.error(new IllegalStateException("boom")));
+    StepVerifier.create(batcher.add(1)).verifyError(IllegalStateException.class);
+    batcher.shutdown();
+  }
+
+  @Test
+  public void slowHandlerDoesNotOverflow() {
+    val number = 100;
+    val batcher =
+        new ReactiveBatcher<Long, Long>(
+            4, Duration.ofMillis(1), items -> Mono.delay(Duration.ofMillis(20)).thenReturn(items));
+    // 元素间隔大于window, 每批只有一个元素, 批次产生快于处理
+    val step = Flux.interval(Duration.ofMillis(2)).take(number).flatMap(batcher::add).count();
+    StepVerifier.create(step)
+        .expectNext((long) number)
+        .expectComplete()
+        .verify(Duration.ofSeconds(10));
+    batcher.shutdown();
+  }
+
+  @Test
+  public void addAfterShutdownErrors() {
+    val batcher = new ReactiveBatcher<Integer, Integer>(2, Duration.ofMillis(20), Mono::just);
+    batcher.shutdown();
+    StepVerifier.create(batcher.add(1))
+        .expectError(IllegalStateException.class)
+        .verify(Duration.ofSeconds(1));
+  }
+}
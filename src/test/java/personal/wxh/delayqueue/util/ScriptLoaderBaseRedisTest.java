@@ -14,6 +14,7 @@ import personal.wxh.delayqueue.BaseRedisTest;
 public class ScriptLoaderBaseRedisTest extends BaseRedisTest {
 
   @Test
+  @SuppressWarnings("deprecation")
   public void loadScript() {
     val file = "/lua/dequeue.lua";
     val sha1 = ScriptLoader.loadScript(client, file);
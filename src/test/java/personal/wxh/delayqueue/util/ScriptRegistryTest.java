@@ -0,0 +1,53 @@
+package personal.wxh.delayqueue.util;
+
+import io.lettuce.core.ScriptOutputType;
+import java.util.Collections;
+import java.util.List;
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Test;
+import personal.wxh.delayqueue.BaseRedisTest;
+import reactor.test.StepVerifier;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class ScriptRegistryTest extends BaseRedisTest {
+
+  private static final String FILE = "/lua/lpop-batch.lua";
+
+  @Test
+  public void cached() {
+    Assert.assertSame(ScriptRegistry.get(FILE), ScriptRegistry.get(FILE));
+  }
+
+  @Test
+  public void localDigest() {
+    val script = ScriptRegistry.get(FILE);
+    Assert.assertEquals(script.getDigest(), client.connect().sync().scriptLoad(script.getSource()));
+  }
+
+  @Test
+  public void evalAfterFlush() {
+    val commands = client.connect().reactive();
+    val script = ScriptRegistry.get(FILE);
+    val step =
+        commands
+            .del("testScriptRegistry")
+            .then(commands.rpush("testScriptRegistry", "a"))
+            .then(commands.scriptFlush())
+            .thenMany(
+                ScriptRegistry.<String, String, List<String>>eval(
+                    commands,
+                    script,
+                    ScriptOutputType.MULTI,
+                    new String[] {"testScriptRegistry"},
+                    "1"));
+    StepVerifier.create(step).expectNext(Collections.singletonList("a")).verifyComplete();
+    // NOSCRIPT后重新加载, 之后的EVALSHA不再失败
+    StepVerifier.create(commands.scriptExists(script.getDigest()))
+        .expectNext(true)
+        .verifyComplete();
+  }
+}
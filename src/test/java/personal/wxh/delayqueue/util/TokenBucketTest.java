@@ -0,0 +1,33 @@
+package personal.wxh.delayqueue.util;
+
+import lombok.val;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author wangxinhua
+ * @since 1.0
+ */
+public class TokenBucketTest {
+
+  @Test
+  public void startsFullAndRefills() throws InterruptedException {
+    val bucket = new TokenBucket(100, 10);
+    Assert.assertEquals(10, bucket.available());
+    Assert.assertTrue(bucket.tryAcquire(10));
+    Assert.assertFalse(bucket.tryAcquire(1));
+    Assert.assertTrue(bucket.millisUntil(1) > 0);
+    Thread.sleep(50);
+    val refilled = bucket.available();
+    Assert.assertTrue(refilled >= 4 && refilled <= 10);
+  }
+
+  @Test
+  public void consumeBeyondAvailable() {
+    val bucket = new TokenBucket(1000, 10);
+    bucket.consume(20);
+    Assert.assertEquals(0, bucket.available());
+    // 欠下的10个令牌需要先补回
+    Assert.assertTrue(bucket.millisUntil(1) >= 9);
+  }
+}